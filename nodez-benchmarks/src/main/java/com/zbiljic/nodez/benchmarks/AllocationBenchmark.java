@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of executing a graph of {@value #NODES} nodes, to be read from the {@code
+ * gc.alloc.rate.norm} result of the gc profiler: divided by the number of nodes it gives the bytes
+ * allocated per node.
+ * <p>
+ * The graph has {@value #WIDTH} values, followed by layers of {@value #WIDTH} nodes each joining
+ * two nodes of the previous layer, which are summed into the root. Executing a compiled plan is the
+ * steady state, where only per execution state is allocated, while building and applying the graph
+ * also includes the allocation of the nodes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class AllocationBenchmark {
+
+  static final int NODES = 100;
+  private static final int WIDTH = 10;
+  private static final int LAYERS = 8;
+
+  @Param({"FUTURES", "COUNTERS"})
+  public GraphPlan.Scheduling scheduling;
+
+  private GraphPlan<Integer> plan;
+
+  @Setup
+  public void setUp() {
+    plan = GraphPlan.compile(graph(), scheduling);
+    if (plan.size() != NODES) {
+      throw new IllegalStateException("Expected " + NODES + " nodes, got " + plan.size());
+    }
+  }
+
+  @Benchmark
+  public Integer plan() {
+    return plan.execute(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Integer buildAndApply() {
+    return graph().apply(Graphs.INLINE).join();
+  }
+
+  static Node<Integer> graph() {
+    List<Node<Integer>> layer = new ArrayList<>(WIDTH);
+    for (int i = 0; i < WIDTH; i++) {
+      layer.add(Node.value(i));
+    }
+    for (int l = 0; l < LAYERS; l++) {
+      List<Node<Integer>> next = new ArrayList<>(WIDTH);
+      for (int i = 0; i < WIDTH; i++) {
+        next.add(Node.map2("join", layer.get(i), layer.get((i + 1) % WIDTH), Integer::sum));
+      }
+      layer = next;
+    }
+    Node<Integer> sum = layer.get(0);
+    for (int i = 1; i < WIDTH; i++) {
+      sum = Node.map2("sum", sum, layer.get(i), Integer::sum);
+    }
+    return sum.map("root", x -> x);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.AndNode;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.OrNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balanced trees of {@link AndNode}s and {@link OrNode}s, alternating on every level, over leaves
+ * which alternate between {@code true} and {@code false}.
+ * <p>
+ * Lazy trees skip the operands after the first one deciding the result, eager trees evaluate all of
+ * them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BooleanTreeBenchmark {
+
+  private static final int FAN_OUT = 4;
+
+  @Param({"2", "4", "6"})
+  public int levels;
+
+  @Param({"true", "false"})
+  public boolean lazy;
+
+  @Benchmark
+  public Boolean buildAndApply() {
+    return tree(levels, 0).apply(Graphs.INLINE).join();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Node<Boolean> tree(int level, int index) {
+    if (level == 0) {
+      return index % 2 == 0 ? Node.TRUE : Node.FALSE;
+    }
+    Node<Boolean>[] operands = new Node[FAN_OUT];
+    for (int i = 0; i < FAN_OUT; i++) {
+      operands[i] = tree(level - 1, index * FAN_OUT + i);
+    }
+    if (level % 2 == 0) {
+      return lazy ? AndNode.createLazy(operands) : AndNode.create(operands);
+    }
+    return lazy ? OrNode.createLazy(operands) : OrNode.create(operands);
+  }
+}
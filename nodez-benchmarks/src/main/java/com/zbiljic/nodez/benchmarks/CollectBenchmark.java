@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.CollectOptions;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.utils.CompletableFutures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Node#collect(List)}, {@link Node#collect(Map)} and {@link Node#splitAndCollect} over
+ * lists of different sizes, the latter also with a limited number of elements in flight. The
+ * {@code Futures} variants collect the same nodes the way {@code Node.collect} did before, by
+ * applying them and collecting their futures with {@link CompletableFutures#collect}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CollectBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int size;
+
+  private static final CollectOptions WINDOWED = CollectOptions.builder()
+    .withMaxInFlight(64)
+    .build();
+
+  private List<Integer> items;
+
+  @Setup
+  public void setUp() {
+    items = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      items.add(i);
+    }
+  }
+
+  @Benchmark
+  public List<Integer> collect() {
+    List<Node<Integer>> nodes = new ArrayList<>(size);
+    for (Integer item : items) {
+      nodes.add(Node.value(item).map("plusOne", x -> x + 1));
+    }
+    return Node.collect(nodes).apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public List<Integer> collectFutures() {
+    List<Node<Integer>> nodes = new ArrayList<>(size);
+    for (Integer item : items) {
+      nodes.add(Node.value(item).map("plusOne", x -> x + 1));
+    }
+    List<CompletableFuture<Integer>> futures = new ArrayList<>();
+    for (Node<Integer> node : nodes) {
+      futures.add(node.apply());
+    }
+    return Node.wrapCompletableFuture(CompletableFutures.collect(futures)).apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Map<Integer, Integer> collectMap() {
+    Map<Integer, Node<Integer>> nodes = new HashMap<>();
+    for (Integer item : items) {
+      nodes.put(item, Node.value(item).map("plusOne", x -> x + 1));
+    }
+    return Node.collect(nodes).apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Map<Integer, Integer> collectMapFutures() {
+    Map<Integer, Node<Integer>> nodes = new HashMap<>();
+    for (Integer item : items) {
+      nodes.put(item, Node.value(item).map("plusOne", x -> x + 1));
+    }
+    Map<Integer, CompletableFuture<Integer>> futures = new HashMap<>();
+    for (Map.Entry<Integer, Node<Integer>> entry : nodes.entrySet()) {
+      futures.put(entry.getKey(), entry.getValue().apply());
+    }
+    return Node.wrapCompletableFuture(CompletableFutures.collect(futures)).apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public List<Integer> splitAndCollect() {
+    return Node.splitAndCollect(Node.value(items), "plusOne",
+      (Integer x) -> Node.value(x + 1))
+      .apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public List<Integer> splitAndCollectWindowed() {
+    return Node.splitAndCollect(Node.value(items), "plusOne",
+      (Integer x) -> Node.value(x + 1), WINDOWED)
+      .apply(Graphs.INLINE).join();
+  }
+}
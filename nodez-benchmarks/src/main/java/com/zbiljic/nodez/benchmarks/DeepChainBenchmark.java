@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long chains of {@code map} transformations, whose cost should grow linearly with the depth.
+ * <p>
+ * The deepest chains need a heap of about 1GB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DeepChainBenchmark {
+
+  @Param({"10", "1000", "100000", "1000000"})
+  public int depth;
+
+  private GraphPlan<Integer> futuresPlan;
+  private GraphPlan<Integer> countersPlan;
+
+  @Setup
+  public void setUp() {
+    Node<Integer> root = Graphs.chain(Node.value(0), depth);
+    futuresPlan = GraphPlan.compile(root, GraphPlan.Scheduling.FUTURES);
+    countersPlan = GraphPlan.compile(root, GraphPlan.Scheduling.COUNTERS);
+  }
+
+  /**
+   * Build the chain and apply it, as a graph built per request would.
+   */
+  @Benchmark
+  public Integer buildAndApply() {
+    return Graphs.chain(Node.value(0), depth).apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Integer planWithFutures() {
+    return futuresPlan.execute(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Integer planWithCounters() {
+    return countersPlan.execute(Graphs.INLINE).join();
+  }
+}
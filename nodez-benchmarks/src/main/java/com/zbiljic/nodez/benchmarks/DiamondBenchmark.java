@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stacked diamonds: every layer splits the previous value into two nodes and joins them again, so
+ * every node is a dependency of more than one node.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DiamondBenchmark {
+
+  @Param({"10", "1000"})
+  public int layers;
+
+  private GraphPlan<Long> plan;
+
+  @Setup
+  public void setUp() {
+    plan = GraphPlan.compile(diamonds());
+  }
+
+  @Benchmark
+  public Long buildAndApply() {
+    return diamonds().apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Long plan() {
+    return plan.execute(Graphs.INLINE).join();
+  }
+
+  private Node<Long> diamonds() {
+    Node<Long> node = Node.value(1L);
+    for (int i = 0; i < layers; i++) {
+      Node<Long> left = node.map("left", x -> x + 1);
+      Node<Long> right = node.map("right", x -> x - 1);
+      node = Node.map2("join", left, right, (l, r) -> (l + r) / 2);
+    }
+    return node;
+  }
+}
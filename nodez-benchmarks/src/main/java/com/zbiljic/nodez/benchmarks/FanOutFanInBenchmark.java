@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One source consumed by many nodes, whose values are joined again by a single node.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FanOutFanInBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int width;
+
+  private GraphPlan<Integer> plan;
+
+  @Setup
+  public void setUp() {
+    plan = GraphPlan.compile(fold(Node.value(1)));
+  }
+
+  /**
+   * Fan in with {@link Node#collect(List)}.
+   */
+  @Benchmark
+  public List<Integer> collect() {
+    Node<Integer> source = Node.value(1);
+    List<Node<Integer>> nodes = new ArrayList<>(width);
+    for (int i = 0; i < width; i++) {
+      final int offset = i;
+      nodes.add(source.map("plus", x -> x + offset));
+    }
+    return Node.collect(nodes).apply(Graphs.INLINE).join();
+  }
+
+  /**
+   * Fan in with a chain of {@code map2} nodes, which is also usable in a plan.
+   */
+  @Benchmark
+  public Integer fold() {
+    return fold(Node.value(1)).apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public Integer planFold() {
+    return plan.execute(Graphs.INLINE).join();
+  }
+
+  private Node<Integer> fold(Node<Integer> source) {
+    Node<Integer> sum = Node.value(0);
+    for (int i = 0; i < width; i++) {
+      final int offset = i;
+      sum = Node.map2("sum", sum, source.map("plus", x -> x + offset), Integer::sum);
+    }
+    return sum;
+  }
+}
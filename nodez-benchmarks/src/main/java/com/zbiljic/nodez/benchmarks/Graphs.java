@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.Node;
+
+/**
+ * Shared setup of the benchmarks.
+ */
+final class Graphs {
+
+  /**
+   * Evaluates every node on the calling thread, as soon as its dependencies are complete.
+   */
+  static final ExecutionContext INLINE = ExecutionContext.builder()
+    .withInlineExecution(true)
+    .build();
+
+  private Graphs() { /* No instance methods */ }
+
+  /**
+   * Returns a chain of {@code depth} transformations of the source.
+   */
+  static Node<Integer> chain(Node<Integer> source, int depth) {
+    Node<Integer> node = source;
+    for (int i = 0; i < depth; i++) {
+      node = node.map("plusOne", x -> x + 1);
+    }
+    return node;
+  }
+}
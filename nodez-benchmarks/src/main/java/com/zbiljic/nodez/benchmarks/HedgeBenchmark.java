@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.HedgePolicy;
+import com.zbiljic.nodez.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link Node#hedged} over {@link Node#flatMap} for calls which complete before the
+ * hedge delay, which is what most calls do. The {@code completed} variants return completed
+ * futures, which are not hedged at all, the {@code pending} variants futures which complete after
+ * the node was applied, for which a hedge is scheduled and cancelled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class HedgeBenchmark {
+
+  private final HedgePolicy fixed = HedgePolicy.builder()
+    .withDelay(Duration.ofSeconds(1))
+    .build();
+
+  private final HedgePolicy percentile = HedgePolicy.builder()
+    .withDelay(Duration.ofSeconds(1))
+    .withPercentileDelay(95)
+    .build();
+
+  @Benchmark
+  public String flatMapCompleted() {
+    return Node.value("request")
+      .flatMap("call", CompletableFuture::completedFuture)
+      .apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public String hedgedCompleted() {
+    return Node.value("request")
+      .hedged("call", CompletableFuture::completedFuture, fixed)
+      .apply(Graphs.INLINE).join();
+  }
+
+  @Benchmark
+  public String flatMapPending() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Node.value("request")
+      .flatMap("call", request -> future)
+      .apply(Graphs.INLINE);
+    future.complete("value");
+    return result.join();
+  }
+
+  @Benchmark
+  public String hedgedPending() {
+    return pending(fixed);
+  }
+
+  @Benchmark
+  public String hedgedPendingPercentile() {
+    return pending(percentile);
+  }
+
+  private static String pending(HedgePolicy policy) {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Node.value("request")
+      .hedged("call", request -> future, policy)
+      .apply(Graphs.INLINE);
+    future.complete("value");
+    return result.join();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of timing and metrics on executions of the {@value AllocationBenchmark#NODES} nodes
+ * graph of {@link AllocationBenchmark}, from several threads recording into one {@link
+ * MetricsRegistry}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class MetricsBenchmark {
+
+  public enum Instrumentation {
+    NONE,
+    TIMING,
+    METRICS,
+  }
+
+  @Param({"NONE", "TIMING", "METRICS"})
+  public Instrumentation instrumentation;
+
+  private GraphPlan<Integer> plan;
+  private ExecutionContext context;
+
+  @Setup
+  public void setUp() {
+    plan = GraphPlan.compile(AllocationBenchmark.graph());
+    ExecutionContext.Builder builder = ExecutionContext.builder()
+      .withInlineExecution(true);
+    if (instrumentation == Instrumentation.TIMING) {
+      builder.withTiming(true);
+    } else if (instrumentation == Instrumentation.METRICS) {
+      builder.withMetrics(new MetricsRegistry());
+    }
+    context = builder.build();
+  }
+
+  @Benchmark
+  public Integer plan() {
+    return plan.execute(context).join();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.PriorityExecutor;
+import com.zbiljic.nodez.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency of requests on a saturated pool, with FIFO and priority scheduling: compare the p99 of
+ * the sample time results.
+ * <p>
+ * Every request executes a plan with a chain of {@value #CHAIN} nodes, its critical path, next to
+ * {@value #FAN} independent nodes, all of them blocking their thread for {@value #WORK_MICROS}us like
+ * a call to a backend. The requests running at once keep the pool saturated. In FIFO order every step of the chain queues behind the
+ * independent nodes of all requests, with priorities it goes first. Priorities come from evaluation
+ * times recorded into a {@link MetricsRegistry} by a warm up run.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class PrioritySchedulingBenchmark {
+
+  private static final int POOL_THREADS = 4;
+  private static final int CHAIN = 8;
+  private static final int FAN = 24;
+  private static final long WORK_MICROS = 100;
+
+  public enum Scheduler {
+    FIFO,
+    PRIORITY,
+  }
+
+  @Param({"FIFO", "PRIORITY"})
+  public Scheduler scheduler;
+
+  private ExecutorService fifo;
+  private PriorityExecutor priority;
+  private GraphPlan<Integer> plan;
+  private ExecutionContext context;
+
+  @Setup
+  public void setUp() {
+    plan = GraphPlan.compile(graph());
+    ExecutionContext.Builder builder = ExecutionContext.builder();
+    if (scheduler == Scheduler.FIFO) {
+      fifo = Executors.newFixedThreadPool(POOL_THREADS);
+      builder.withExecutor(fifo);
+    } else {
+      priority = new PriorityExecutor(POOL_THREADS, 10, TimeUnit.MILLISECONDS);
+      builder.withExecutor(priority);
+
+      MetricsRegistry registry = new MetricsRegistry();
+      ExecutionContext warmUp = builder.build().toBuilder()
+        .withMetrics(registry)
+        .build();
+      for (int i = 0; i < 100; i++) {
+        plan.execute(warmUp).join();
+      }
+      plan.updatePriorities(registry.evaluateNanosEstimate(GraphPlan.DEFAULT_EVALUATE_ESTIMATE_NANOS));
+    }
+    context = builder.build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (fifo != null) {
+      fifo.shutdown();
+    }
+    if (priority != null) {
+      priority.shutdown();
+    }
+  }
+
+  @Benchmark
+  public Integer request() {
+    return plan.execute(context).join();
+  }
+
+  private static Node<Integer> graph() {
+    Node<Integer> source = Node.value(1);
+    Node<Integer> chain = source;
+    for (int i = 0; i < CHAIN; i++) {
+      chain = work("chain", chain);
+    }
+    Node<Integer> fan = work("fan", source);
+    for (int i = 1; i < FAN; i++) {
+      fan = Node.map2("sum", fan, work("fan", source), Integer::sum);
+    }
+    return Node.map2("root", chain, fan, Integer::sum);
+  }
+
+  /**
+   * A node which is not cheap, so it is always dispatched to the executor, and blocks its thread.
+   */
+  private static Node<Integer> work(String name, Node<Integer> source) {
+    return source.flatMap(name, x -> {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(WORK_MICROS));
+      return CompletableFuture.completedFuture(x + 1);
+    });
+  }
+}
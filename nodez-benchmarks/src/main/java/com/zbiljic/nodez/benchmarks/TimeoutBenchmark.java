@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.benchmarks;
+
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.utils.TimerWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of registering and cancelling a timeout, as done for every {@link Node#withTimeout}
+ * whose node does not complete inline, on the shared {@link TimerWheel} and on a {@link
+ * ScheduledThreadPoolExecutor}. The {@code node} variants apply a node with a timeout which
+ * completes in time, and the same node without a timeout.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TimeoutBenchmark {
+
+  private static final Runnable NOOP = () -> { };
+  private static final Duration TIMEOUT = Duration.ofSeconds(1);
+
+  private ScheduledThreadPoolExecutor executor;
+
+  @Setup
+  public void setUp() {
+    executor = new ScheduledThreadPoolExecutor(1);
+    executor.setRemoveOnCancelPolicy(true);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public boolean timerWheel() {
+    return TimerWheel.shared().schedule(NOOP, 1, TimeUnit.SECONDS).cancel();
+  }
+
+  @Benchmark
+  public boolean scheduledExecutor() {
+    ScheduledFuture<?> future = executor.schedule(NOOP, 1, TimeUnit.SECONDS);
+    return future.cancel(false);
+  }
+
+  @Benchmark
+  public String node() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Node.wrapCompletableFuture(future, "pending")
+      .withTimeout(TIMEOUT)
+      .apply(Graphs.INLINE);
+    future.complete("value");
+    return result.join();
+  }
+
+  @Benchmark
+  public String nodeWithoutTimeout() {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Node.wrapCompletableFuture(future, "pending")
+      .apply(Graphs.INLINE);
+    future.complete("value");
+    return result.join();
+  }
+}
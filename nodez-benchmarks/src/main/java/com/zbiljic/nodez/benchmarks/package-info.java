@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * JMH benchmarks of building and applying node graphs of different shapes.
+ * <p>
+ * Build the module with {@code mvn package} and run {@code java -jar
+ * nodez-benchmarks/target/benchmarks.jar}. {@link com.zbiljic.nodez.benchmarks.BenchmarkRunner}
+ * always adds the gc profiler, so every benchmark reports its allocation rate ({@code
+ * gc.alloc.rate.norm} is bytes per operation) together with its throughput. Usual JMH options can
+ * be passed on the command line, for example a benchmark name pattern or {@code -p size=1000}.
+ * <p>
+ * Unless noted otherwise, graphs are applied with inline execution, so the numbers measure the
+ * overhead of the engine rather than of handing work to the common pool.
+ */
+package com.zbiljic.nodez.benchmarks;
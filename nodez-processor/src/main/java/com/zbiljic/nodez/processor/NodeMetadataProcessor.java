@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates metadata for node classes, dependency enums and subgraphs, so the nodez runtime does
+ * not need reflection for them.
+ * <p>
+ * For every class it generates a class named after its binary name with the {@code _NodezMetadata}
+ * suffix, in the same package:
+ * <ul>
+ * <li>for enums with {@code @OptionalDep} constants, or nested in a node class, a bitmask of the
+ * optional constants;</li>
+ * <li>for node classes with a default constructor, a factory calling it;</li>
+ * <li>for subgraphs, an accessor of their public node fields.</li>
+ * </ul>
+ * Classes which cannot be referenced from their package (like private nested classes) are skipped
+ * and left to reflection.
+ * <p>
+ * The processor works with class names only and does not depend on the nodez library itself.
+ */
+public class NodeMetadataProcessor extends AbstractProcessor {
+
+  private static final String NODE = "com.zbiljic.nodez.Node";
+  private static final String SUBGRAPH = "com.zbiljic.nodez.Subgraph";
+  private static final String OPTIONAL_DEP = "com.zbiljic.nodez.OptionalDep";
+  private static final String GENERATED_METADATA = "com.zbiljic.nodez.GeneratedMetadata";
+  private static final String CLASS_NAME_SUFFIX = "_NodezMetadata";
+
+  private final Set<String> generated = new HashSet<>();
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton("*");
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement node = processingEnv.getElementUtils().getTypeElement(NODE);
+    TypeElement subgraph = processingEnv.getElementUtils().getTypeElement(SUBGRAPH);
+    if (node == null || subgraph == null) {
+      return false;  // nodez is not on the classpath
+    }
+    for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+      process(type, node.asType(), subgraph.asType());
+    }
+    // other processors may be interested in the same annotations
+    return false;
+  }
+
+  private void process(TypeElement type, TypeMirror node, TypeMirror subgraph) {
+    if (isAccessibleFromPackage(type)) {
+      if (type.getKind() == ElementKind.ENUM) {
+        processEnum(type, node);
+      } else if (type.getKind() == ElementKind.CLASS) {
+        if (isSubtype(type.asType(), node)) {
+          processNode(type);
+        } else if (isSubtype(type.asType(), subgraph)) {
+          processSubgraph(type, node);
+        }
+      }
+    }
+    for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+      process(nested, node, subgraph);
+    }
+  }
+
+  private void processEnum(TypeElement type, TypeMirror node) {
+    List<VariableElement> constants = new ArrayList<>();
+    for (Element element : type.getEnclosedElements()) {
+      if (element.getKind() == ElementKind.ENUM_CONSTANT) {
+        constants.add((VariableElement) element);
+      }
+    }
+    long mask = 0;
+    boolean hasOptional = false;
+    for (int ordinal = 0; ordinal < constants.size(); ordinal++) {
+      if (isAnnotatedWith(constants.get(ordinal), OPTIONAL_DEP)) {
+        if (ordinal >= Long.SIZE) {
+          return;  // does not fit in the mask, left to reflection
+        }
+        mask |= 1L << ordinal;
+        hasOptional = true;
+      }
+    }
+    boolean nestedInNode = type.getNestingKind() == NestingKind.MEMBER
+      && isSubtype(type.getEnclosingElement().asType(), node);
+    if (!hasOptional && !nestedInNode) {
+      return;
+    }
+    write(type, "DependencyEnum",
+      "  @Override\n"
+        + "  public long optionalDependencyMask() {\n"
+        + "    return 0x" + Long.toHexString(mask) + "L;\n"
+        + "  }\n");
+  }
+
+  private void processNode(TypeElement type) {
+    if (type.getModifiers().contains(Modifier.ABSTRACT) || !hasDefaultConstructor(type)) {
+      return;
+    }
+    write(type, "NodeFactory",
+      "  @Override\n"
+        + "  public " + NODE + "<?> newInstance() {\n"
+        + "    return new " + rawName(type) + "();\n"
+        + "  }\n");
+  }
+
+  private void processSubgraph(TypeElement type, TypeMirror node) {
+    StringBuilder body = new StringBuilder();
+    body.append("  @Override\n")
+      .append("  public java.util.List<").append(NODE).append("> getExposedNodes(")
+      .append(SUBGRAPH).append(" subgraph) {\n")
+      .append("    java.util.List<").append(NODE).append("> nodes = new java.util.ArrayList<>();\n");
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      if (field.getModifiers().contains(Modifier.PUBLIC) && isSubtype(field.asType(), node)) {
+        String owner = field.getModifiers().contains(Modifier.STATIC)
+          ? rawName(type)
+          : "((" + rawName(type) + ") subgraph)";
+        body.append("    nodes.add(").append(owner).append('.').append(field.getSimpleName()).append(");\n");
+      }
+    }
+    body.append("    return nodes;\n")
+      .append("  }\n");
+    write(type, "ExposedNodes", body.toString());
+  }
+
+  private void write(TypeElement type, String metadataType, String body) {
+    String packageName = getPackage(type).getQualifiedName().toString();
+    String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    String simpleName = (packageName.isEmpty()
+      ? binaryName
+      : binaryName.substring(packageName.length() + 1)) + CLASS_NAME_SUFFIX;
+    String qualifiedName = packageName.isEmpty()
+      ? simpleName
+      : packageName + "." + simpleName;
+    if (!generated.add(qualifiedName)) {
+      return;
+    }
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+      try (Writer writer = file.openWriter()) {
+        if (!packageName.isEmpty()) {
+          writer.write("package " + packageName + ";\n\n");
+        }
+        writer.write("/**\n"
+          + " * Generated by " + getClass().getName() + ", do not edit.\n"
+          + " */\n"
+          + "@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n"
+          + "public final class " + simpleName
+          + " implements " + GENERATED_METADATA + "." + metadataType + " {\n\n"
+          + body
+          + "}\n");
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+        "Cannot write node metadata: " + e.getMessage(), type);
+    }
+  }
+
+  private boolean isSubtype(TypeMirror type, TypeMirror superType) {
+    return processingEnv.getTypeUtils().isSubtype(
+      processingEnv.getTypeUtils().erasure(type),
+      processingEnv.getTypeUtils().erasure(superType));
+  }
+
+  private static boolean isAnnotatedWith(Element element, String annotation) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasDefaultConstructor(TypeElement type) {
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()) {
+        return !constructor.getModifiers().contains(Modifier.PRIVATE);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check if the type can be referenced from other classes in its package: it is top level, or it
+   * is a static member class of such a class, and none of them is private.
+   */
+  private static boolean isAccessibleFromPackage(TypeElement type) {
+    Element element = type;
+    while (element instanceof TypeElement) {
+      TypeElement typeElement = (TypeElement) element;
+      if (typeElement.getModifiers().contains(Modifier.PRIVATE)) {
+        return false;
+      }
+      if (typeElement.getNestingKind() == NestingKind.MEMBER) {
+        if (!typeElement.getModifiers().contains(Modifier.STATIC)
+            && typeElement.getKind() == ElementKind.CLASS) {
+          return false;
+        }
+      } else if (typeElement.getNestingKind() != NestingKind.TOP_LEVEL) {
+        return false;
+      }
+      element = typeElement.getEnclosingElement();
+    }
+    return true;
+  }
+
+  private static String rawName(TypeElement type) {
+    return type.getQualifiedName().toString();
+  }
+
+  private static PackageElement getPackage(Element element) {
+    while (!(element instanceof PackageElement)) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.ArrayDeque;
+
+/**
+ * Activation of a node, which first applies the dependencies of the node and then, once all of
+ * them are activated too, waits on them and evaluates the node.
+ * <p>
+ * Activations run from an explicit work stack of the current thread instead of recursing from a
+ * node into its dependencies, so the depth of a graph is not limited by the thread stack size.
+ * Dependencies applied while the stack is being drained are pushed onto it and their {@link
+ * CompletableFuture} is returned right away. Dependencies are activated before their dependents,
+ * so nodes whose dependencies complete inline can be evaluated inline too.
+ * <p>
+ * Nodes applied otherwise during a drain, as sink nodes or from {@link Node#evaluate()}, are
+ * activated right away by a nested drain of the activations they push, since the caller may wait
+ * on them: a {@link Node#evaluate()} joining a node it applied would otherwise wait on itself. The
+ * depth of such nesting is bounded by the inline depth limit of the context, past which nodes are
+ * evaluated on the executor.
+ */
+abstract class Activation {
+
+  private static final ThreadLocal<WorkStack> WORK_STACK = ThreadLocal.withInitial(WorkStack::new);
+
+  private final ExecutionContext context;
+  private boolean dependenciesApplied;
+
+  Activation(ExecutionContext context) {
+    this.context = context;
+  }
+
+  /**
+   * Apply the dependencies of the node.
+   */
+  abstract void applyDependencies();
+
+  /**
+   * Called after all dependencies applied in {@link #applyDependencies()} are activated.
+   */
+  abstract void dependenciesActivated();
+
+  /**
+   * Called if {@link #applyDependencies()} or {@link #dependenciesActivated()} threw, to fail the
+   * node of this activation. The other activations on the stack are still run.
+   */
+  abstract void failed(Throwable throwable);
+
+  /**
+   * Run the given activation on the current thread. If the thread is applying the dependencies of
+   * another activation, the activation is only pushed onto the work stack and runs before that
+   * one; otherwise it runs before this call returns.
+   */
+  static void activate(Activation activation) {
+    WorkStack workStack = WORK_STACK.get();
+    int depth = workStack.stack.size();
+    workStack.stack.push(activation);
+    if (workStack.applyingDependencies) {
+      return;
+    }
+    drain(workStack, depth);
+  }
+
+  /**
+   * Runs the activations on the stack until only the given number of them is left, the ones
+   * pushed before this drain.
+   */
+  private static void drain(WorkStack workStack, int depth) {
+    ArrayDeque<Activation> stack = workStack.stack;
+    while (stack.size() > depth) {
+      Activation activation = stack.peek();
+      ExecutionContext previous = ExecutionContext.enter(activation.context);
+      boolean applyingDependencies = workStack.applyingDependencies;
+      try {
+        if (!activation.dependenciesApplied) {
+          // dependencies are pushed on top of the activation, which stays on the stack until all
+          // of them are done
+          activation.dependenciesApplied = true;
+          workStack.applyingDependencies = true;
+          activation.applyDependencies();
+        } else {
+          stack.pop();
+          workStack.applyingDependencies = false;
+          activation.dependenciesActivated();
+        }
+      } catch (Throwable throwable) {
+        workStack.applyingDependencies = false;
+        // only the node of the activation fails, the activations of other nodes on the stack
+        // would otherwise never run and their promises never complete
+        activation.failed(throwable);
+      } finally {
+        workStack.applyingDependencies = applyingDependencies;
+        ExecutionContext.exit(previous);
+      }
+    }
+  }
+
+  private static final class WorkStack {
+
+    final ArrayDeque<Activation> stack = new ArrayDeque<>();
+    // Set while the dependencies of an activation are applied, whose activations are deferred.
+    boolean applyingDependencies;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.zbiljic.nodez;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -69,18 +70,34 @@ public abstract class BooleanOperationNode extends Node<Boolean> {
   }
 
   @Override
-  CompletableFuture<Void> futureFromDependencies() {
+  Collection<Node> getDependenciesToWaitOn() {
+    return Collections.singletonList(operands.get(0));
+  }
+
+  @Override
+  void applyDependencyNodes() {
     if (!lazy) {
       // kick-off all the dependent nodes so they execute async.
       for (Node<Boolean> operand : operands) {
         operand.apply();
       }
+    } else {
+      operands.get(0).apply();
     }
+  }
 
+  @Override
+  CompletableFuture<Void> futureFromDependencies() {
     // Note: calling apply on a Node is idempotent and will always give you back the same Future.
     return CompletableFuture.allOf(operands.get(0).apply());
   }
 
+  @Override
+  protected boolean isCheap() {
+    // eager operations would otherwise complete on the first operand before the others evaluate
+    return lazy;
+  }
+
   @Override
   protected CompletableFuture<Boolean> evaluate() {
     return evaluate(operands);
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+/**
+ * Options of {@link Node#splitAndCollect(Node, NamedFunction, CollectOptions)} and {@link
+ * Node#splitAndCollectBatches(Node, NamedFunction, CollectOptions)}, which limit how many nodes of
+ * a split list are in flight at the same time.
+ * <p>
+ * The elements of the list are split into batches of {@link Builder#withBatchSize(int) batch size}
+ * elements. At most {@link Builder#withMaxInFlight(int) max in flight} batches are applied at the
+ * same time, and the next batch is applied as soon as one completes. Results are written into an
+ * array of the size of the list as they complete, in the order of the list or, if {@link
+ * Builder#withOrdered(boolean) unordered}, in the order they complete.
+ */
+public final class CollectOptions {
+
+  /**
+   * Options applying all elements at once and collecting the results in order, like {@link
+   * Node#splitAndCollect(Node, NamedFunction)}.
+   */
+  public static final CollectOptions DEFAULT = builder().build();
+
+  private final int maxInFlight;
+  private final int batchSize;
+  private final boolean ordered;
+
+  private CollectOptions(Builder builder) {
+    this.maxInFlight = builder.maxInFlight;
+    this.batchSize = builder.batchSize;
+    this.ordered = builder.ordered;
+  }
+
+  /**
+   * Returns how many batches are applied at the same time.
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Returns how many elements of the list are in one batch.
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Returns {@code true} if the results are in the order of the list, {@code false} if they are
+   * in the order they complete.
+   */
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  //
+  // Builder
+  //
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link CollectOptions}.
+   */
+  public static final class Builder {
+
+    private int maxInFlight = Integer.MAX_VALUE;
+    private int batchSize = 1;
+    private boolean ordered = true;
+
+    private Builder() {
+    }
+
+    /**
+     * Set how many batches are applied at the same time; unlimited by default.
+     */
+    public Builder withMaxInFlight(int maxInFlight) {
+      Preconditions.checkArgument(maxInFlight > 0, "Max in flight must be positive: %s", maxInFlight);
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    /**
+     * Set how many elements of the list are in one batch; one by default.
+     */
+    public Builder withBatchSize(int batchSize) {
+      Preconditions.checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Collect the results in the order of the list, which is the default, or in the order they
+     * complete.
+     */
+    public Builder withOrdered(boolean ordered) {
+      this.ordered = ordered;
+      return this;
+    }
+
+    public CollectOptions build() {
+      return new CollectOptions(this);
+    }
+  }
+}
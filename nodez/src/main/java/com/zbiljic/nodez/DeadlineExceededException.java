@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Failure of a node applied, or about to be evaluated, after the deadline of its execution passed.
+ *
+ * @see ExecutionContext.Builder#withDeadline(java.time.Duration)
+ */
+public class DeadlineExceededException extends TimeoutException {
+
+  private static final long serialVersionUID = 1L;
+
+  public final Node node;
+
+  public DeadlineExceededException(Node node) {
+    this(node, "applied");
+  }
+
+  DeadlineExceededException(Node node, String stage) {
+    super(String.format("Node [%s] %s after the deadline of the execution", node.getName(), stage));
+    this.node = node;
+  }
+}
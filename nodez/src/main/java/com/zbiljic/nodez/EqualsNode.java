@@ -38,6 +38,11 @@ public class EqualsNode<T> extends Node<Boolean> {
     this.nodeB = nodeB;
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected CompletableFuture<Boolean> evaluate() throws Exception {
     return CompletableFuture.completedFuture(Objects.equals(nodeA.emit(), nodeB.emit()));
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.debug.DebugLevel;
+import com.zbiljic.nodez.debug.DebugManager;
+import com.zbiljic.nodez.debug.DebugMessageBuilder;
+import com.zbiljic.nodez.metrics.NodeMetricsListener;
+import com.zbiljic.nodez.trace.ExecutionTrace;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@code ExecutionContext} carries the graph-level settings for one execution of a node graph.
+ * <p>
+ * The context is given to the root node via {@link Node#apply(ExecutionContext)} and is inherited
+ * by every dependency the root node applies. While a node is being applied, evaluated or completed,
+ * its context is bound to the current thread, so nodes that call {@link Node#apply()} on other
+ * nodes from inside {@link Node#evaluate()} (like {@link PredicateSwitchNode}) pass it along
+ * without knowing about it.
+ * <p>
+ * A node can override the executor it runs on with {@link Node#withExecutor(Executor)}, which is
+ * useful for isolating blocking {@code evaluate()} implementations from CPU bound ones.
+ * <p>
+ * Nodes marked as {@link Node#isCheap() cheap} skip the executor when all their dependencies are
+ * already complete and are evaluated on the calling thread. {@link Builder#withInlineExecution}
+ * extends this to all nodes of the graph, except the ones with their own executor.
+ * <p>
+ * Timing of node evaluations is off by default, {@link Builder#withTiming(boolean)} turns it on for
+ * all nodes of the graph, which then record a {@link NodeTiming}. {@link
+ * Builder#withMetrics(NodeMetricsListener)} reports the timing and outcome of every node to a
+ * {@link NodeMetricsListener}, like {@link com.zbiljic.nodez.metrics.MetricsRegistry}, and {@link
+ * Builder#withTrace(ExecutionTrace)} records a span of every node into an {@link ExecutionTrace}.
+ * <p>
+ * Debug messages of nodes go to the {@link DebugMessageBuilder} of the context set with {@link
+ * Builder#withDebug(DebugMessageBuilder)}, so debugging one execution does not turn it on for
+ * concurrent executions of other contexts. Contexts without one use the global builder of {@link
+ * DebugManager}. An {@link ExecutionSampler} turns debugging and tracing on for a sample of
+ * executions.
+ * <p>
+ * A deadline set with {@link Builder#withDeadline(Duration)} bounds the latency of an execution.
+ * Once it passed, nodes applied from then on fail with a {@link DeadlineExceededException} without
+ * applying their dependencies, and optional nodes still pending complete with {@link
+ * java.util.Optional#empty()}. Nodes applied before it whose dependencies complete after it are
+ * not evaluated either, unless they are {@link Node#isCheap() cheap}: cheap nodes only combine the
+ * results which are available, so the root can return a partial result. Nodes can read
+ * the time left with {@link #getRemainingNanos()}, to pass it on to the backends they call.
+ */
+public final class ExecutionContext {
+
+  /**
+   * The executor {@link CompletableFuture} uses for async tasks without an explicit executor: the
+   * {@link ForkJoinPool#commonPool() common pool}, unless it does not support parallelism, in which
+   * case a new thread is created for each task.
+   */
+  private static final Executor DEFAULT_EXECUTOR = ForkJoinPool.getCommonPoolParallelism() > 1
+    ? ForkJoinPool.commonPool()
+    : runnable -> new Thread(runnable).start();
+
+  /**
+   * The context used when a node is applied without one. It runs nodes on the same executor as
+   * {@link CompletableFuture#supplyAsync(java.util.function.Supplier)}.
+   */
+  public static final ExecutionContext DEFAULT = builder().build();
+
+  private static final int DEFAULT_MAX_INLINE_DEPTH = 64;
+
+  // The context of the node currently being applied, evaluated or completed on this thread.
+  private static final ThreadLocal<ExecutionContext> CURRENT = new ThreadLocal<>();
+
+  private final Executor executor;
+  private final boolean inlineExecution;
+  private final int maxInlineDepth;
+  // Clock of node timings, in nanoseconds, or null if timing is off.
+  @Nullable
+  private final LongSupplier timingClock;
+  @Nullable
+  private final NodeMetricsListener metricsListener;
+  @Nullable
+  private final ExecutionTrace trace;
+  // Builder of the debug messages of this execution, or null to use the one of DebugManager.
+  @Nullable
+  private final DebugMessageBuilder debugMessageBuilder;
+  // Ordinal of the level of the debug message builder, or -1 if it is the one of DebugManager, so
+  // that checking the level while evaluating nodes is a field read.
+  private final int debugLevel;
+  // Deadline of the execution on the System.nanoTime() clock, only meaningful if hasDeadline is set.
+  private final boolean hasDeadline;
+  private final long deadlineNanos;
+
+  // Set only for contexts of an execution of a GraphPlan.
+  private final GraphPlan.Execution<?> planExecution;
+
+  private ExecutionContext(Builder builder) {
+    this.executor = builder.executor;
+    this.inlineExecution = builder.inlineExecution;
+    this.maxInlineDepth = builder.maxInlineDepth;
+    this.timingClock = builder.timingClock;
+    this.metricsListener = builder.metricsListener;
+    this.trace = builder.trace;
+    this.debugMessageBuilder = builder.debugMessageBuilder;
+    this.debugLevel = builder.debugMessageBuilder != null
+      ? builder.debugMessageBuilder.getLevel().ordinal()
+      : -1;
+    this.hasDeadline = builder.hasDeadline;
+    this.deadlineNanos = builder.deadlineNanos;
+    this.planExecution = null;
+  }
+
+  private ExecutionContext(ExecutionContext context, GraphPlan.Execution<?> planExecution) {
+    this.executor = context.executor;
+    this.inlineExecution = context.inlineExecution;
+    this.maxInlineDepth = context.maxInlineDepth;
+    this.timingClock = context.timingClock;
+    this.metricsListener = context.metricsListener;
+    this.trace = context.trace;
+    this.debugMessageBuilder = context.debugMessageBuilder;
+    this.debugLevel = context.debugLevel;
+    this.hasDeadline = context.hasDeadline;
+    this.deadlineNanos = context.deadlineNanos;
+    this.planExecution = planExecution;
+  }
+
+  /**
+   * Returns the executor that node evaluation is dispatched to, unless a node has its own.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Returns {@code true} if every node whose dependencies are already complete is evaluated on the
+   * calling thread, not only the ones marked as cheap.
+   *
+   * @see Node#isCheap()
+   */
+  public boolean isInlineExecution() {
+    return inlineExecution;
+  }
+
+  /**
+   * Returns how many inline evaluations may be nested on one thread before evaluation falls back to
+   * the executor.
+   */
+  public int getMaxInlineDepth() {
+    return maxInlineDepth;
+  }
+
+  /**
+   * Returns {@code true} if nodes record a {@link NodeTiming} of their evaluation.
+   */
+  public boolean isTimingEnabled() {
+    return timingClock != null;
+  }
+
+  /**
+   * Returns the clock node timings are read from, or {@code null} if timing is off.
+   */
+  @Nullable
+  LongSupplier getTimingClock() {
+    return timingClock;
+  }
+
+  /**
+   * Returns the listener node outcomes and timings are reported to, or {@code null} if metrics are
+   * off.
+   */
+  @Nullable
+  public NodeMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  /**
+   * Returns the trace node spans are recorded into, or {@code null} if tracing is off.
+   */
+  @Nullable
+  public ExecutionTrace getTrace() {
+    return trace;
+  }
+
+  /**
+   * Returns the builder debug messages of nodes are written to: the one set on this context, or
+   * the global one of {@link DebugManager}.
+   */
+  public DebugMessageBuilder getDebugMessageBuilder() {
+    return debugMessageBuilder != null
+      ? debugMessageBuilder
+      : DebugManager.getDebugMessageBuilder();
+  }
+
+  /**
+   * Returns {@code true} if debug messages with the given level are written to the debug message
+   * builder of this context.
+   */
+  public boolean isDebugEnabled(DebugLevel level) {
+    return debugLevel >= 0
+      ? debugLevel >= level.ordinal()
+      : DebugManager.getDebugMessageBuilder().getLevel().ordinal() >= level.ordinal();
+  }
+
+  /**
+   * Returns {@code true} if the execution has a deadline.
+   */
+  public boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  /**
+   * Returns the nanoseconds left until the deadline, which are zero or negative once it passed, or
+   * {@link Long#MAX_VALUE} if the execution has no deadline.
+   */
+  public long getRemainingNanos() {
+    return hasDeadline
+      ? deadlineNanos - System.nanoTime()
+      : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns {@code true} if the execution has a deadline and it passed.
+   */
+  public boolean isDeadlineExceeded() {
+    return hasDeadline && deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * Returns the plan execution this context belongs to, or {@code null} if the graph is not
+   * executed from a {@link GraphPlan}.
+   */
+  @Nullable
+  public GraphPlan.Execution<?> getPlanExecution() {
+    return planExecution;
+  }
+
+  /**
+   * Returns a copy of this context for the given plan execution.
+   */
+  ExecutionContext forPlanExecution(GraphPlan.Execution<?> planExecution) {
+    return new ExecutionContext(this, planExecution);
+  }
+
+  /**
+   * Returns a builder initialized with the settings of this context.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  //
+  // Thread binding
+  //
+
+  /**
+   * Returns the context bound to the current thread, or {@link #DEFAULT} if there is none.
+   */
+  static ExecutionContext current() {
+    ExecutionContext context = CURRENT.get();
+    return context != null
+      ? context
+      : DEFAULT;
+  }
+
+  /**
+   * Binds the given context to the current thread.
+   *
+   * @return the previously bound context, which must be given back to {@link #exit}
+   */
+  static ExecutionContext enter(ExecutionContext context) {
+    ExecutionContext previous = CURRENT.get();
+    if (previous != context) {
+      CURRENT.set(context);
+    }
+    return previous;
+  }
+
+  /**
+   * Restores the context that was bound before the matching {@link #enter} call.
+   */
+  static void exit(ExecutionContext previous) {
+    CURRENT.set(previous);
+  }
+
+  //
+  // Builder
+  //
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link ExecutionContext}.
+   */
+  public static final class Builder {
+
+    private Executor executor = DEFAULT_EXECUTOR;
+    private boolean inlineExecution = false;
+    private int maxInlineDepth = DEFAULT_MAX_INLINE_DEPTH;
+    private LongSupplier timingClock;
+    private NodeMetricsListener metricsListener;
+    private ExecutionTrace trace;
+    private DebugMessageBuilder debugMessageBuilder;
+    private boolean hasDeadline;
+    private long deadlineNanos;
+
+    private Builder() {
+    }
+
+    private Builder(ExecutionContext context) {
+      this.executor = context.executor;
+      this.inlineExecution = context.inlineExecution;
+      this.maxInlineDepth = context.maxInlineDepth;
+      this.timingClock = context.timingClock;
+      this.metricsListener = context.metricsListener;
+      this.trace = context.trace;
+      this.debugMessageBuilder = context.debugMessageBuilder;
+      this.hasDeadline = context.hasDeadline;
+      this.deadlineNanos = context.deadlineNanos;
+    }
+
+    /**
+     * Set the executor that node evaluation is dispatched to.
+     */
+    public Builder withExecutor(Executor executor) {
+      this.executor = Preconditions.checkNotNull(executor, "executor");
+      return this;
+    }
+
+    /**
+     * Evaluate all nodes whose dependencies are already complete on the calling thread, instead of
+     * only the ones marked as cheap.
+     */
+    public Builder withInlineExecution(boolean inlineExecution) {
+      this.inlineExecution = inlineExecution;
+      return this;
+    }
+
+    /**
+     * Set how many inline evaluations may be nested on one thread before evaluation falls back to
+     * the executor. Zero disables inline evaluation altogether.
+     */
+    public Builder withMaxInlineDepth(int maxInlineDepth) {
+      Preconditions.checkArgument(maxInlineDepth >= 0,
+        "Max inline depth cannot be negative: %s", maxInlineDepth);
+      this.maxInlineDepth = maxInlineDepth;
+      return this;
+    }
+
+    /**
+     * Record a {@link NodeTiming} for every node evaluation, using {@link System#nanoTime()}.
+     * Timing is off by default, so nodes do not read the clock at all.
+     */
+    public Builder withTiming(boolean timing) {
+      this.timingClock = timing
+        ? System::nanoTime
+        : null;
+      return this;
+    }
+
+    /**
+     * Record a {@link NodeTiming} for every node evaluation, using the given clock returning
+     * nanoseconds.
+     */
+    public Builder withTimingClock(LongSupplier timingClock) {
+      this.timingClock = Preconditions.checkNotNull(timingClock, "timingClock");
+      return this;
+    }
+
+    /**
+     * Report the outcome and timing of every node evaluation to the given listener. Metrics need
+     * timing, so this turns it on with {@link System#nanoTime()} unless a clock was already set.
+     */
+    public Builder withMetrics(NodeMetricsListener metricsListener) {
+      this.metricsListener = Preconditions.checkNotNull(metricsListener, "metricsListener");
+      return this;
+    }
+
+    /**
+     * Record a span of every node into the given trace. A trace is meant for one execution, so
+     * this is usually set on a copy of a shared context made with {@link
+     * ExecutionContext#toBuilder()}. Like metrics, this turns on timing.
+     */
+    public Builder withTrace(ExecutionTrace trace) {
+      this.trace = Preconditions.checkNotNull(trace, "trace");
+      return this;
+    }
+
+    /**
+     * Write debug messages of nodes to the given builder, instead of the global one of {@link
+     * DebugManager}. Like a trace, the builder is meant for one execution, so this is usually set
+     * on a copy of a shared context made with {@link ExecutionContext#toBuilder()}.
+     */
+    public Builder withDebug(DebugMessageBuilder debugMessageBuilder) {
+      this.debugMessageBuilder = Preconditions.checkNotNull(debugMessageBuilder, "debugMessageBuilder");
+      return this;
+    }
+
+    /**
+     * Set the deadline of the execution to the given time from now. A deadline is meant for one
+     * execution, so this is usually set on a copy of a shared context made with {@link
+     * ExecutionContext#toBuilder()}.
+     */
+    public Builder withDeadline(Duration timeout) {
+      Preconditions.checkNotNull(timeout, "timeout");
+      long nanos;
+      try {
+        nanos = timeout.toNanos();
+      } catch (ArithmeticException e) {
+        return withoutDeadline();
+      }
+      return withDeadlineNanos(System.nanoTime() + nanos);
+    }
+
+    /**
+     * Set the deadline of the execution on the {@link System#nanoTime()} clock, like one received
+     * from the caller.
+     */
+    public Builder withDeadlineNanos(long deadlineNanos) {
+      this.hasDeadline = true;
+      this.deadlineNanos = deadlineNanos;
+      return this;
+    }
+
+    /**
+     * Remove the deadline of the execution, which is the default.
+     */
+    public Builder withoutDeadline() {
+      this.hasDeadline = false;
+      this.deadlineNanos = 0;
+      return this;
+    }
+
+    public ExecutionContext build() {
+      if ((metricsListener != null || trace != null) && timingClock == null) {
+        timingClock = System::nanoTime;
+      }
+      return new ExecutionContext(this);
+    }
+  }
+}
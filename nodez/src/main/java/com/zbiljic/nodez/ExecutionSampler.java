@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.debug.DebugLevel;
+import com.zbiljic.nodez.debug.DebugMessageBuilder;
+import com.zbiljic.nodez.debug.DebugNoneMessageBuilder;
+import com.zbiljic.nodez.trace.ExecutionTrace;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Decides, once at the start of an execution, whether it is debugged and traced.
+ * <p>
+ * A sampler is built on a shared {@link ExecutionContext}. For every execution it returns either a
+ * context with debugging and tracing off, which is the same instance for all executions which are
+ * not sampled, or a new context with its own {@link DebugMessageBuilder} and {@link ExecutionTrace}.
+ * The returned context is given to the root node, or to a {@link GraphPlan}, and afterwards holds
+ * the debug messages and spans of the execution:
+ * <pre>{@code
+ * ExecutionContext context = sampler.sample(userId);
+ * root.apply(context).join();
+ * if (sampler.isSampled(context)) {
+ *   log(context.getDebugMessageBuilder(), context.getTrace());
+ * }
+ * }</pre>
+ * An execution is sampled when any of the following holds:
+ * <ul>
+ * <li>its key matches the {@link Builder#withForcedKeys(Predicate) forced keys}, or it is started
+ * with {@link #forceOn()};</li>
+ * <li>the hash of its key falls into the {@link Builder#withKeyRate(double) key rate}, so the same
+ * key is either always or never sampled;</li>
+ * <li>a random number falls into the {@link Builder#withRate(double) rate}.</li>
+ * </ul>
+ * Executions which are not sampled do not read the global {@link
+ * com.zbiljic.nodez.debug.DebugManager} and do not build any debug message, nor read the timing
+ * clock unless the shared context has timing on.
+ */
+public final class ExecutionSampler {
+
+  private final ExecutionContext context;
+  private final ExecutionContext unsampled;
+  private final double rate;
+  // Hashes of keys below the threshold, as unsigned 32-bit integers, are sampled.
+  private final long keyThreshold;
+  @Nullable
+  private final Predicate<Object> forcedKeys;
+  private final DebugLevel debugLevel;
+  private final int traceCapacity;
+
+  private ExecutionSampler(Builder builder) {
+    this.context = builder.context;
+    this.unsampled = builder.context.toBuilder()
+      .withDebug(DebugNoneMessageBuilder.getInstance())
+      .build();
+    this.rate = builder.rate;
+    this.keyThreshold = (long) (builder.keyRate * (1L << Integer.SIZE));
+    this.forcedKeys = builder.forcedKeys;
+    this.debugLevel = builder.debugLevel;
+    this.traceCapacity = builder.traceCapacity;
+  }
+
+  /**
+   * Returns the context of an execution without a key, which is sampled at the configured rate.
+   */
+  public ExecutionContext sample() {
+    return sample(null);
+  }
+
+  /**
+   * Returns the context of an execution with the given key, like a user or request id.
+   */
+  public ExecutionContext sample(@Nullable Object key) {
+    return shouldSample(key)
+      ? forceOn()
+      : unsampled;
+  }
+
+  /**
+   * Returns the context of an execution which is always sampled.
+   */
+  public ExecutionContext forceOn() {
+    ExecutionContext.Builder builder = context.toBuilder()
+      .withDebug(new DebugMessageBuilder(debugLevel));
+    if (traceCapacity > 0) {
+      builder.withTrace(new ExecutionTrace(traceCapacity));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns {@code true} if an execution with the given key is sampled. Keys are only compared by
+   * their {@link Object#hashCode()}, which has to be stable for the decision to be the same across
+   * processes, like it is for strings and boxed numbers.
+   */
+  public boolean shouldSample(@Nullable Object key) {
+    if (key != null) {
+      if (forcedKeys != null && forcedKeys.test(key)) {
+        return true;
+      }
+      if ((mix(key.hashCode()) & 0xffffffffL) < keyThreshold) {
+        return true;
+      }
+    }
+    return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+  }
+
+  /**
+   * Returns {@code true} if the given context was returned by this sampler for a sampled
+   * execution.
+   */
+  public boolean isSampled(ExecutionContext context) {
+    return context != unsampled;
+  }
+
+  /**
+   * Spreads the bits of a hash code, so that keys with similar hash codes, like consecutive
+   * numbers, are sampled independently.
+   */
+  private static int mix(int hash) {
+    // finalizer of MurmurHash3
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  //
+  // Builder
+  //
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link ExecutionSampler}. Nothing is sampled by default.
+   */
+  public static final class Builder {
+
+    private ExecutionContext context = ExecutionContext.DEFAULT;
+    private double rate = 0;
+    private double keyRate = 0;
+    private Predicate<Object> forcedKeys;
+    private DebugLevel debugLevel = DebugLevel.DETAILED;
+    private int traceCapacity = 0;
+
+    private Builder() {
+    }
+
+    /**
+     * Set the context the contexts of executions are copied from.
+     */
+    public Builder withContext(ExecutionContext context) {
+      this.context = Preconditions.checkNotNull(context, "context");
+      return this;
+    }
+
+    /**
+     * Sample the given fraction of executions at random, between {@code 0} and {@code 1}.
+     */
+    public Builder withRate(double rate) {
+      Preconditions.checkArgument(rate >= 0 && rate <= 1, "Rate must be between 0 and 1: %s", rate);
+      this.rate = rate;
+      return this;
+    }
+
+    /**
+     * Sample the executions of the given fraction of keys, between {@code 0} and {@code 1}, chosen
+     * by the hash of the key.
+     */
+    public Builder withKeyRate(double keyRate) {
+      Preconditions.checkArgument(keyRate >= 0 && keyRate <= 1,
+        "Key rate must be between 0 and 1: %s", keyRate);
+      this.keyRate = keyRate;
+      return this;
+    }
+
+    /**
+     * Always sample the executions of keys matching the given predicate, like the id of a user
+     * being investigated.
+     */
+    public Builder withForcedKeys(Predicate<Object> forcedKeys) {
+      this.forcedKeys = Preconditions.checkNotNull(forcedKeys, "forcedKeys");
+      return this;
+    }
+
+    /**
+     * Set the debug level of sampled executions, {@link DebugLevel#DETAILED} by default.
+     */
+    public Builder withDebugLevel(DebugLevel debugLevel) {
+      this.debugLevel = Preconditions.checkNotNull(debugLevel, "debugLevel");
+      return this;
+    }
+
+    /**
+     * Record an {@link ExecutionTrace} of the given capacity for sampled executions. Zero, the
+     * default, records no trace.
+     */
+    public Builder withTraceCapacity(int traceCapacity) {
+      Preconditions.checkArgument(traceCapacity >= 0,
+        "Trace capacity cannot be negative: %s", traceCapacity);
+      this.traceCapacity = traceCapacity;
+      return this;
+    }
+
+    public ExecutionSampler build() {
+      return new ExecutionSampler(this);
+    }
+  }
+}
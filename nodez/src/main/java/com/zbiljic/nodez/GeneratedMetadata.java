@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.List;
+
+/**
+ * Metadata of node classes, dependency enums and subgraphs generated at compile time by the {@code
+ * nodez-processor} annotation processor.
+ * <p>
+ * For a class {@code com.example.Outer$Inner} the processor generates {@code
+ * com.example.Outer$Inner_NodezMetadata}, implementing the interface below which matches the kind
+ * of the class. When a generated class is present, it is used instead of reflection, which makes
+ * building graphs faster after a cold start and friendly to ahead-of-time compilation. Classes
+ * without generated metadata are handled with reflection, as before.
+ * <p>
+ * These interfaces are not meant to be implemented by hand.
+ */
+public final class GeneratedMetadata {
+
+  /**
+   * Suffix appended to the binary name of a class to get the name of its generated metadata.
+   */
+  public static final String CLASS_NAME_SUFFIX = "_NodezMetadata";
+
+  private GeneratedMetadata() { /* No instance methods */ }
+
+  /**
+   * Metadata of an enum naming node dependencies.
+   */
+  public interface DependencyEnum {
+
+    /**
+     * Returns a bitmask of the ordinals of the constants annotated with {@link OptionalDep}.
+     */
+    long optionalDependencyMask();
+  }
+
+  /**
+   * Factory of a node class with a default constructor.
+   */
+  public interface NodeFactory {
+
+    Node<?> newInstance();
+  }
+
+  /**
+   * Accessor of the public node fields of a {@link Subgraph} class.
+   */
+  public interface ExposedNodes {
+
+    /**
+     * Returns the values of the public node fields of the subgraph, in declaration order.
+     */
+    List<Node> getExposedNodes(Subgraph subgraph);
+  }
+}
@@ -0,0 +1,705 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.utils.CompletableFutures;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * A {@code GraphPlan} is a node graph compiled once and executed many times.
+ * <p>
+ * A {@link Node} instance can only be applied once, so without a plan the whole graph has to be
+ * built again for every request. Compiling a graph collects all nodes reachable from its root (or
+ * from the exposed nodes of a {@link Subgraph}) into an array in topological order, dependencies
+ * first. Every execution of the plan keeps the promises of the nodes in its own array indexed the
+ * same way, so any number of executions can run concurrently on the same node objects.
+ * <p>
+ * Values that differ between executions are passed in through {@link #input(String) input nodes}
+ * which are bound for each execution:
+ * <pre>
+ * Node&lt;Long&gt; userId = GraphPlan.input("userId");
+ * GraphPlan&lt;User&gt; plan = GraphPlan.compile(userId.flatMap("fetchUser", userService::fetch));
+ *
+ * CompletableFuture&lt;User&gt; user = plan.newExecution()
+ *   .bind(userId, 42L)
+ *   .start();
+ * </pre>
+ * Nodes of a plan must not keep per-execution state of their own. Nodes created while the plan is
+ * executing (for example in {@link Node#splitAndCollect}) are not part of the plan and are applied
+ * as usual.
+ * <p>
+ * By default plans are executed with the {@link Scheduling#COUNTERS counter scheduler}: the plan
+ * keeps the dependents of every node and each execution counts the dependencies every node still
+ * waits on, so a node is dispatched as soon as its counter drops to zero instead of through a
+ * chain of {@link CompletableFuture#allOf} futures built for every node.
+ * <p>
+ * The plan also gives every node a {@linkplain #getPriority(Node) priority} from the shape of the
+ * graph, which a {@link PriorityExecutor} uses to run nodes on the critical path first.
+ *
+ * @param <R> return type of the root node
+ */
+public final class GraphPlan<R> {
+
+  /**
+   * Estimated evaluation time of every node until {@link #updatePriorities} gives better estimates,
+   * which makes priorities proportional to the depth of nodes.
+   */
+  public static final long DEFAULT_EVALUATE_ESTIMATE_NANOS = 1_000;
+
+  // Promise returned for nodes of the plan which were not applied in the current execution.
+  private static final CompletableFuture NOT_APPLIED = new CompletableFuture();
+
+  /**
+   * How nodes of a plan execution are scheduled once they are applied.
+   */
+  public enum Scheduling {
+    /**
+     * Every node waits on a {@link CompletableFuture#allOf} future of its dependencies, the same as
+     * nodes applied without a plan.
+     */
+    FUTURES,
+    /**
+     * Every node has a counter of the dependencies it still waits on, which is decremented as the
+     * dependencies complete. The node is dispatched when the counter drops to zero.
+     */
+    COUNTERS
+  }
+
+  private final Node[] roots;
+  private final Node[] nodes;
+  private final Scheduling scheduling;
+  private final Map<Node, Integer> slotsByNode;
+
+  // slots of the dependencies each node applies
+  private final int[][] dependencies;
+  // slots of the dependencies each node waits on, edge ids are waitEdgeOffsets[i] + index
+  private final int[][] waitSlots;
+  private final int[] waitEdgeOffsets;
+  // reverse of waitSlots: the nodes waiting on each node, with the id of the edge
+  private final int[][] dependents;
+  private final int[][] dependentEdges;
+  private final int waitEdgeCount;
+  // estimated nanos from the start of each node until the root completes, see getPriority()
+  private volatile long[] priorities;
+
+  private GraphPlan(Node[] roots, Scheduling scheduling) {
+    this.roots = roots;
+    this.scheduling = Preconditions.checkNotNull(scheduling, "scheduling");
+    this.slotsByNode = new IdentityHashMap<>();
+    this.nodes = sortTopologically(roots, slotsByNode);
+    this.dependencies = new int[nodes.length][];
+    this.waitSlots = new int[nodes.length][];
+    this.waitEdgeOffsets = new int[nodes.length];
+    int[] dependentCounts = new int[nodes.length];
+    int edges = 0;
+    for (int i = 0; i < nodes.length; i++) {
+      dependencies[i] = toSlots(nodes[i].getAllDependencies());
+      waitSlots[i] = toSlots(nodes[i].getDependenciesToWaitOn());
+      waitEdgeOffsets[i] = edges;
+      edges += waitSlots[i].length;
+      for (int dependency : waitSlots[i]) {
+        dependentCounts[dependency]++;
+      }
+      if (nodes[i].planSlot == null) {
+        nodes[i].planSlot = new Slot(this, i);
+      }
+    }
+    this.waitEdgeCount = edges;
+    this.dependents = new int[nodes.length][];
+    this.dependentEdges = new int[nodes.length][];
+    for (int i = 0; i < nodes.length; i++) {
+      dependents[i] = new int[dependentCounts[i]];
+      dependentEdges[i] = new int[dependentCounts[i]];
+      dependentCounts[i] = 0;
+    }
+    for (int i = 0; i < nodes.length; i++) {
+      for (int j = 0; j < waitSlots[i].length; j++) {
+        int dependency = waitSlots[i][j];
+        int k = dependentCounts[dependency]++;
+        dependents[dependency][k] = i;
+        dependentEdges[dependency][k] = waitEdgeOffsets[i] + j;
+      }
+    }
+    this.priorities = computePriorities(node -> DEFAULT_EVALUATE_ESTIMATE_NANOS);
+  }
+
+  private int[] toSlots(Collection<Node> nodes) {
+    int[] slots = new int[nodes.size()];
+    int i = 0;
+    for (Node node : nodes) {
+      slots[i++] = slotsByNode.get(node);
+    }
+    return slots;
+  }
+
+  /**
+   * Compile the graph of the given root node.
+   */
+  public static <R> GraphPlan<R> compile(Node<R> root) {
+    return compile(root, Scheduling.COUNTERS);
+  }
+
+  /**
+   * Compile the graph of the given root node, scheduling nodes of its executions as given.
+   */
+  public static <R> GraphPlan<R> compile(Node<R> root, Scheduling scheduling) {
+    Preconditions.checkNotNull(root);
+    return new GraphPlan<>(new Node[]{root}, scheduling);
+  }
+
+  /**
+   * Compile the graph of all exposed nodes of the given subgraph. Executions of the plan complete
+   * when all exposed nodes are complete, their values can be read with {@link Execution#get}.
+   */
+  public static GraphPlan<Void> compile(Subgraph subgraph) {
+    return compile(subgraph, Scheduling.COUNTERS);
+  }
+
+  /**
+   * Compile the graph of all exposed nodes of the given subgraph, scheduling nodes of its
+   * executions as given.
+   */
+  public static GraphPlan<Void> compile(Subgraph subgraph, Scheduling scheduling) {
+    List<Node> exposedNodes = subgraph.getExposedNodes();
+    Preconditions.checkArgument(!exposedNodes.isEmpty(),
+      "You don't have any public Node field in subgraph class %s",
+      subgraph.getClass().getSimpleName());
+    return new GraphPlan<>(exposedNodes.toArray(new Node[exposedNodes.size()]), scheduling);
+  }
+
+  /**
+   * Create an input node. The value of an input node is set for every execution of a plan with
+   * {@link Execution#bind}. An input which is not bound fails.
+   */
+  public static <T> Node<T> input(String name) {
+    return new Input<>(name);
+  }
+
+  /**
+   * Returns the number of nodes in this plan.
+   */
+  public int size() {
+    return nodes.length;
+  }
+
+  public Scheduling getScheduling() {
+    return scheduling;
+  }
+
+  /**
+   * Returns all nodes of this plan in topological order, every node comes after all of the nodes
+   * it depends on.
+   */
+  public List<Node> getNodes() {
+    return Collections.unmodifiableList(Arrays.asList(nodes));
+  }
+
+  /**
+   * Execute this plan with the default execution context.
+   */
+  public CompletableFuture<R> execute() {
+    return newExecution().start();
+  }
+
+  /**
+   * Execute this plan with the given execution context.
+   */
+  public CompletableFuture<R> execute(ExecutionContext context) {
+    return newExecution(context).start();
+  }
+
+  /**
+   * Create a new execution of this plan with the default execution context.
+   */
+  public Execution<R> newExecution() {
+    return newExecution(ExecutionContext.DEFAULT);
+  }
+
+  /**
+   * Create a new execution of this plan with the given execution context.
+   */
+  public Execution<R> newExecution(ExecutionContext context) {
+    return new Execution<>(this, context);
+  }
+
+  /**
+   * Returns the index of the node in this plan, or -1 if the node is not part of it.
+   */
+  int slotOf(Node node) {
+    Slot slot = node.planSlot;
+    if (slot != null && slot.plan == this) {
+      return slot.index;
+    }
+    Integer index = slotsByNode.get(node);
+    return index == null
+      ? -1
+      : index;
+  }
+
+  /**
+   * Returns the scheduling priority of a node of this plan: the estimated time from the start of
+   * its evaluation until the root completes, which is its own estimated evaluation time plus the
+   * largest priority of the nodes depending on it. The higher the priority, the less slack the node
+   * has.
+   */
+  public long getPriority(Node<?> node) {
+    int slot = slotOf(node);
+    Preconditions.checkArgument(slot >= 0,
+      "Node [%s] is not part of the plan", node.getName());
+    return priorities[slot];
+  }
+
+  /**
+   * Compute the priorities of all nodes again, from the given estimates of their evaluation time in
+   * nanoseconds. This can be called at any time, for example periodically with the mean evaluation
+   * times of a {@link com.zbiljic.nodez.metrics.MetricsRegistry}.
+   */
+  public void updatePriorities(ToLongFunction<Node<?>> evaluateNanosEstimate) {
+    this.priorities = computePriorities(Preconditions.checkNotNull(evaluateNanosEstimate));
+  }
+
+  long priorityOf(int slot) {
+    return priorities[slot];
+  }
+
+  private long[] computePriorities(ToLongFunction<Node<?>> evaluateNanosEstimate) {
+    long[] computed = new long[nodes.length];
+    // nodes depending on a node come after it, so the largest priority of the dependents of every
+    // node is known when going backwards
+    long[] dependentPriorities = new long[nodes.length];
+    for (int i = nodes.length - 1; i >= 0; i--) {
+      computed[i] = Math.max(evaluateNanosEstimate.applyAsLong(nodes[i]), 0) + dependentPriorities[i];
+      for (int dependency : dependencies[i]) {
+        dependentPriorities[dependency] = Math.max(dependentPriorities[dependency], computed[i]);
+      }
+      for (int dependency : waitSlots[i]) {
+        dependentPriorities[dependency] = Math.max(dependentPriorities[dependency], computed[i]);
+      }
+    }
+    return computed;
+  }
+
+  int[] getDependencySlots(int slot) {
+    return dependencies[slot];
+  }
+
+  /**
+   * Sort all nodes reachable from the roots so that every node comes after the nodes it depends
+   * on. Besides dependencies this follows all inputs (like branches of switch nodes, which are
+   * applied from evaluate()) and sink nodes.
+   */
+  private static Node[] sortTopologically(Node[] roots, Map<Node, Integer> slotsByNode) {
+    List<Node> sorted = new ArrayList<>();
+    Map<Node, Boolean> visiting = new IdentityHashMap<>();
+    Deque<Object[]> stack = new ArrayDeque<>();
+    for (int r = roots.length - 1; r >= 0; r--) {
+      stack.push(new Object[]{roots[r], null});
+    }
+    while (!stack.isEmpty()) {
+      Object[] frame = stack.peek();
+      Node node = (Node) frame[0];
+      if (frame[1] == null) {
+        if (slotsByNode.containsKey(node)) {
+          stack.pop();
+          continue;
+        }
+        Preconditions.checkArgument(!visiting.containsKey(node),
+          "Node [%s] depends on itself", node.getName());
+        visiting.put(node, Boolean.TRUE);
+        List<Node> edges = new ArrayList<>(node.getAllDependencies());
+        edges.addAll(node.getInputsByName().values());
+        Collections.addAll(edges, node.sinkNodes);
+        frame[1] = edges;
+        for (int i = edges.size() - 1; i >= 0; i--) {
+          Node edge = edges.get(i);
+          if (edge != null && !slotsByNode.containsKey(edge)) {
+            if (visiting.containsKey(edge)) {
+              throw new IllegalArgumentException(String.format(
+                "Node [%s] depends on itself", edge.getName()));
+            }
+            stack.push(new Object[]{edge, null});
+          }
+        }
+      } else {
+        stack.pop();
+        visiting.remove(node);
+        slotsByNode.put(node, sorted.size());
+        sorted.add(node);
+      }
+    }
+    return sorted.toArray(new Node[sorted.size()]);
+  }
+
+  /**
+   * Position of a node in the first plan it was compiled into, this saves the map lookup in {@link
+   * #slotOf(Node)} for the common case of a node that is part of one plan only.
+   */
+  static final class Slot {
+
+    final GraphPlan plan;
+    final int index;
+
+    Slot(GraphPlan plan, int index) {
+      this.plan = plan;
+      this.index = index;
+    }
+  }
+
+  /**
+   * One execution of a {@link GraphPlan}, holding the promises of all nodes of the plan.
+   *
+   * @param <R> return type of the root node
+   */
+  public static final class Execution<R> {
+
+    private final GraphPlan<R> plan;
+    private final ExecutionContext context;
+    private final AtomicReferenceArray<CompletableFuture> promises;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    // Used by the counter scheduler only. A pending count of zero means that the node was not
+    // applied yet, or that it is already dispatched. Applying a node sets its count to the number of
+    // dependencies it waits on plus one, which is held until all of them are applied.
+    private final AtomicIntegerArray pending;
+    // Every wait edge is claimed once, either by the dependent or by the completing dependency,
+    // whichever sees the other side first, so a counter is never decremented twice for one edge.
+    private final AtomicIntegerArray claimedEdges;
+
+    // Set only when timing is enabled. Times the nodes were applied at, for the counter scheduler,
+    // and the timings of completed nodes.
+    private final long[] appliedNanos;
+    private final AtomicReferenceArray<NodeTiming> timings;
+
+    private Execution(GraphPlan<R> plan, ExecutionContext context) {
+      this.plan = plan;
+      this.context = context.forPlanExecution(this);
+      this.promises = new AtomicReferenceArray<>(plan.nodes.length);
+      if (plan.scheduling == Scheduling.COUNTERS) {
+        this.pending = new AtomicIntegerArray(plan.nodes.length);
+        this.claimedEdges = new AtomicIntegerArray(plan.waitEdgeCount);
+      } else {
+        this.pending = null;
+        this.claimedEdges = null;
+      }
+      if (context.isTimingEnabled()) {
+        this.appliedNanos = plan.scheduling == Scheduling.COUNTERS ? new long[plan.nodes.length] : null;
+        this.timings = new AtomicReferenceArray<>(plan.nodes.length);
+      } else {
+        this.appliedNanos = null;
+        this.timings = null;
+      }
+    }
+
+    public GraphPlan<R> getPlan() {
+      return plan;
+    }
+
+    /**
+     * Returns the execution context nodes of this execution are applied with.
+     */
+    public ExecutionContext getContext() {
+      return context;
+    }
+
+    /**
+     * Set the value of an input node for this execution.
+     */
+    public <T> Execution<R> bind(Node<T> input, T value) {
+      Preconditions.checkArgument(input instanceof Input,
+        "Node [%s] is not an input node", input.getName());
+      int slot = plan.slotOf(input);
+      Preconditions.checkArgument(slot >= 0,
+        "Input [%s] is not part of the plan", input.getName());
+      Preconditions.checkArgument(promises.compareAndSet(slot, null, CompletableFuture.completedFuture(value)),
+        "Input [%s] is already bound", input.getName());
+      return this;
+    }
+
+    /**
+     * Start this execution by applying the roots of the plan.
+     *
+     * @return a future of the root node value, or a future that completes when all exposed nodes
+     * complete for plans of a {@link Subgraph}.
+     */
+    public CompletableFuture<R> start() {
+      Preconditions.checkState(started.compareAndSet(false, true));
+      if (plan.roots.length == 1) {
+        return plan.roots[0].apply(context);
+      }
+      CompletableFuture[] futures = new CompletableFuture[plan.roots.length];
+      for (int i = 0; i < futures.length; i++) {
+        futures[i] = plan.roots[i].apply(context);
+      }
+      return (CompletableFuture<R>) CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Cancels this execution: the roots of the plan are cancelled, which propagates to the nodes
+     * they depend on.
+     *
+     * @return {@code true} if any root was cancelled by this call
+     * @see Node#apply(ExecutionContext)
+     */
+    public boolean cancel() {
+      boolean cancelled = false;
+      for (Node root : plan.roots) {
+        CompletableFuture<?> promise = promises.get(plan.slotOf(root));
+        if (promise != null && !promise.isDone()) {
+          cancelled |= promise.cancel(false);
+        }
+      }
+      return cancelled;
+    }
+
+    /**
+     * Returns the future of the given node in this execution. The node is applied if it was not
+     * yet.
+     */
+    public <T> CompletableFuture<T> get(Node<T> node) {
+      Preconditions.checkArgument(plan.slotOf(node) >= 0,
+        "Node [%s] is not part of the plan", node.getName());
+      return node.apply(context);
+    }
+
+    /**
+     * Apply the node at the given slot in this execution, if it was not applied yet.
+     */
+    <T> CompletableFuture<T> apply(Node<T> node, int slot) {
+      CompletableFuture<T> promise = promises.get(slot);
+      if (promise != null) {
+        return promise;
+      }
+      CompletableFuture<T> created = pending != null
+        ? new SlotPromise<>(this, slot)
+        : new PlanPromise<>(this, slot);
+      if (!promises.compareAndSet(slot, null, created)) {
+        return promises.get(slot);
+      }
+      // constant nodes have no work to stop, the same as when applied outside of a plan
+      if (context.hasDeadline() && !node.isShared() && node.completeAtDeadline(context, created)) {
+        return created;
+      }
+      if (pending != null) {
+        schedule(node, slot, created);
+      } else {
+        node.run(context, created);
+      }
+      return created;
+    }
+
+    /**
+     * Apply the dependencies of the node and count the ones it still has to wait on, the node is
+     * dispatched by whoever brings the count to zero.
+     */
+    private <T> void schedule(Node<T> node, int slot, CompletableFuture<T> promise) {
+      int[] waitSlots = plan.waitSlots[slot];
+      int edgeOffset = plan.waitEdgeOffsets[slot];
+      pending.set(slot, waitSlots.length + 1);
+
+      Activation.activate(new Activation(context) {
+        @Override
+        void applyDependencies() {
+          if (promise.isDone()) {
+            return;  // cancelled before it was activated
+          }
+          if (appliedNanos != null) {
+            appliedNanos[slot] = Node.readTimingClock(context);
+          }
+          for (int dependency : plan.dependencies[slot]) {
+            plan.nodes[dependency].apply(context);
+          }
+          node.retainDependencies(context, promise);
+        }
+
+        @Override
+        void dependenciesActivated() {
+          if (promise.isDone()) {
+            return;
+          }
+          for (int i = 0; i < waitSlots.length; i++) {
+            if (promises.get(waitSlots[i]).isDone()
+                && claimedEdges.compareAndSet(edgeOffset + i, 0, 1)) {
+              pending.decrementAndGet(slot);
+            }
+          }
+          node.applySinkNodes();
+          if (pending.decrementAndGet(slot) == 0) {
+            dispatch(node, slot, promise);
+          }
+        }
+
+        @Override
+        void failed(Throwable throwable) {
+          node.activationFailed(context, promise, throwable);
+        }
+      });
+    }
+
+    /**
+     * Called when the node at the given slot completes, by its {@link SlotPromise}. Decrements the
+     * counters of its applied dependents.
+     */
+    private void release(int slot) {
+      int[] dependents = plan.dependents[slot];
+      int[] edges = plan.dependentEdges[slot];
+      for (int i = 0; i < dependents.length; i++) {
+        int dependent = dependents[i];
+        if (pending.get(dependent) != 0
+            && claimedEdges.compareAndSet(edges[i], 0, 1)
+            && pending.decrementAndGet(dependent) == 0) {
+          dispatch(plan.nodes[dependent], dependent, promises.get(dependent));
+        }
+      }
+    }
+
+    /**
+     * Evaluate the node whose dependencies are all complete, unless one of them failed.
+     */
+    private <T> void dispatch(Node<T> node, int slot, CompletableFuture<T> promise) {
+      CompletableFuture<Void> dependencies = Node.VOID_FUTURE;
+      for (int dependency : plan.waitSlots[slot]) {
+        CompletableFuture<?> future = promises.get(dependency);
+        if (future.isCompletedExceptionally()) {
+          dependencies = CompletableFutures.exceptionallyCompletedFuture(
+            CompletableFutures.getException(future));
+          break;
+        }
+      }
+      node.evaluateWhenDone(context, dependencies, promise,
+        appliedNanos != null ? appliedNanos[slot] : 0);
+    }
+
+    /**
+     * Returns the timing of the node in this execution, or {@code null} if timing is not enabled in
+     * the context of the execution or the node did not complete yet.
+     */
+    @Nullable
+    public NodeTiming getTiming(Node<?> node) {
+      int slot = plan.slotOf(node);
+      Preconditions.checkArgument(slot >= 0,
+        "Node [%s] is not part of the plan", node.getName());
+      return timing(slot);
+    }
+
+    @Nullable
+    NodeTiming timing(int slot) {
+      return timings != null
+        ? timings.get(slot)
+        : null;
+    }
+
+    void recordTiming(int slot, NodeTiming timing) {
+      if (timings != null) {
+        timings.set(slot, timing);
+      }
+    }
+
+    /**
+     * Returns the promise of the node at the given slot, or a promise that never completes if the
+     * node was not applied in this execution.
+     */
+    <T> CompletableFuture<T> promise(int slot) {
+      CompletableFuture<T> promise = promises.get(slot);
+      return promise != null
+        ? promise
+        : NOT_APPLIED;
+    }
+  }
+
+  /**
+   * Promise of a node in an execution.
+   */
+  private static class PlanPromise<T> extends NodePromise<T> {
+
+    final Execution<?> execution;
+    final int slot;
+
+    PlanPromise(Execution<?> execution, int slot) {
+      this.execution = execution;
+      this.slot = slot;
+    }
+
+    @Override
+    Node<T> node() {
+      return (Node<T>) execution.plan.nodes[slot];
+    }
+
+    @Override
+    ExecutionContext context() {
+      return execution.context;
+    }
+  }
+
+  /**
+   * Promise of a node in an execution with the counter scheduler, which releases the dependents of
+   * the node when it is completed. This saves registering a completion callback for every node.
+   */
+  private static final class SlotPromise<T> extends PlanPromise<T> {
+
+    SlotPromise(Execution<?> execution, int slot) {
+      super(execution, slot);
+    }
+
+    @Override
+    public boolean complete(T value) {
+      if (super.complete(value)) {
+        execution.release(slot);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable ex) {
+      if (super.completeExceptionally(ex)) {
+        execution.release(slot);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A node which value is bound per execution.
+   */
+  private static final class Input<T> extends NullableNode<T> {
+
+    Input(String name) {
+      super(name);
+    }
+
+    @Override
+    protected CompletableFuture<T> evaluate() {
+      return CompletableFutures.exceptionallyCompletedFuture(
+        new IllegalStateException("Input [" + getName() + "] is not bound"));
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.metrics.LatencyHistogram;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Policy of {@link Node#hedged(NamedFunction, HedgePolicy)} nodes, which decides when a function
+ * is applied a second time and keeps the statistics of the hedges.
+ * <p>
+ * The hedge is applied once the first call did not complete within the {@link
+ * Builder#withDelay(Duration) fixed delay}, or within the {@link
+ * Builder#withPercentileDelay(double) percentile} of the latencies observed by the policy. Until
+ * {@link Builder#withMinSamples(int) enough latencies} are observed, the fixed delay is used.
+ * <p>
+ * The number of hedges is limited by a {@link Builder#withMaxExtraLoad(double) budget}: every call
+ * earns the given fraction of a hedge, and a hedge is only applied if a whole one was earned.
+ * Unused hedges are saved up to {@value #MAX_SAVED_HEDGES}, so a quiet period does not allow a
+ * burst of hedges later.
+ * <p>
+ * The budget, the statistics and the latencies are kept by the policy, and are shared by all nodes
+ * using it, which usually call the same backend. Updating them is lock-free.
+ */
+public final class HedgePolicy {
+
+  /**
+   * Number of hedges the budget can save up.
+   */
+  public static final int MAX_SAVED_HEDGES = 10;
+
+  // The percentile delay is computed from the histogram every REFRESH_INTERVAL calls.
+  private static final int REFRESH_INTERVAL = 64;
+
+  private final long delayNanos;
+  private final double percentile;
+  private final int minSamples;
+  private final double maxExtraLoad;
+  private final LoadBudget budget;
+  @Nullable
+  private final LatencyHistogram latencies;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder hedgeWins = new LongAdder();
+  private final LongAdder rejectedHedges = new LongAdder();
+  private volatile long percentileDelayNanos = -1;
+
+  private HedgePolicy(Builder builder) {
+    this.delayNanos = builder.delayNanos;
+    this.percentile = builder.percentile;
+    this.minSamples = builder.minSamples;
+    this.maxExtraLoad = builder.maxExtraLoad;
+    this.budget = new LoadBudget(builder.maxExtraLoad, MAX_SAVED_HEDGES, 0);
+    this.latencies = builder.percentile > 0 ? new LatencyHistogram() : null;
+  }
+
+  /**
+   * Returns the fixed delay, or the delay used until enough latencies are observed.
+   */
+  public Duration getDelay() {
+    return Duration.ofNanos(delayNanos);
+  }
+
+  /**
+   * Returns the percentile of the observed latencies used as delay, or zero if the delay is fixed.
+   */
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /**
+   * Returns the fraction of calls which can be hedged.
+   */
+  public double getMaxExtraLoad() {
+    return maxExtraLoad;
+  }
+
+  /**
+   * Returns the delay after which the next call is hedged.
+   */
+  public long getDelayNanos() {
+    long delay = percentileDelayNanos;
+    return delay < 0 ? delayNanos : delay;
+  }
+
+  /**
+   * Returns the number of calls made with this policy, not counting hedges.
+   */
+  public long getCalls() {
+    return calls.get();
+  }
+
+  /**
+   * Returns the number of hedges applied.
+   */
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  /**
+   * Returns the number of hedges which completed before the first call.
+   */
+  public long getHedgeWins() {
+    return hedgeWins.sum();
+  }
+
+  /**
+   * Returns the number of hedges which were not applied, because the budget was exhausted.
+   */
+  public long getRejectedHedges() {
+    return rejectedHedges.sum();
+  }
+
+  /**
+   * Called when a call starts, earns its part of the budget.
+   */
+  void onCall() {
+    long count = calls.incrementAndGet();
+    if (latencies != null && count % REFRESH_INTERVAL == 0) {
+      refreshPercentileDelay();
+    }
+    budget.deposit();
+  }
+
+  /**
+   * Called when the delay of a call passed, takes a hedge from the budget.
+   *
+   * @return {@code true} if the hedge is applied, {@code false} if the budget is exhausted
+   */
+  boolean tryHedge() {
+    if (!budget.tryWithdraw()) {
+      rejectedHedges.increment();
+      return false;
+    }
+    hedges.increment();
+    return true;
+  }
+
+  /**
+   * Called when a call completed successfully.
+   *
+   * @param latencyNanos time since the start of the call
+   * @param hedgeWon     {@code true} if the hedge completed first
+   */
+  void onSuccess(long latencyNanos, boolean hedgeWon) {
+    if (latencies != null) {
+      latencies.record(latencyNanos);
+    }
+    if (hedgeWon) {
+      hedgeWins.increment();
+    }
+  }
+
+  private void refreshPercentileDelay() {
+    if (latencies.getCount() >= minSamples) {
+      percentileDelayNanos = latencies.getValueAtPercentile(percentile);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "HedgePolicy{"
+      + "delay=" + getDelay()
+      + ", percentile=" + percentile
+      + ", maxExtraLoad=" + maxExtraLoad
+      + '}';
+  }
+
+  //
+  // Builder
+  //
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link HedgePolicy}.
+   */
+  public static final class Builder {
+
+    private long delayNanos = -1;
+    private double percentile;
+    private int minSamples = 100;
+    private double maxExtraLoad = 0.1;
+
+    private Builder() {
+    }
+
+    /**
+     * Set the delay after which a call is hedged, or the delay used until enough latencies are
+     * observed for the percentile delay. Required.
+     */
+    public Builder withDelay(Duration delay) {
+      Preconditions.checkNotNull(delay);
+      Preconditions.checkArgument(!delay.isNegative(), "Negative delay: %s", delay);
+      try {
+        this.delayNanos = delay.toNanos();
+      } catch (ArithmeticException e) {
+        this.delayNanos = Long.MAX_VALUE;
+      }
+      return this;
+    }
+
+    /**
+     * Hedge calls which take longer than the given percentile of the latencies of the calls
+     * observed by the policy, such as {@code 95}, instead of using a fixed delay.
+     */
+    public Builder withPercentileDelay(double percentile) {
+      Preconditions.checkArgument(percentile > 0 && percentile <= 100,
+        "Percentile must be above 0 and at most 100: %s", percentile);
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * Set how many latencies are observed before the percentile delay is used; 100 by default.
+     */
+    public Builder withMinSamples(int minSamples) {
+      Preconditions.checkArgument(minSamples > 0, "Min samples must be positive: %s", minSamples);
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Set the fraction of calls which can be hedged, such as {@code 0.1} for at most 10% of extra
+     * load; 0.1 by default.
+     */
+    public Builder withMaxExtraLoad(double maxExtraLoad) {
+      Preconditions.checkArgument(maxExtraLoad >= 0 && maxExtraLoad <= 1,
+        "Max extra load must be between 0 and 1: %s", maxExtraLoad);
+      this.maxExtraLoad = maxExtraLoad;
+      return this;
+    }
+
+    public HedgePolicy build() {
+      if (delayNanos < 0) {
+        throw new IllegalStateException("Delay is required");
+      }
+      return new HedgePolicy(this);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.utils.CompletableFutures;
+import com.zbiljic.nodez.utils.TimerWheel;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * Transforms a node using a function that returns a future of a new value, and applies the
+ * function a second time if the future did not complete within the delay of a {@link HedgePolicy}.
+ * The first of the two futures to complete successfully is the value of the node, and the other one
+ * is cancelled. The node fails if both fail.
+ * <p>
+ * The hedge is scheduled on the {@link TimerWheel#shared() shared timer}, which hands it over to
+ * the executor of the context, and the function is applied with the context bound to the thread.
+ * A call which fails before the delay is not hedged, and neither is a call which would not be
+ * hedged before the deadline of the context.
+ * <p>
+ * See {@link Node#hedged}.
+ *
+ * @param <SourceType> source node type
+ * @param <R>          resulting node value type
+ * @see HedgePolicy
+ */
+final class HedgedNode<SourceType, R> extends FlatMapTransformNode<SourceType, R> {
+
+  private final HedgePolicy policy;
+
+  HedgedNode(Node<SourceType> node,
+             Function<SourceType, CompletableFuture<R>> transform,
+             String name,
+             HedgePolicy policy) {
+    super(node, transform, name, null);
+    this.policy = Preconditions.checkNotNull(policy);
+  }
+
+  @Override
+  protected CompletableFuture<R> transform(SourceType source) {
+    long start = System.nanoTime();
+    policy.onCall();
+    CompletableFuture<R> first = super.transform(source);
+    if (first.isDone()) {
+      if (!first.isCompletedExceptionally()) {
+        policy.onSuccess(System.nanoTime() - start, false);
+      }
+      return first;
+    }
+    ExecutionContext context = ExecutionContext.current();
+    long delayNanos = policy.getDelayNanos();
+    if (delayNanos >= context.getRemainingNanos()) {
+      return first;
+    }
+    return new Hedge(context, source, start, first, delayNanos);
+  }
+
+  private CompletableFuture<R> invoke(ExecutionContext context, SourceType source) {
+    ExecutionContext previous = ExecutionContext.enter(context);
+    try {
+      CompletableFuture<R> future = super.transform(source);
+      return future != null
+        ? future
+        : CompletableFutures.exceptionallyCompletedFuture(
+        new NullPointerException("Hedge of node [" + getName() + "] returned null"));
+    } catch (Exception e) {
+      return CompletableFutures.exceptionallyCompletedFuture(e);
+    } finally {
+      ExecutionContext.exit(previous);
+    }
+  }
+
+  /**
+   * Calls dropped by the hedge are cancelled, or released if they are promises of nodes, which
+   * are only cancelled if no other nodes depend on them.
+   */
+  private static void abandon(CompletableFuture<?> future) {
+    if (future instanceof NodePromise) {
+      NodePromise.release(future);
+    } else {
+      future.cancel(false);
+    }
+  }
+
+  /**
+   * Result of a hedged call.
+   */
+  private final class Hedge extends CompletableFuture<R> {
+
+    private final ExecutionContext context;
+    private final SourceType source;
+    private final long start;
+    private final CompletableFuture<R> first;
+    private final TimerWheel.Timeout expiry;
+
+    // Number of calls which did not fail yet, counting the hedge before it is applied. Not
+    // private, so the field updaters of the enclosing class can access it.
+    volatile int pending = 2;
+    // The hedge once it is applied, or ABANDONED once the result is complete.
+    @Nullable
+    volatile CompletableFuture<R> second;
+    @Nullable
+    private volatile Throwable failure;
+
+    Hedge(ExecutionContext context,
+          SourceType source,
+          long start,
+          CompletableFuture<R> first,
+          long delayNanos) {
+      this.context = context;
+      this.source = source;
+      this.start = start;
+      this.first = first;
+      NodePromise.retain(first);
+      this.expiry = TimerWheel.shared()
+        .schedule(() -> Node.executeFromTimer(context.getExecutor(), this::hedge),
+          delayNanos, TimeUnit.NANOSECONDS);
+      first.whenComplete((value, throwable) -> onFirst(value, throwable));
+      whenComplete((value, throwable) -> abandonCalls());
+    }
+
+    /**
+     * Cancels the timer and abandons both calls, once. Called before the result is completed with
+     * a value, so the loser is cancelled by the time dependents see the value.
+     *
+     * @return {@code true} if the calls were abandoned by this call
+     */
+    private boolean abandonCalls() {
+      CompletableFuture<R> hedge = SECOND.getAndSet(this, ABANDONED);
+      if (hedge == ABANDONED) {
+        return false;
+      }
+      expiry.cancel();
+      abandon(first);
+      if (hedge != null) {
+        abandon(hedge);
+      }
+      return true;
+    }
+
+    private void succeeded(@Nullable R value, boolean hedgeWon) {
+      if (abandonCalls()) {
+        policy.onSuccess(System.nanoTime() - start, hedgeWon);
+        complete(value);
+      }
+    }
+
+    private void onFirst(@Nullable R value, @Nullable Throwable throwable) {
+      if (throwable == null) {
+        succeeded(value, false);
+      } else if (expiry.cancel()) {
+        // failed before the delay, there is no hedge
+        completeExceptionally(throwable);
+      } else {
+        failed(throwable);
+      }
+    }
+
+    private void onSecond(@Nullable R value, @Nullable Throwable throwable) {
+      if (throwable == null) {
+        succeeded(value, true);
+      } else {
+        failed(throwable);
+      }
+    }
+
+    private void hedge() {
+      if (isDone()) {
+        return;
+      }
+      if (!policy.tryHedge()) {
+        failed(null);
+        return;
+      }
+      CompletableFuture<R> hedge = invoke(context, source);
+      NodePromise.retain(hedge);
+      if (!SECOND.compareAndSet(this, null, hedge)) {
+        abandon(hedge);
+        return;
+      }
+      hedge.whenComplete((value, throwable) -> onSecond(value, throwable));
+    }
+
+    private void failed(@Nullable Throwable throwable) {
+      if (throwable != null) {
+        failure = throwable;
+      }
+      if (PENDING.decrementAndGet(this) == 0) {
+        completeExceptionally(failure);
+      }
+    }
+  }
+
+  private static final CompletableFuture ABANDONED = new CompletableFuture();
+
+  private static final AtomicIntegerFieldUpdater<HedgedNode.Hedge> PENDING =
+    AtomicIntegerFieldUpdater.newUpdater(HedgedNode.Hedge.class, "pending");
+  private static final AtomicReferenceFieldUpdater<HedgedNode.Hedge, CompletableFuture> SECOND =
+    AtomicReferenceFieldUpdater.newUpdater(HedgedNode.Hedge.class, CompletableFuture.class, "second");
+}
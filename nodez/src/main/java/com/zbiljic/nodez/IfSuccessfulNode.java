@@ -39,6 +39,11 @@ public class IfSuccessfulNode extends Node<Boolean> {
     this.node = node;
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected CompletableFuture<Boolean> evaluate() throws Exception {
     Optional optional = (Optional) node.emit();
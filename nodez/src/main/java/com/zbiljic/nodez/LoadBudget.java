@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of extra calls, such as hedges or retries, as a fraction of the calls made.
+ * <p>
+ * Every call earns the given fraction of an extra call, and an extra call is only made if a whole
+ * one was earned. Unused extra calls are saved up to a limit, so a quiet period does not allow a
+ * burst of extra calls later. The budget is kept in fractions of a call in a single atomic
+ * counter, so it is updated without locks.
+ */
+final class LoadBudget {
+
+  private static final long ONE_CALL = 1L << 16;
+
+  private final long budgetPerCall;
+  private final long maxBudget;
+  private final AtomicLong budget = new AtomicLong();
+
+  /**
+   * @param maxExtraLoad fraction of an extra call earned by every call
+   * @param maxSaved     number of extra calls which can be saved up
+   * @param initialSaved number of extra calls saved up at the start
+   */
+  LoadBudget(double maxExtraLoad, int maxSaved, int initialSaved) {
+    this.budgetPerCall = (long) (maxExtraLoad * ONE_CALL);
+    this.maxBudget = maxSaved * ONE_CALL;
+    this.budget.set(Math.min(initialSaved, maxSaved) * ONE_CALL);
+  }
+
+  /**
+   * Called for every call, earns its part of an extra call.
+   */
+  void deposit() {
+    for (; ; ) {
+      long current = budget.get();
+      if (current >= maxBudget) {
+        return;
+      }
+      if (budget.compareAndSet(current, Math.min(current + budgetPerCall, maxBudget))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Takes an extra call from the budget.
+   *
+   * @return {@code true} if the extra call can be made, {@code false} if the budget is exhausted
+   */
+  boolean tryWithdraw() {
+    for (; ; ) {
+      long current = budget.get();
+      if (current < ONE_CALL) {
+        return false;
+      }
+      if (budget.compareAndSet(current, current - ONE_CALL)) {
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,2211 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.debug.DebugEvent;
+import com.zbiljic.nodez.debug.DebugLevel;
+import com.zbiljic.nodez.debug.DebugMessageBuilder;
+import com.zbiljic.nodez.metrics.NodeMetricsListener;
+import com.zbiljic.nodez.trace.ExecutionTrace;
+import com.zbiljic.nodez.utils.CompletableFutures;
+import com.zbiljic.nodez.utils.DeciderSupplier;
+import com.zbiljic.nodez.utils.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A {@code Node} represents the {@link CompletableFuture} computation of a value as the result of
+ * evaluating its completed required and optional dependencies.
+ *
+ * @param <R> return type of the node
+ */
+public abstract class Node<R> implements Function0<CompletableFuture<R>> {
+
+  private static final Logger log = LoggerFactory.getLogger(Node.class);
+
+  //
+  // Constants
+  //
+
+  protected static final CompletableFuture<Boolean> TRUE_FUTURE = CompletableFuture.completedFuture(true);
+  protected static final CompletableFuture<Boolean> FALSE_FUTURE = CompletableFuture.completedFuture(false);
+  protected static final CompletableFuture<Void> VOID_FUTURE = CompletableFuture.completedFuture(null);
+  protected static final CompletableFuture FUTURE_EMPTY = CompletableFuture.completedFuture(Optional.empty());
+  private static final CompletableFuture CANCELLED_FUTURE = new CompletableFuture();
+
+  static {
+    CANCELLED_FUTURE.cancel(false);
+  }
+
+  // Results of nodes decided off, told apart from the same values returned by evaluate() by
+  // identity.
+  private static final CompletableFuture DECIDED_OFF_EMPTY = CompletableFuture.completedFuture(Optional.empty());
+  private static final CompletableFuture DECIDED_OFF_NULL = CompletableFuture.completedFuture(null);
+
+  public enum DefaultDependencyEnum {
+    DEP0,
+    DEP1,
+    DEP2,
+    DEP3,
+    DEP4,
+    DEP5,
+    DEP6,
+    DEP7,
+    DEP8,
+    DEP9,
+    DEP10,
+    DEP11,
+    DEP12,
+    DEP13,
+    DEP14,
+    DEP15
+  }
+
+  private static final DefaultDependencyEnum[] DEFAULT_DEPENDENCY_NAMES = DefaultDependencyEnum.values();
+
+  protected static final Node[] EMPTY_NODE_ARRAY = new Node[0];
+
+  public static final Node<Boolean> TRUE = Node.value(true, "true");
+  public static final Node<Boolean> FALSE = Node.value(false, "false");
+  public static final Node NULL_NODE = Node.value(null, "null");
+
+  // Number of inline evaluations currently nested on a thread.
+  private static final ThreadLocal<int[]> INLINE_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+  // Values of the state field.
+  private static final int STATE_NEW = 0;
+  private static final int STATE_APPLIED = 1;
+
+  private static final AtomicIntegerFieldUpdater<Node> STATE =
+    AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+
+  //
+  // Instance variables
+  //
+
+  // One of the STATE_* constants, updated through STATE.
+  private volatile int state = STATE_NEW;
+  private final CompletableFuture<R> promise = new NodePromise.OfNode<>(this);
+
+  // Name for this node instance, this is mostly auto-generated with type information
+  protected String name;
+
+  // A string key for the node, could be used to distinguish node instances of the same type.
+  protected String key;
+
+  // this is a flag to deal with the java difficulty of differentiating between
+  // Node<T> and Node<Optional<T>> via type introspection.
+  private final boolean optional;
+
+  // if true, this node's evaluate() method can return CompletableFuture.completedFuture(null)
+  // without causing exception and its emit() can return null, otherwise an exception will be thrown.
+  private final boolean canEmitNull;
+
+  // Dependent nodes by their name. The names were created in the Builder (or the map passed into
+  // the constructor.
+  private Map<Enum, Node> dependentNodesByName;
+
+  // The same dependent nodes indexed by the ordinal of their name, with null for names without a
+  // dependency. Dependency reads in evaluate() go through this array, the map is kept for
+  // iteration and as the by-name view.
+  private Node[] dependencies = EMPTY_NODE_ARRAY;
+  @Nullable
+  private Class<? extends Enum> dependencyEnumClass;
+
+  protected Node[] sinkNodes;
+
+  // This will be set if this node is the exposed "output" node of a Subgraph, it's done by
+  // Subgraph.markExposedNodes().
+  private Subgraph enclosingSubgraph;
+
+  //
+  // Decider key that's used to check if this node should be run or not, if:
+  //   1. the decider key is present for this node instance
+  //   2. the node is optional for the workflow.
+  // Otherwise, the decider check is skipped.
+  //
+  protected DeciderSupplier deciderSupplier;
+
+  // Executor to evaluate this node on, overrides the one from the execution context if set.
+  private Executor executor;
+
+  // Policy retrying failed evaluations of this node, if set.
+  @Nullable
+  private RetryPolicy retryPolicy;
+
+  // Context this node was applied with, set once in apply().
+  private volatile ExecutionContext executionContext;
+
+  // Set for nodes with a constant value which may be shared by all executions in the process,
+  // like TRUE, FALSE and NULL_NODE. Their promise is not subject to the deadline or to the
+  // cancellation of the execution which happens to apply them first.
+  private boolean shared;
+
+  // Set when this node is compiled into a GraphPlan, nodes of a plan keep their promises in the
+  // plan execution instead of in this instance.
+  GraphPlan.Slot planSlot;
+
+  // Timing of the last evaluation of this node, set only when it is applied with timing enabled.
+  @Nullable
+  private volatile NodeTiming timing;
+
+  //
+  // Constructors
+  //
+
+  protected Node() {
+    this(null, false, false, Collections.emptyMap(), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(boolean optional, boolean canEmitNull) {
+    this(null, optional, canEmitNull, Collections.emptyMap(), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(String name, boolean optional, boolean canEmitNull) {
+    this(name, optional, canEmitNull, Collections.emptyMap(), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(Node... nodes) {
+    this(null, false, false, Arrays.asList(nodes), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(boolean optional, boolean canEmitNull, Node... nodes) {
+    this(null, optional, canEmitNull, Arrays.asList(nodes), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(String name, Node... nodes) {
+    this(name, false, false, Arrays.asList(nodes), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(String name, boolean optional, boolean canEmitNull, Node... nodes) {
+    this(name, optional, canEmitNull, Arrays.asList(nodes), EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(Collection<Node> dependentNodes) {
+    this(null, false, false, dependentNodes, EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(boolean optional, boolean canEmitNull, Collection<Node> dependentNodes) {
+    this(null, optional, canEmitNull, dependentNodes, EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(String name, Collection<Node> dependentNodes) {
+    this(name, false, false, dependentNodes, EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(String name, boolean optional, boolean canEmitNull, Collection<Node> dependentNodes) {
+    this(name, optional, canEmitNull, dependentNodes, EMPTY_NODE_ARRAY);
+  }
+
+  protected Node(String name,
+                 boolean optional,
+                 boolean canEmitNull,
+                 Collection<Node> dependentNodes,
+                 Node[] sinkNodes) {
+    this(name, optional, canEmitNull, createNamedDependencies(dependentNodes), sinkNodes);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param name                 The name of the node.
+   * @param optional             Whether this node is optional. If true, this node should use {@link
+   *                             Optional} as its return type.
+   * @param canEmitNull          Whether this node can emit {@code null}.
+   * @param dependentNodesByName A map from enum to dependent nodes, only after all these nodes are
+   *                             ready will this node be running.
+   * @param sinkNodes            A collection of sink nodes to run after this node finished {@link
+   *                             #apply()}.
+   */
+  protected Node(@Nullable String name,
+                 boolean optional,
+                 boolean canEmitNull,
+                 Map<Enum, Node> dependentNodesByName,
+                 Node[] sinkNodes) {
+    this.name = name != null && !name.isEmpty()
+      ? name
+      : this.getClass().getSimpleName();
+    this.optional = optional;
+    this.canEmitNull = canEmitNull;
+    // dependent node map could be empty if the default constructor is called, this happens in
+    // Builder.build(Class), where dependent node map is set later.
+    setDependencies(dependentNodesByName.isEmpty()
+      ? Collections.emptyMap()
+      : addOptionalDeps(dependentNodesByName));
+    this.sinkNodes = (sinkNodes.length == 0)
+      ? EMPTY_NODE_ARRAY
+      : sinkNodes.clone();
+  }
+
+  //
+  // Accessors/Modifiers
+  //
+
+  public final String getName() {
+    return key == null
+      ? name
+      : name + ":" + key;
+  }
+
+  @Nullable
+  public final String getKey() {
+    return key;
+  }
+
+  public final Node<R> withKey(String key) {
+    this.key = key;
+    return this;
+  }
+
+  public boolean isOptional() {
+    return optional;
+  }
+
+  /**
+   * Check if this node can emit null value.
+   */
+  protected final boolean canEmitNull() {
+    return canEmitNull;
+  }
+
+  /**
+   * Set dependencies after a Node is constructed using the default constructor, this should only be
+   * called by builder. We add all unset optional dependencies and check if all required
+   * dependencies are set, if not the Preconditions check will fail.
+   */
+  private void setAllDependencies(Map<Enum, Node> depsMap) {
+    Preconditions.checkArgument(depsMap != null && !depsMap.isEmpty(),
+      "You can set with empty dependency map");
+    setDependencies(addOptionalDeps(depsMap));
+    // check if all dependencies are provided, there is a slot for every enum constant
+    if (dependentNodesByName.size() != dependencies.length) {
+      EnumSet unsetEnums = EnumSet.complementOf(EnumSet.copyOf(dependentNodesByName.keySet()));
+      throw new IllegalArgumentException(
+        "Required dependencies not set for node [" + getName() + "]: " + unsetEnums);
+    }
+  }
+
+  /**
+   * Set the dependency map and index the dependencies by the ordinal of their names. All names must
+   * be constants of the same enum.
+   */
+  private void setDependencies(Map<Enum, Node> dependenciesByName) {
+    if (dependenciesByName.isEmpty()) {
+      this.dependentNodesByName = dependenciesByName;
+      this.dependencies = EMPTY_NODE_ARRAY;
+      this.dependencyEnumClass = null;
+      return;
+    }
+    Class<? extends Enum> enumClass = dependenciesByName.keySet().iterator().next().getDeclaringClass();
+    Node[] nodes = new Node[NodeMetadata.getEnumSize(enumClass)];
+    for (Map.Entry<Enum, Node> entry : dependenciesByName.entrySet()) {
+      Enum name = entry.getKey();
+      if (name.getDeclaringClass() != enumClass) {
+        throw new IllegalArgumentException(String.format(
+          "Dependencies of node [%s] must be named by constants of one enum, found %s and %s",
+          getName(), enumClass.getSimpleName(), name.getDeclaringClass().getSimpleName()));
+      }
+      nodes[name.ordinal()] = entry.getValue();
+    }
+    this.dependentNodesByName = dependenciesByName;
+    this.dependencies = nodes;
+    this.dependencyEnumClass = enumClass;
+  }
+
+  /**
+   * Returns the dependency with the given name, or null if there is none.
+   */
+  @Nullable
+  private Node dependency(@Nullable Enum name) {
+    return name != null && name.getDeclaringClass() == dependencyEnumClass
+      ? dependencies[name.ordinal()]
+      : null;
+  }
+
+  /**
+   * Add optional nodes to the dependency map if they are not already there.
+   */
+  private Map<Enum, Node> addOptionalDeps(Map<Enum, Node> depMap) {
+    Enum firstEnum = depMap.keySet().iterator().next();
+    Set<Enum> optionalDeps = NodeMetadata.getOptionalDependencies(firstEnum.getDeclaringClass());
+    if (optionalDeps.isEmpty()) {
+      return Collections.unmodifiableMap(depMap);
+    } else {
+      for (Enum e : optionalDeps) {
+        if (!depMap.containsKey(e)) {
+          Node absentNode = ExecutionContext.current().isDebugEnabled(DebugLevel.BASIC)
+            ? Node.optional(Node.noValue())
+            : Node.empty();
+          depMap.put(e, absentNode);
+        }
+      }
+      return Collections.unmodifiableMap(depMap);
+    }
+  }
+
+  /**
+   * Get all of the node's dependencies.
+   *
+   * @return a collection of dependent nodes.
+   */
+  public final Collection<Node> getAllDependencies() {
+    return dependentNodesByName.values();
+  }
+
+  /**
+   * Get all of the node's inputs: its dependencies, and the nodes it applies itself which are not
+   * dependencies, like the branches of a {@link PredicateSwitchNode} or the node wrapped by a
+   * timeout. Every node is returned once.
+   *
+   * @return a collection of input nodes.
+   */
+  public final Collection<Node> getAllInputs() {
+    Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Node> inputs = new ArrayList<>();
+    for (Node node : getAllDependencies()) {
+      if (node != null && seen.add(node)) {
+        inputs.add(node);
+      }
+    }
+    for (Node node : getInputsByName().values()) {
+      if (node != null && seen.add(node)) {
+        inputs.add(node);
+      }
+    }
+    return inputs;
+  }
+
+  /**
+   * Get dependencies by name
+   */
+  final Map<Enum, Node> getDependenciesByName() {
+    return dependentNodesByName;
+  }
+
+  /**
+   * Get all inputs by name, for some nodes (like {@link PredicateSwitchNode}, {@link
+   * BooleanOperationNode}), input is more than just dependencies.
+   */
+  Map<String, Node> getInputsByName() {
+    final Map<String, Node> inputs = new HashMap<>();
+    for (Map.Entry<Enum, Node> entry : getDependenciesByName().entrySet()) {
+      inputs.put(entry.getKey().name(), entry.getValue());
+    }
+    return Collections.unmodifiableMap(inputs);
+  }
+
+  /**
+   * Get dependency node itself.
+   */
+  protected <T> Node<T> getNodeDep(Enum name) {
+    Node node = dependency(name);
+    Preconditions.checkArgument(node != null,
+      "Cannot find node dependency for %s", name);
+    return node;
+  }
+
+  /**
+   * Get a dependent node's emitted value by its name. You can only get named dependency's value. If
+   * the node is optional, it will return {@link Optional} type.
+   */
+  protected <T> T getRawDep(Enum name) {
+    Node node = dependency(name);
+    Preconditions.checkArgument(node != null,
+      "Cannot find raw node dependency value for %s", name);
+    return (T) node.emit();
+  }
+
+  /**
+   * Get a dependent node's emitted value by its name.
+   */
+  @Nullable
+  protected <T> T getDep(Enum name) {
+    Node node = dependency(name);
+    Preconditions.checkArgument(node != null,
+      "Cannot find node dependency value for %s", name);
+    return (T) this.<T>getDep(node);
+  }
+
+  /**
+   * Get a dependent node's emitted value by its name.
+   *
+   * @param name         Enum name of dependency
+   * @param defaultValue default value to use if dependency is missing, i.e. emitted value is null
+   * @param <T>          return type of dependency
+   */
+  protected <T> T getDep(Enum name, T defaultValue) {
+    Preconditions.checkNotNull(defaultValue,
+      "Cannot have default value for a dependency as null");
+    T value = getDep(name);
+    return value == null
+      ? defaultValue
+      : value;
+  }
+
+  /**
+   * Get dependency value by their node, if the node is optional, it will strip the {@link Optional}
+   * class wrapping and returns null if the value is absent.
+   */
+  protected <T> T getDep(Node<T> depNode) {
+    return depNode.isOptional()
+      ? ((Optional<T>) depNode.emit()).orElse(null)
+      : depNode.emit();
+  }
+
+  /**
+   * Get the dependencies which must be complete before {@link #evaluate()} is called. These are all
+   * dependencies by default, some nodes (like {@link BooleanOperationNode}) apply all of their
+   * dependencies but only wait on some of them.
+   * <p>
+   * This must match {@link #futureFromDependencies()}.
+   */
+  Collection<Node> getDependenciesToWaitOn() {
+    return getAllDependencies();
+  }
+
+  /**
+   * Return a set of enum fields that define which named dependencies are optional.
+   * <p>
+   * This is only used to generate DOT graph.
+   */
+  public final Set<? extends Enum> getOptionalDependencies() {
+    if (dependencyEnumClass == null) {
+      return Collections.emptySet();
+    }
+    return NodeMetadata.getOptionalDependencies(dependencyEnumClass);
+  }
+
+  private Node<R> setSinkNodes(Node... sinkNodes) {
+    Preconditions.checkArgument(state == STATE_NEW, "Node [%s] has been applied.", getName());
+    Preconditions.checkNotNull(sinkNodes);
+    this.sinkNodes = sinkNodes;
+    return this;
+  }
+
+  public final Node<R> setSinkNodes(List<Node> sinkNodes) {
+    setSinkNodes(sinkNodes.toArray(new Node[sinkNodes.size()]));
+    return this;
+  }
+
+  public final Node<R> addSinkNodes(Node... sinkNodes) {
+    return setSinkNodes(concat(this.sinkNodes, sinkNodes));
+  }
+
+  public final Node<R> addSinkNodes(List<Node> sinkNodes) {
+    return addSinkNodes(sinkNodes.toArray(new Node[sinkNodes.size()]));
+  }
+
+  public Subgraph getEnclosingSubgraph() {
+    return enclosingSubgraph;
+  }
+
+  public void setEnclosingSubgraph(Subgraph enclosingSubgraph) {
+    this.enclosingSubgraph = enclosingSubgraph;
+  }
+
+  protected void setDeciderSupplier(@Nullable DeciderSupplier deciderSupplier) {
+    this.deciderSupplier = deciderSupplier;
+  }
+
+  /**
+   * Run {@link #evaluate()} of this node on the given executor instead of the one from the {@link
+   * ExecutionContext} the graph is applied with.
+   * <p>
+   * This is useful to keep blocking {@code evaluate()} implementations away from the executor
+   * shared by CPU bound nodes.
+   */
+  public final Node<R> withExecutor(Executor executor) {
+    Preconditions.checkArgument(state == STATE_NEW, "Node [%s] has been applied.", getName());
+    this.executor = Preconditions.checkNotNull(executor);
+    return this;
+  }
+
+  /**
+   * Get the executor this node was explicitly set to run on, or {@code null} if it uses the one
+   * from the execution context.
+   */
+  @Nullable
+  public final Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Retry {@link #evaluate()} of this node when the future it returns fails, after a backoff, as
+   * decided by the given policy. The node completes with the outcome of the last evaluation.
+   * <p>
+   * Every retry calls {@code evaluate()} again with the same dependency values, so this is meant for
+   * nodes which call a backend there, such as {@link #flatMap} nodes. A node whose {@code
+   * evaluate()} returns the future of another node gets the same outcome again, as nodes are
+   * applied once per execution.
+   */
+  public final Node<R> retrying(RetryPolicy policy) {
+    Preconditions.checkArgument(state == STATE_NEW, "Node [%s] has been applied.", getName());
+    this.retryPolicy = Preconditions.checkNotNull(policy);
+    return this;
+  }
+
+  /**
+   * Get the policy retrying failed evaluations of this node, or {@code null} if they are not
+   * retried.
+   */
+  @Nullable
+  public final RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Whether this node is cheap enough to be evaluated on the calling thread when all of its
+   * dependencies are already complete, saving a hop to the executor.
+   * <p>
+   * Override this to return {@code true} for nodes whose {@link #evaluate()} does little more than
+   * reading dependency values.
+   */
+  protected boolean isCheap() {
+    return false;
+  }
+
+  /**
+   * Marks this node as shared by all executions in the process, which is only safe for nodes with
+   * a constant value and no dependencies. Called from constructors, before the node is published.
+   */
+  final void markShared() {
+    this.shared = true;
+  }
+
+  /**
+   * Check if this node is shared by all executions in the process, so its promise must not be
+   * completed at the deadline or cancelled for any one of them.
+   */
+  final boolean isShared() {
+    return shared;
+  }
+
+  /**
+   * Get the context this node was applied with, or {@code null} if it was not applied yet.
+   */
+  @Nullable
+  public final ExecutionContext getExecutionContext() {
+    return executionContext;
+  }
+
+  /**
+   * Returns the nanoseconds left until the deadline of the execution this node is evaluated in, or
+   * {@link Long#MAX_VALUE} if it has none. Meant to be called from {@link #evaluate()}, to pass the
+   * time left on to the backends the node calls.
+   *
+   * @see ExecutionContext#getRemainingNanos()
+   */
+  protected final long getRemainingNanos() {
+    return ExecutionContext.current().getRemainingNanos();
+  }
+
+  //
+  // Methods
+  //
+
+  /**
+   * Get class name for the response type using reflection.
+   */
+  public String getResponseClassName() {
+    return getLastTemplateType(this.getClass());
+  }
+
+  /**
+   * Create dot graph for a node, this provides a way to visualize node dependencies and helps
+   * debugging.
+   *
+   * @return A string in DOT syntax, which can be rendered using Graphviz or other software.
+   */
+  public String toDotGraph() {
+    return NodeDotGraphGenerator.createDot(this);
+  }
+
+  //@formatter:off
+  /**
+   * Convert a node to a future "safely". This will mask all possible failures in the wrapped node,
+   * including:
+   * - non-NullableNode returning a null value
+   * - exception thrown inside node
+   * - any of node's further dependency's failure
+   * all of them will turn into {@code CompletableFuture.completedFuture(null)}.
+   *
+   * If you do not want to mask failures below, you should directly use {@link #apply()}. If current
+   * node is nullable (inherit from {@link NullableNode}, or {@link #canEmitNull()} returns true),
+   * it can return {@code CompletableFuture.completedFuture(null)} properly; if current node is not
+   * nullable, or there is an exception thrown this will become a CompletableFuture exception.
+   */
+  //@formatter:on
+  public final CompletableFuture<R> toCompletableFutureSafe() {
+    return Node.optional(this)
+      .apply()
+      .thenApply(new Function<Optional<R>, R>() {
+        @Override
+        public R apply(Optional<R> response) {
+          return response.orElse(null);
+        }
+      });
+  }
+
+  /**
+   * Calls {@link #apply()} on the dependencies of this node, before they are joined by {@link
+   * #futureFromDependencies()}.
+   */
+  void applyDependencyNodes() {
+    for (Node node : dependencies) {
+      if (node != null) {
+        node.apply();
+      }
+    }
+  }
+
+  /**
+   * Retains the dependencies of this node applied by {@link #applyDependencyNodes()} for the given
+   * promise, so they are cancelled with it unless other nodes depend on them.
+   *
+   * @see NodePromise
+   */
+  final void retainDependencies(ExecutionContext context, CompletableFuture<R> promise) {
+    if (!(promise instanceof NodePromise) || dependencies.length == 0) {
+      return;
+    }
+    for (Node node : dependencies) {
+      if (node != null) {
+        NodePromise.retain(node.apply(context));
+      }
+    }
+    if (!((NodePromise<R>) promise).dependenciesRetained()) {
+      releaseDependencies(context);
+    }
+  }
+
+  /**
+   * Releases the dependencies retained by {@link #retainDependencies}.
+   */
+  final void releaseDependencies(ExecutionContext context) {
+    for (Node node : dependencies) {
+      if (node != null) {
+        NodePromise.release(node.apply(context));
+      }
+    }
+  }
+
+  /**
+   * Creates the future used to determine when the node's dependencies are able to be {@link
+   * #evaluate()}'ed. This is called once the dependencies applied by {@link #applyDependencyNodes()}
+   * are activated, when the ones evaluated inline are already complete.
+   * <p>
+   * The default implementation is to join all dependencies so that {@link #evaluate()} is only
+   * called when all dependencies are complete and successful. Dependencies which already completed
+   * successfully are left out of the join, and no join is created at all when all of them did.
+   */
+  CompletableFuture<Void> futureFromDependencies() {
+    CompletableFuture[] futures = null;
+    int pending = 0;
+    for (Node node : dependencies) {
+      if (node != null) {
+        CompletableFuture future = node.apply();
+        if (!future.isDone() || future.isCompletedExceptionally()) {
+          if (futures == null) {
+            futures = new CompletableFuture[dependentNodesByName.size()];
+          }
+          futures[pending++] = future;
+        }
+      }
+    }
+    if (pending == 0) {
+      return VOID_FUTURE;
+    }
+    return CompletableFuture.allOf(pending == futures.length
+      ? futures
+      : Arrays.copyOf(futures, pending));
+  }
+
+  /**
+   * Calls {@link #apply()} on all sink nodes.
+   */
+  void applySinkNodes() {
+    for (int i = 0; i < sinkNodes.length; i++) {
+      if (sinkNodes[i] != null) {
+        sinkNodes[i].apply();
+      }
+    }
+  }
+
+  /**
+   * Wait on a bunch of nodes before returning current node's result. This is convenient in creating
+   * some temporary dependencies.
+   */
+  public Node<R> waitOn(Node... nodesToWait) {
+    Preconditions.checkArgument(nodesToWait.length <= DEFAULT_DEPENDENCY_NAMES.length,
+      "Too many nodes to wait on");
+    final Node<R> outerNode = this;
+    return new NullableNode<R>(this.getName() + "_waited", nodesToWait) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return outerNode.apply();
+      }
+    };
+  }
+
+  /**
+   * Apply this node with the execution context bound to the current thread, which is the context
+   * of the node being evaluated when called from {@link #evaluate()}, or {@link
+   * ExecutionContext#DEFAULT} otherwise.
+   */
+  @Override
+  public CompletableFuture<R> apply() {
+    return apply(ExecutionContext.current());
+  }
+
+  /**
+   * Apply this node with the given execution context. All dependencies applied as a result of this
+   * call inherit the same context.
+   * <p>
+   * Calling {@code apply} on a {@link Node} is idempotent, only the context given to the first call
+   * is used.
+   * <p>
+   * Cancelling the returned future cancels the node: it is not evaluated if it was not yet, the
+   * future returned by {@link #evaluate()} is cancelled if it is still in flight, and the
+   * dependencies are cancelled in turn, except the ones other nodes which are not cancelled depend
+   * on.
+   */
+  public CompletableFuture<R> apply(ExecutionContext context) {
+    Preconditions.checkNotNull(context);
+    GraphPlan.Execution<?> planExecution = context.getPlanExecution();
+    if (planExecution != null) {
+      int slot = planExecution.getPlan().slotOf(this);
+      if (slot >= 0) {
+        return planExecution.apply(this, slot);
+      }
+    }
+
+    if (!STATE.compareAndSet(this, STATE_NEW, STATE_APPLIED)) {
+      return promise;
+    }
+    executionContext = context;
+    if (context.hasDeadline() && !shared && completeAtDeadline(context, promise)) {
+      return promise;
+    }
+    run(context, promise);
+    return promise;
+  }
+
+  /**
+   * Applies the deadline of the context to a promise of this node before it is run. If the deadline
+   * passed, the promise is completed right away, empty for optional nodes and failed with a {@link
+   * DeadlineExceededException} otherwise. If not, the promise of an optional node is completed
+   * empty at the deadline, unless the node completes before.
+   *
+   * @return {@code true} if the promise was completed, and the node must not be run
+   */
+  final boolean completeAtDeadline(ExecutionContext context, CompletableFuture<R> promise) {
+    long remainingNanos = context.getRemainingNanos();
+    if (remainingNanos <= 0) {
+      if (isOptional()) {
+        promise.complete((R) Optional.empty());
+      } else {
+        promise.completeExceptionally(new CompletionException(new DeadlineExceededException(this)));
+      }
+      return true;
+    }
+    if (isOptional()) {
+      // dependents are not evaluated on the timer thread
+      Executor target = context.getExecutor();
+      TimerWheel.Timeout timeout = TimerWheel.shared().schedule(
+        () -> executeFromTimer(target, () -> {
+          if (!promise.isDone() && promise instanceof NodePromise) {
+            // abandon the pending work, unless other nodes depend on it
+            ((NodePromise<R>) promise).stop();
+          }
+          promise.complete((R) Optional.empty());
+        }),
+        remainingNanos, TimeUnit.NANOSECONDS);
+      promise.whenComplete((value, throwable) -> timeout.cancel());
+    }
+    return false;
+  }
+
+  /**
+   * Returns the outcome of a promise of this node about to be evaluated once the deadline of the
+   * context passed, or {@code null} if {@link #evaluate()} is still called. Only nodes which are not
+   * {@link #isCheap() cheap}, and may start new work, are skipped: they complete empty if optional,
+   * and fail with a {@link DeadlineExceededException} otherwise.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  final CompletableFuture<R> outcomeAfterDeadline(ExecutionContext context) {
+    if (!context.isDeadlineExceeded() || shared || isCheap()) {
+      return null;
+    }
+    return isOptional()
+      ? CompletableFuture.completedFuture((R) Optional.empty())
+      : CompletableFutures.exceptionallyCompletedFuture(new DeadlineExceededException(this, "evaluated"));
+  }
+
+  /**
+   * Applies dependencies and sink nodes and completes the given promise with the outcome of {@link
+   * #evaluate()}. This is called once for every promise of this node.
+   */
+  void run(ExecutionContext context, CompletableFuture<R> promise) {
+    Activation.activate(new Activation(context) {
+
+      private long appliedNanos;
+
+      @Override
+      void applyDependencies() {
+        if (promise.isDone()) {
+          return;  // cancelled before it was activated
+        }
+        appliedNanos = readTimingClock(context);
+        applyDependencyNodes();
+        retainDependencies(context, promise);
+      }
+
+      @Override
+      void dependenciesActivated() {
+        if (promise.isDone()) {
+          return;
+        }
+        evaluateWhenDone(context, futureFromDependencies(), promise, appliedNanos);
+        applySinkNodes();
+      }
+
+      @Override
+      void failed(Throwable throwable) {
+        activationFailed(context, promise, throwable);
+      }
+    });
+  }
+
+  /**
+   * Fails a promise of this node whose activation threw, the same as if {@link #evaluate()} failed,
+   * and releases the dependencies retained for it.
+   */
+  final void activationFailed(ExecutionContext context, CompletableFuture<R> promise, Throwable throwable) {
+    log.error("activation of node [" + getName() + "] threw an exception", throwable);
+    if (!promise.isDone() && promise instanceof NodePromise) {
+      ((NodePromise<R>) promise).stop();
+    }
+    complete(context, promise, null, throwable instanceof CompletionException
+      ? throwable
+      : new CompletionException(throwable));
+  }
+
+  /**
+   * Runs a task of a timer on the given executor, so dependents are not evaluated on the timer
+   * thread. If the executor rejects it, e.g. once it is shut down, the task runs on the timer
+   * thread instead, as the future it completes would otherwise never complete.
+   */
+  static void executeFromTimer(Executor executor, Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run();
+    }
+  }
+
+  /**
+   * Returns the time of the timing clock of the context, or zero if timing is off.
+   */
+  static long readTimingClock(ExecutionContext context) {
+    LongSupplier clock = context.getTimingClock();
+    return clock != null
+      ? clock.getAsLong()
+      : 0;
+  }
+
+  /**
+   * Calls {@link #evaluate()} once the given dependencies future is done and completes the promise
+   * with its outcome. If the dependencies future fails, evaluate() is skipped and the promise fails
+   * too (or is empty for optional nodes).
+   * <p>
+   * When the dependencies are already done and the node can be evaluated inline, all of this
+   * happens on the calling thread, otherwise evaluation is dispatched to the executor. Inline
+   * evaluation of a node whose dependencies succeeded and whose {@link #evaluate()} returns a
+   * completed future completes the promise directly, without allocating any intermediate stage.
+   *
+   * @param appliedNanos time of the timing clock when the node was applied, if timing is enabled
+   */
+  void evaluateWhenDone(ExecutionContext context,
+                        CompletableFuture<Void> dependencies,
+                        CompletableFuture<R> promise,
+                        long appliedNanos) {
+    if (!canEvaluateInline(dependencies, context)) {
+      Evaluation evaluation = new Evaluation(context, promise, appliedNanos);
+      Executor target = executor != null ? executor : context.getExecutor();
+      if (target instanceof PriorityExecutor) {
+        target = ((PriorityExecutor) target).withPriority(schedulingPriority(context));
+      }
+      dependencies
+        .thenComposeAsync(evaluation, context.isTimingEnabled() ? evaluation.timed(target) : target)
+        .whenComplete(evaluation);
+      return;
+    }
+
+    // completion is part of the inline evaluation, as completing the promise may in turn
+    // evaluate dependent nodes inline
+    int[] inlineDepth = INLINE_DEPTH.get();
+    inlineDepth[0]++;
+    ExecutionContext outer = ExecutionContext.enter(context);
+    try {
+      if (dependencies.isCompletedExceptionally()) {
+        Evaluation evaluation = new Evaluation(context, promise, appliedNanos);
+        evaluation.markReady();
+        dependencies.thenCompose(evaluation).whenComplete(evaluation);
+        return;
+      }
+      if (context.isTimingEnabled()) {
+        Evaluation evaluation = new Evaluation(context, promise, appliedNanos);
+        evaluation.markReady();
+        CompletableFuture<R> result = evaluation.apply(null);
+        if (result.isDone() && !result.isCompletedExceptionally()) {
+          evaluation.accept(result.getNow(null), null);
+        } else {
+          result.whenComplete(evaluation);
+        }
+        return;
+      }
+      if (promise.isCancelled()) {
+        return;
+      }
+      CompletableFuture<R> result = outcomeAfterDeadline(context);
+      if (result == null) {
+        result = evaluateSafely(context);
+      }
+      if (result.isDone() && !result.isCompletedExceptionally()) {
+        complete(context, promise, result.getNow(null), null);
+      } else {
+        evaluating(promise, result);
+        result.whenComplete(new Evaluation(context, promise, appliedNanos));
+      }
+    } finally {
+      ExecutionContext.exit(outer);
+      inlineDepth[0]--;
+    }
+  }
+
+  /**
+   * Evaluation of this node for one promise, which is both the function composed on the
+   * dependencies future and the callback completing the promise, so only one object is allocated
+   * for the two. When timing is enabled, it also holds the times of the evaluation until they are
+   * published as a {@link NodeTiming} and reported to the metrics listener and the trace of the
+   * context.
+   */
+  private final class Evaluation implements Function<Void, CompletableFuture<R>>, BiConsumer<R, Throwable> {
+
+    private final ExecutionContext context;
+    private final CompletableFuture<R> promise;
+
+    // Timing, written before the completion of the future which triggers the next step, so each
+    // step sees the times of the previous ones.
+    private final long appliedNanos;
+    private long readyNanos;
+    private long evaluateStartNanos;
+    private long evaluateStopNanos;
+    private boolean ready;
+    private boolean evaluated;
+    private boolean decidedOff;
+    private Thread thread;
+
+    Evaluation(ExecutionContext context, CompletableFuture<R> promise, long appliedNanos) {
+      this.context = context;
+      this.promise = promise;
+      this.appliedNanos = appliedNanos;
+    }
+
+    /**
+     * Returns an executor which records when the node became ready, that is when the evaluation
+     * is submitted to the target executor.
+     */
+    Executor timed(Executor target) {
+      return command -> {
+        markReady();
+        target.execute(command);
+      };
+    }
+
+    void markReady() {
+      ready = true;
+      readyNanos = readTimingClock(context);
+    }
+
+    @Override
+    public CompletableFuture<R> apply(Void unused) {
+      if (promise.isCancelled()) {
+        return CANCELLED_FUTURE;
+      }
+      CompletableFuture<R> expired = outcomeAfterDeadline(context);
+      if (expired != null) {
+        return expired;
+      }
+      ExecutionContext outer = ExecutionContext.enter(context);
+      try {
+        evaluated = true;
+        thread = Thread.currentThread();
+        evaluateStartNanos = readTimingClock(context);
+        try {
+          CompletableFuture<R> result = evaluateSafely(context);
+          decidedOff = result == DECIDED_OFF_EMPTY || result == DECIDED_OFF_NULL;
+          evaluating(promise, result);
+          return result;
+        } finally {
+          evaluateStopNanos = readTimingClock(context);
+        }
+      } finally {
+        ExecutionContext.exit(outer);
+      }
+    }
+
+    @Override
+    public void accept(@Nullable R value, @Nullable Throwable throwable) {
+      ExecutionContext outer = ExecutionContext.enter(context);
+      try {
+        if (context.isTimingEnabled()) {
+          long completedNanos = readTimingClock(context);
+          if (!ready) {
+            // failed dependencies complete the evaluation without submitting it
+            readyNanos = completedNanos;
+          }
+          if (!evaluated) {
+            evaluateStartNanos = readyNanos;
+            evaluateStopNanos = readyNanos;
+          }
+          NodeTiming timing = new NodeTiming(
+            appliedNanos, readyNanos, evaluateStartNanos, evaluateStopNanos, completedNanos);
+          recordTiming(context, timing);
+          NodeMetricsListener metricsListener = context.getMetricsListener();
+          ExecutionTrace trace = context.getTrace();
+          if (metricsListener != null || trace != null) {
+            NodeOutcome outcome = outcome(value, throwable, promise.isCancelled(), evaluated, decidedOff);
+            if (metricsListener != null) {
+              reportMetrics(metricsListener, outcome, timing);
+            }
+            if (trace != null) {
+              trace.record(Node.this, outcome, timing, evaluated ? thread : Thread.currentThread());
+            }
+          }
+        }
+        // failures are reported wrapped, the same as when relayed by a composed stage
+        complete(context, promise, value, throwable == null || throwable instanceof CompletionException
+          ? throwable
+          : new CompletionException(throwable));
+      } finally {
+        ExecutionContext.exit(outer);
+      }
+    }
+  }
+
+  /**
+   * Returns the priority of this node in the plan execution of the context, or zero if it is not
+   * executed from a plan.
+   */
+  private long schedulingPriority(ExecutionContext context) {
+    GraphPlan.Execution<?> planExecution = context.getPlanExecution();
+    if (planExecution != null) {
+      int slot = planExecution.getPlan().slotOf(this);
+      if (slot >= 0) {
+        return planExecution.getPlan().priorityOf(slot);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Check if {@link #evaluate()} can run on the calling thread: all dependencies are done, the node
+   * is cheap or the graph opted in, and the inline depth limit is not reached yet.
+   */
+  private boolean canEvaluateInline(CompletableFuture<Void> dependencies, ExecutionContext context) {
+    return dependencies.isDone()
+      && executor == null
+      && (isCheap() || context.isInlineExecution())
+      && INLINE_DEPTH.get()[0] < context.getMaxInlineDepth();
+  }
+
+  /**
+   * Calls {@link #evaluate()} once all dependencies are done, turning all failures into an
+   * exceptionally completed future, and retrying them if the node has a retry policy.
+   */
+  private CompletableFuture<R> evaluateSafely(ExecutionContext context) {
+    CompletableFuture<R> result = evaluateOnce(context);
+    RetryPolicy policy = retryPolicy;
+    return policy != null
+      ? RetryingEvaluation.of(this, context, policy, result)
+      : result;
+  }
+
+  /**
+   * Calls {@link #evaluate()} once, turning all failures into an exceptionally completed future.
+   */
+  final CompletableFuture<R> evaluateOnce(ExecutionContext context) {
+    CompletableFuture<R> result;
+
+    if (!isOptional() && context.isDebugEnabled(DebugLevel.DETAILED)) {
+      logStart();
+    }
+    try {
+      if (deciderSupplier != null && !deciderSupplier.isFeatureAvailable()) {
+        if (context.isDebugEnabled(DebugLevel.VERBOSE)) {
+          debugEvent(DebugLevel.VERBOSE, DebugEvent.DECIDED_OFF, 0, 0, deciderSupplier.getDeciderKey());
+        }
+        result = isOptional()
+          ? DECIDED_OFF_EMPTY
+          : DECIDED_OFF_NULL;
+      } else {
+        result = evaluate();
+        if (result == null) {
+          result = CompletableFutures.exceptionallyCompletedFuture(
+            new RuntimeException("evaluate() returned null CompletableFuture object!"));
+        }
+      }
+    } catch (Exception e) {
+      if (context.isDebugEnabled(DebugLevel.DETAILED)) {
+        debugEvent(DebugLevel.DETAILED, DebugEvent.EVALUATE_FAILED, 0, 0, e);
+      }
+      log.error("evaluate threw an exception", e);
+      result = CompletableFutures.exceptionallyCompletedFuture(e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Registers the future returned by {@link #evaluate()} with the promise while it is in flight, so
+   * it is cancelled with the promise.
+   */
+  private static void evaluating(CompletableFuture<?> promise, CompletableFuture<?> result) {
+    if (!result.isDone() && promise instanceof NodePromise) {
+      ((NodePromise<?>) promise).evaluating(result);
+    }
+  }
+
+  /**
+   * Completes the promise of this node with the outcome of {@link #evaluate()}.
+   */
+  private void complete(ExecutionContext context,
+                        CompletableFuture<R> promise,
+                        @Nullable R value,
+                        @Nullable Throwable throwable) {
+    if (!isOptional() && context.isDebugEnabled(DebugLevel.DETAILED)) {
+      if (throwable == null) {
+        logResponse(value);
+        logEnd();
+      } else {
+        logError(throwable);
+      }
+    }
+    if (throwable == null) {
+      // completed successfully
+      if (value == null && !canEmitNull) {
+        promise.completeExceptionally(
+          new RuntimeException("evaluate() returned CompletableFuture.value(null) but the node is not marked as Nullable."));
+      } else {
+        promise.complete(value);
+      }
+    } else {
+      // completed exceptionally
+      if (isOptional()) {
+        promise.complete((R) Optional.empty());
+      } else {
+        promise.completeExceptionally(throwable);
+      }
+    }
+  }
+
+  /**
+   * Callback that fires when all of the required dependencies succeeded and have non-null values.
+   *
+   * @return a future of the computed node's value; may be a future of null if it failed.
+   */
+  protected abstract CompletableFuture<R> evaluate() throws Exception;
+
+  /**
+   * Gets the {@code Node} value.
+   * <p>
+   * The node will only emit a non-null value if it completed successfully.
+   * <p>
+   * Since a node's required dependencies must succeed for {@link #evaluate()} to be called, a
+   * node's implementation should only be able to call {@code #emit()} when it's guaranteed to
+   * return successfully.
+   */
+  public R emit() {
+    CompletableFuture<R> promise = planSlot == null
+      ? this.promise
+      : currentPromise();
+    if (CompletableFutures.completedWithSuccess(promise)) {
+      try {
+        return CompletableFutures.awaitResult(promise);
+      } catch (Exception e) {
+        log.error("Exception during emit()", e);
+        throw new RuntimeException("Could not read promise", e);
+      }
+    }
+
+    // It's logically impossible to get here if:
+    //    apply() was called on the terminating graph node
+    //    AND the promise's node was added as a dependency.
+    // So it's possible to get here if you just create a node and then call emit() on it w/o
+    // calling apply() on the terminating graph node.
+    // Assuming the graph was used properly, then it's possible to get here if the node wasn't added
+    //
+    // Report back to the user which state the node was in, but also remind them to add the node
+    // as a dependency.
+
+    if (CompletableFutures.completedWithFailure(promise)) {
+      throw new IllegalStateException(
+        String.format("NODE[%s]: Attempting to call emit() on failed required node.  "
+          + "Did you forget to add this node as a required dependency?", getName()));
+    }
+
+    throw new IllegalStateException(
+      String.format("NODE[%s]: Attempting to call emit() on an incomplete required node.  "
+        + "Did you forget to add this node as a required dependency?", getName()));
+  }
+
+  /**
+   * Returns the promise of this node in the plan execution bound to the current thread, or the
+   * promise of this instance if there is none.
+   */
+  private CompletableFuture<R> currentPromise() {
+    GraphPlan.Execution<?> planExecution = ExecutionContext.current().getPlanExecution();
+    if (planExecution != null) {
+      int slot = planExecution.getPlan().slotOf(this);
+      if (slot >= 0) {
+        return planExecution.promise(slot);
+      }
+    }
+    return promise;
+  }
+
+  /**
+   * Returns the timing of the last evaluation of this node, or {@code null} if it was not applied
+   * with {@linkplain ExecutionContext#isTimingEnabled() timing enabled} or did not complete yet.
+   * <p>
+   * For nodes of a {@link GraphPlan}, this is the timing in the plan execution bound to the current
+   * thread, see {@link GraphPlan.Execution#getTiming(Node)}.
+   */
+  @Nullable
+  public final NodeTiming getTiming() {
+    if (planSlot != null) {
+      GraphPlan.Execution<?> planExecution = ExecutionContext.current().getPlanExecution();
+      if (planExecution != null) {
+        int slot = planExecution.getPlan().slotOf(this);
+        if (slot >= 0) {
+          return planExecution.timing(slot);
+        }
+      }
+    }
+    return timing;
+  }
+
+  /**
+   * Publishes the timing of an evaluation, to the plan execution of the context if the node is part
+   * of it.
+   */
+  private void recordTiming(ExecutionContext context, NodeTiming timing) {
+    GraphPlan.Execution<?> planExecution = context.getPlanExecution();
+    if (planExecution != null) {
+      int slot = planExecution.getPlan().slotOf(this);
+      if (slot >= 0) {
+        planExecution.recordTiming(slot, timing);
+        return;
+      }
+    }
+    this.timing = timing;
+  }
+
+  /**
+   * Returns how an evaluation ended, given the value or failure it completed with.
+   */
+  private NodeOutcome outcome(@Nullable R value,
+                              @Nullable Throwable throwable,
+                              boolean cancelled,
+                              boolean evaluated,
+                              boolean decidedOff) {
+    if (cancelled) {
+      return evaluated
+        ? NodeOutcome.CANCELLED
+        : NodeOutcome.CANCELLED_BEFORE_EVALUATION;
+    }
+    if (decidedOff) {
+      return NodeOutcome.DECIDED_OFF;
+    }
+    if (throwable != null) {
+      return isOptional()
+        ? NodeOutcome.OPTIONAL_EMPTY
+        : NodeOutcome.FAILURE;
+    }
+    if (value == null) {
+      return canEmitNull
+        ? NodeOutcome.NULL
+        : NodeOutcome.FAILURE;
+    }
+    return NodeOutcome.SUCCESS;
+  }
+
+  private void reportMetrics(NodeMetricsListener metricsListener, NodeOutcome outcome, NodeTiming timing) {
+    try {
+      metricsListener.nodeCompleted(name, key, outcome, timing);
+    } catch (RuntimeException e) {
+      log.warn("Metrics listener failed for node {}", getName(), e);
+    }
+  }
+
+  //
+  // Debug
+  //
+
+  /**
+   * Returns the name of this node as it appears in debug messages.
+   */
+  @Override
+  public String toString() {
+    return "NODE [" + getName() + "]";
+  }
+
+  // Debug messages go to the builder of the execution context bound to the current thread, which
+  // is the context of this node while it is evaluated or completed. They are recorded with this
+  // node and their arguments, and only formatted when the debug message is rendered.
+
+  public void debugBasic(final String message, Object... args) {
+    debugMessage(DebugLevel.BASIC, message, args);
+  }
+
+  public void debugDetailed(final String message, Object... args) {
+    debugMessage(DebugLevel.DETAILED, message, args);
+  }
+
+  public void debugVerbose(final String message, Object... args) {
+    debugMessage(DebugLevel.VERBOSE, message, args);
+  }
+
+  private void debugMessage(DebugLevel level, String message, Object[] args) {
+    DebugMessageBuilder debug = ExecutionContext.current().getDebugMessageBuilder();
+    if (debug.getLevel().ordinal() >= level.ordinal()) {
+      debug.message(level, this, message, args);
+    }
+  }
+
+  // Node events are recorded with their timing as primitive values and their failure as a
+  // reference, so nothing is boxed or rendered until the debug message is rendered.
+
+  private void debugEvent(DebugLevel level,
+                          DebugEvent event,
+                          long first,
+                          long second,
+                          @Nullable Object reference) {
+    DebugMessageBuilder debug = ExecutionContext.current().getDebugMessageBuilder();
+    if (debug.getLevel().ordinal() >= level.ordinal()) {
+      debug.event(level, this, event, first, second, reference);
+    }
+  }
+
+  private static boolean isDebugEnabled(DebugLevel level) {
+    return ExecutionContext.current().isDebugEnabled(level);
+  }
+
+  protected void logStart() {
+    debugEvent(DebugLevel.DETAILED, DebugEvent.START, 0, 0, null);
+  }
+
+  protected void logEnd() {
+    NodeTiming timing = getTiming();
+    debugEvent(DebugLevel.DETAILED, DebugEvent.END,
+      timing == null ? -1 : timing.getTotalNanos(),
+      timing == null ? -1 : timing.getEvaluateNanos(),
+      null);
+  }
+
+  protected void logError(Throwable t) {
+    NodeTiming timing = getTiming();
+    debugEvent(DebugLevel.DETAILED, DebugEvent.FAILED,
+      timing == null ? -1 : timing.getTotalNanos(),
+      timing == null ? -1 : timing.getEvaluateNanos(),
+      t);
+  }
+
+  /**
+   * Log response string, by default it doesn't print much information.
+   */
+  protected void logResponse(@Nullable R response) {
+    String str = response == null ? null : printResponse(response);
+    if (str != null && !isOptional()) {
+      debugDetailed("response: %s", str);
+    }
+  }
+
+  /**
+   * Print response into a string for logging/debugging purpose.
+   */
+  @Nullable
+  protected String printResponse(R response) {
+    if (isDebugEnabled(DebugLevel.VERBOSE)) {
+      return String.valueOf(response);
+    }
+    return null;
+  }
+
+  //
+  // Static
+  //
+
+  /**
+   * Adds all the elements of the given arrays into a new array.
+   * <p>
+   * The new array contains all of the element of {@code array1} followed by all of the elements
+   * {@code array2}. When an array is returned, it is always a new array.
+   *
+   * @param array1 the first array whose elements are added to the new array, may not be {@code
+   *               null}
+   * @param array2 the second array whose elements are added to the new array, may not be {@code
+   *               null}
+   * @param <T>    the component type of the array
+   * @return The new array.
+   */
+  private static <T> T[] concat(final T[] array1, final T[] array2) {
+    final T[] joinedArray = Arrays.copyOf(array1, array1.length + array2.length);
+    System.arraycopy(array2, 0, joinedArray, array1.length, array2.length);
+    return joinedArray;
+  }
+
+  protected static String getLastTemplateType(Class clazz) {
+    return NodeMetadata.getLastTemplateType(clazz);
+  }
+
+  private static Map<Enum, Node> createNamedDependencies(Collection<Node> nodes) {
+    int maxSize = DEFAULT_DEPENDENCY_NAMES.length;
+    Preconditions.checkArgument(nodes.size() <= maxSize,
+      "You can't have more than %s dependencies for a node.", maxSize);
+    if (nodes.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<Enum, Node> map = new EnumMap(DefaultDependencyEnum.class);
+    int index = 0;
+    for (Node node : nodes) {
+      map.put(DEFAULT_DEPENDENCY_NAMES[index++], node);
+    }
+    return map;
+  }
+
+  //
+  // Builder
+  //
+
+  /**
+   * A convenient method to create a builder for a given target node class.
+   * Enum class for the dependencies will be decided when the first dependency is added.
+   */
+  public static <T> Builder<T> builder(Class<? extends Node<T>> nodeClass) {
+    return new Builder<>(nodeClass, null);
+  }
+
+  /**
+   * A simpler helper merging {@link Node#builder(Node)} and {@link Builder#withDependencies(Object...)}
+   * into one call.
+   */
+  public static <T> Node<T> build(Class<? extends Node<T>> nodeClass, Object... dependencies) {
+    return new Builder<>(nodeClass, null).withDependencies(dependencies).build();
+  }
+
+  /**
+   * Provides a way of creating a builder from an existing instance of a {@link Node}.
+   * <p>
+   * This method is useful for nodes that require arguments in the constructor or for using mocks.
+   */
+  public static <T> Builder<T> builder(Node<T> nodeInstance) {
+    return new Builder<>(nodeInstance, null);
+  }
+
+  /**
+   * A general builder to build a {@link Node} using named dependencies.
+   * <p>
+   * If the {@code node} is created from a class, it will first call the default constructor of the
+   * given class (so make sure it has one, since {@link Node} already has one, not implementing any
+   * constructor gives you one by default).
+   * <p>
+   * The builder assigns dependencies to the {@code node} instance using enum names. For any
+   * dependencies marked as {@link OptionalDep} in the enum class, if they don't already exist in
+   * the collected dependency map, they will be added as {@link Node#empty()}.
+   *
+   * @param <T> The return type of the nodes this Builder builds.
+   */
+  public static class Builder<T> {
+
+    protected final Node<T> nodeInstance;
+    protected String nodeKey;
+    protected Map<Enum, Node> dependentNodesByName;
+    protected Node[] sinkNodes = EMPTY_NODE_ARRAY;
+    protected DeciderSupplier deciderSupplier;
+
+    public Builder(Class<? extends Node<T>> nodeClass) {
+      this(nodeClass, null);
+    }
+
+    public Builder(Class<? extends Node<T>> nodeClass, @Nullable Class<? extends Enum> enumClass) {
+      this(NodeMetadata.newInstance(nodeClass), enumClass);
+    }
+
+    public Builder(Node<T> nodeInstance, @Nullable Class<? extends Enum> enumClass) {
+      this.nodeInstance = nodeInstance;
+      if (enumClass != null) {
+        initDependencyMap(enumClass);
+      }
+    }
+
+    /** Create dependency map by enum, this allows the lazy creation of this class. */
+    private void initDependencyMap(Class<? extends Enum> enumClass) {
+      if (dependentNodesByName == null) {
+        dependentNodesByName = new EnumMap(enumClass);
+      }
+    }
+
+    private void initDependencyMap(Enum name) {
+      if (dependentNodesByName == null) {
+        initDependencyMap(name.getDeclaringClass());
+      }
+    }
+
+    /**
+     * Check if a dependency is optional or not by name.
+     */
+    private boolean isDependencyOptional(Enum name) {
+      return NodeMetadata.getOptionalDependencies(name.getDeclaringClass()).contains(name);
+    }
+
+    public Builder<T> withNodeKey(String nodeKey) {
+      this.nodeKey = nodeKey;
+      return this;
+    }
+
+    public Builder<T> withSinkNodes(Node... sinkNodes) {
+      this.sinkNodes = sinkNodes.clone();
+      return this;
+    }
+
+    public Builder<T> withSinkNodes(List<Node> sinkNodes) {
+      return withSinkNodes(sinkNodes.toArray(new Node[sinkNodes.size()]));
+    }
+
+    public Builder<T> withDeciderSupplier(DeciderSupplier deciderSupplier) {
+      this.deciderSupplier = deciderSupplier;
+      return this;
+    }
+
+    /**
+     * Add a named dependency.
+     * <p>
+     * If the dependency is marked as optional, the node will be wrapped so when it fails to emit a
+     * valid result, current node's execution won't be affected.
+     */
+    public Builder<T> dependsOn(Enum name, Node node) {
+      initDependencyMap(name);
+      return dependsOnInternal(name, node);
+    }
+
+    protected Builder<T> dependsOnInternal(Enum name, Node node) {
+      // Wrap this node if its dependency state is optional and the node is not already wrapped.
+      // The node.isOptional() is mostly for backward compatibility as we may sometimes pass in
+      // an optional-wrapped node using the new-style builder.
+      //TODO: remove the isOptional() check after we clean up all such cases.
+      Node dependency = isDependencyOptional(name) && !node.isOptional()
+        ? Node.optional(node)
+        : node;
+      Preconditions.checkArgument(dependentNodesByName.put(name, dependency) == null,
+        "You have already added a dependent node named: %s", name);
+      return this;
+    }
+
+    /**
+     * A convenient wrapper to add all dependencies.
+     *
+     * @param deps All dependencies with enum key and node object alternating. There must be even
+     *             number of items in this list.
+     * @return A node builder with given dependencies.
+     */
+    public Builder<T> withDependencies(Object... deps) {
+      Preconditions.checkArgument(deps.length > 0 && deps.length % 2 == 0,
+        "There must be even number of arguments in Node.Builder.buildWithDependencies()");
+      try {
+        initDependencyMap((Enum) deps[0]);
+        for (int i = 0; i < deps.length; i += 2) {
+          Enum key = (Enum) deps[i];
+          Node node = (Node) deps[i + 1];
+          dependsOnInternal(key, node);
+        }
+      } catch (ClassCastException e) {
+        log.error("Casting exception while creating node", e);
+        throw new RuntimeException(e);
+      }
+      return this;
+    }
+
+    /**
+     * Get all dependent nodes in a map. If user uses Builder or subclasses it themselves, the enum
+     * class would be provided by the user; if they use AnonymousBuilder, or simply pass in a
+     * collection of unnamed dependencies, the key will be {@link DefaultDependencyEnum}.
+     */
+    protected Map<Enum, Node> getDependencyMap() {
+      return dependentNodesByName;
+    }
+
+    public Node<T> build() {
+      nodeInstance.setAllDependencies(getDependencyMap());
+      nodeInstance.withKey(nodeKey);
+      nodeInstance.setSinkNodes(sinkNodes);
+      nodeInstance.setDeciderSupplier(deciderSupplier);
+      return nodeInstance;
+    }
+  }
+
+  //
+  // Transformations
+  //
+
+  /**
+   * Map the output of current node to a new type T.
+   */
+  public <T> Node<T> map(NamedFunction<R, T> function) {
+    return TransformNode.create(this, function, function.getName());
+  }
+
+  public <T> Node<T> map(String name, Function<R, T> function) {
+    return map(NamedFunction.create(name, function));
+  }
+
+  // Mapping with multiple inputs
+
+  /**
+   * Represents a function with two arguments.
+   *
+   * @param <T1> argument 1 of the function
+   * @param <T2> argument 2 of the function
+   * @param <R>  return type of the function
+   */
+  @FunctionalInterface
+  public interface Function2<T1, T2, R> {
+
+    R apply(T1 t1, T2 t2);
+  }
+
+  /**
+   * Represents a function with three arguments.
+   *
+   * @param <T1> argument 1 of the function
+   * @param <T2> argument 2 of the function
+   * @param <T3> argument 3 of the function
+   * @param <R>  return type of the function
+   */
+  @FunctionalInterface
+  public interface Function3<T1, T2, T3, R> {
+
+    R apply(T1 t1, T2 t2, T3 t3);
+  }
+
+  /**
+   * Represents a function with 4 arguments.
+   *
+   * @param <T1> argument 1 of the function
+   * @param <T2> argument 2 of the function
+   * @param <T3> argument 3 of the function
+   * @param <T4> argument 4 of the function
+   * @param <R>  return type of the function
+   */
+  @FunctionalInterface
+  public interface Function4<T1, T2, T3, T4, R> {
+
+    R apply(T1 t1, T2 t2, T3 t3, T4 t4);
+  }
+
+  public static <T1, T2, R> Node<R> map2(
+    String name,
+    Node<T1> node1, Node<T2> node2,
+    Function2<T1, T2, R> func) {
+    return new Node<R>(name, node1, node2) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return CompletableFuture.completedFuture(func.apply(node1.emit(), node2.emit()));
+      }
+
+      @Override
+      protected boolean isCheap() {
+        return true;
+      }
+    };
+  }
+
+  public static <T1, T2, T3, R> Node<R> map3(
+    String name,
+    Node<T1> node1, Node<T2> node2, Node<T3> node3,
+    Function3<T1, T2, T3, R> func) {
+    return new Node<R>(name, node1, node2, node3) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return CompletableFuture.completedFuture(func.apply(node1.emit(), node2.emit(), node3.emit()));
+      }
+
+      @Override
+      protected boolean isCheap() {
+        return true;
+      }
+    };
+  }
+
+  public static <T1, T2, T3, T4, R> Node<R> map4(
+    String name,
+    Node<T1> node1, Node<T2> node2, Node<T3> node3, Node<T4> node4,
+    Function4<T1, T2, T3, T4, R> func) {
+    return new Node<R>(name, node1, node2, node3, node4) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return CompletableFuture.completedFuture(func.apply(node1.emit(), node2.emit(), node3.emit(), node4.emit()));
+      }
+
+      @Override
+      protected boolean isCheap() {
+        return true;
+      }
+    };
+  }
+
+  public static <T1, T2, R> Node<R> flatMap2(
+    String name,
+    Node<T1> node1, Node<T2> node2,
+    Function2<T1, T2, CompletableFuture<R>> func) {
+    return new Node<R>(name, node1, node2) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return func.apply(node1.emit(), node2.emit());
+      }
+    };
+  }
+
+  public static <T1, T2, T3, R> Node<R> flatMap3(
+    String name,
+    Node<T1> node1, Node<T2> node2, Node<T3> node3,
+    Function3<T1, T2, T3, CompletableFuture<R>> func) {
+    return new Node<R>(name, node1, node2, node3) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return func.apply(node1.emit(), node2.emit(), node3.emit());
+      }
+    };
+  }
+
+  public static <T1, T2, T3, T4, R> Node<R> flatMap4(
+    String name,
+    Node<T1> node1, Node<T2> node2, Node<T3> node3, Node<T4> node4,
+    Function4<T1, T2, T3, T4, CompletableFuture<R>> func) {
+    return new Node<R>(name, node1, node2, node3, node4) {
+      @Override
+      protected CompletableFuture<R> evaluate() throws Exception {
+        return func.apply(node1.emit(), node2.emit(), node3.emit(), node4.emit());
+      }
+    };
+  }
+
+  /**
+   * Maps the value of current node to a new type T by applying the provided function, but only when
+   * the value is present. For {@code null} values, the function is not even run and the transformed
+   * value is {@code null}. Exceptions will be convert to {@code null}.
+   * <p>
+   * This means the function doesn't have to handle nullable inputs when run on nullable nodes.
+   */
+  public <T> Node<T> mapOnSuccess(NamedFunction<R, T> function) {
+    return ifSuccessThen(this, map(function));
+  }
+
+  public <T> Node<T> mapOnSuccess(String name, Function<R, T> function) {
+    return ifSuccessThen(this, map(name, function));
+  }
+
+  public <T> Node<T> mapWithDeciderSupplier(DeciderSupplier deciderKey,
+                                            NamedFunction<R, T> function) {
+    return TransformNode.create(this, function, function.getName(), deciderKey);
+  }
+
+  public <T> Node<T> mapWithDeciderSupplier(String name,
+                                            DeciderSupplier deciderKey,
+                                            Function<R, T> function) {
+    return mapWithDeciderSupplier(deciderKey, NamedFunction.create(name, function));
+  }
+
+  public <T> Node<T> flatMap(NamedFunction<R, CompletableFuture<T>> function) {
+    return FlatMapTransformNode.create(this, function, function.getName(), null);
+  }
+
+  public <T> Node<T> flatMap(String name, Function<R, CompletableFuture<T>> function) {
+    return flatMap(NamedFunction.create(name, function));
+  }
+
+  public <T> Node<T> flatMapWithDeciderSupplier(DeciderSupplier deciderKey,
+                                                NamedFunction<R, CompletableFuture<T>> function) {
+    return FlatMapTransformNode.create(this, function, function.getName(), deciderKey);
+  }
+
+  public <T> Node<T> flatMapWithDeciderSupplier(String name,
+                                                DeciderSupplier deciderKey,
+                                                Function<R, CompletableFuture<T>> function) {
+    return flatMapWithDeciderSupplier(deciderKey, NamedFunction.create(name, function));
+  }
+
+  /**
+   * Like {@link #flatMap(NamedFunction)}, but applies the function a second time if the future it
+   * returned did not complete within the delay of the policy, and takes the value of the first of
+   * the two futures to complete successfully. The other one is cancelled.
+   */
+  public <T> Node<T> hedged(NamedFunction<R, CompletableFuture<T>> function, HedgePolicy policy) {
+    return new HedgedNode<>(this, function, function.getName(), policy);
+  }
+
+  public <T> Node<T> hedged(String name, Function<R, CompletableFuture<T>> function, HedgePolicy policy) {
+    return hedged(NamedFunction.create(name, function), policy);
+  }
+
+  /**
+   * Collect results from a map of nodes into a node of the map.
+   */
+  public static <A, B> Node<Map<A, B>> collect(final Map<A, Node<B>> nodeMap) {
+    Preconditions.checkNotNull(nodeMap);
+    return Node.wrapCompletableFuture(NodeCollector.collect(nodeMap));
+  }
+
+  /**
+   * Collect results from a list of nodes into a node of list.
+   */
+  public static <T> Node<List<T>> collect(List<Node<T>> nodeList) {
+    Preconditions.checkNotNull(nodeList);
+    return Node.wrapCompletableFuture(NodeCollector.collect(nodeList));
+  }
+
+  /**
+   * Splits and transforms a Node of a list of elements A and then collects as a Node of lists of
+   * element B.
+   */
+  public static <A, B> Node<List<B>> splitAndCollect(Node<List<A>> list,
+                                                     NamedFunction<A, Node<B>> transformFunction) {
+    return list.flatMap(
+      NamedFunction.create("splitAndCollectList", items -> {
+        List<Node<B>> newList = new ArrayList<>();
+        for (A item : items) {
+          newList.add(transformFunction.apply(item));
+        }
+        return Node.collect(newList).apply();
+      }))
+      .whenSuccess(list);
+  }
+
+  /**
+   * Split and collect with Java {@link Function}.
+   */
+  public static <A, B> Node<List<B>> splitAndCollect(Node<List<A>> list,
+                                                     String name,
+                                                     Function<A, Node<B>> function) {
+    return splitAndCollect(list, NamedFunction.create(name, function));
+  }
+
+  /**
+   * Splits and transforms a Node of a list like {@link #splitAndCollect(Node, NamedFunction)}, but
+   * applies the nodes of the elements in batches with a limited number in flight, as given by the
+   * options.
+   */
+  public static <A, B> Node<List<B>> splitAndCollect(Node<List<A>> list,
+                                                     NamedFunction<A, Node<B>> transformFunction,
+                                                     CollectOptions options) {
+    Preconditions.checkNotNull(options);
+    return list.flatMap(
+      NamedFunction.create("splitAndCollectList",
+        items -> WindowedCollector.collect(items, transformFunction, options)))
+      .whenSuccess(list);
+  }
+
+  /**
+   * Split and collect with Java {@link Function} and the given options.
+   */
+  public static <A, B> Node<List<B>> splitAndCollect(Node<List<A>> list,
+                                                     String name,
+                                                     Function<A, Node<B>> function,
+                                                     CollectOptions options) {
+    return splitAndCollect(list, NamedFunction.create(name, function), options);
+  }
+
+  /**
+   * Splits a Node of a list of elements A into batches of the size given by the options,
+   * transforms each batch into a Node of a list of elements B, one for every element of the batch,
+   * and then collects all of them as a Node of a list of elements B. This suits backends which
+   * take a batch of requests in one call.
+   */
+  public static <A, B> Node<List<B>> splitAndCollectBatches(Node<List<A>> list,
+                                                            NamedFunction<List<A>, Node<List<B>>> batchFunction,
+                                                            CollectOptions options) {
+    Preconditions.checkNotNull(options);
+    return list.flatMap(
+      NamedFunction.create("splitAndCollectBatches",
+        items -> WindowedCollector.collectBatches(items, batchFunction, options)))
+      .whenSuccess(list);
+  }
+
+  /**
+   * Split and collect batches with Java {@link Function}.
+   */
+  public static <A, B> Node<List<B>> splitAndCollectBatches(Node<List<A>> list,
+                                                            String name,
+                                                            Function<List<A>, Node<List<B>>> function,
+                                                            CollectOptions options) {
+    return splitAndCollectBatches(list, NamedFunction.create(name, function), options);
+  }
+
+  /**
+   * Returns the value of the current node if the condition node is evaluated as {@code true}.
+   * Otherwise, returns a node with a {@code null} value.
+   */
+  public Node<R> when(Node<Boolean> conditionNode) {
+    return ifThen(conditionNode, this);
+  }
+
+  /**
+   * Returns the value of the current node if the condition node is evaluated as {@code false}.
+   * Otherwise, returns a node with a {@code null} value.
+   */
+  public Node<R> unless(Node<Boolean> conditionNode) {
+    return ifThen(NotNode.of(conditionNode), this);
+  }
+
+  /**
+   * Returns the value of the current node if the condition node is successful. Otherwise,
+   * returns a node with a {@code null} value.
+   */
+  public Node<R> whenSuccess(Node conditionNode) {
+    return ifSuccessThen(conditionNode, this);
+  }
+
+  /**
+   * Returns the value of the other node if the current one has failed or has {@code null} value,
+   * otherwise it returns the current node.
+   */
+  public Node<R> orElse(Node<R> otherNode) {
+    return ifSuccessThenElse(this, this, otherNode);
+  }
+
+  /**
+   * Returns the value of the current node if it completes within the timeout, otherwise a node
+   * failing with a {@link java.util.concurrent.TimeoutException}, or with {@link Optional#empty()}
+   * if the current node is optional. Nodes depending on it proceed without waiting for the current
+   * node any longer.
+   */
+  public Node<R> withTimeout(Duration timeout) {
+    return new TimeoutNode<>(this, Preconditions.checkNotNull(timeout), null);
+  }
+
+  /**
+   * Returns the value of the current node if it completes within the timeout, otherwise the value
+   * of the fallback node. The fallback node is only applied on timeout.
+   */
+  public Node<R> withTimeout(Duration timeout, Node<R> fallbackNode) {
+    return new TimeoutNode<>(this, Preconditions.checkNotNull(timeout), Preconditions.checkNotNull(fallbackNode));
+  }
+
+  /**
+   * Returns the value of the current node if it completes within the timeout, otherwise the
+   * fallback value.
+   */
+  public Node<R> withTimeout(Duration timeout, R fallbackValue) {
+    return withTimeout(timeout, Node.value(fallbackValue, getName() + "_fallback"));
+  }
+
+  /**
+   * Create a predicate out of this node
+   */
+  public Node<Boolean> predicate(String name, Predicate<R> predicate) {
+    return PredicateNode.create(this, predicate, name);
+  }
+
+  public Node<Boolean> predicate(NamedPredicate<R> predicate) {
+    return PredicateNode.create(this, predicate, predicate.getName());
+  }
+
+  public Node<Boolean> isNull() {
+    return this.predicate(getName() + "_isNull", Objects::isNull);
+  }
+
+  public Node<Boolean> isNotNull() {
+    return this.predicate(getName() + "_isNotNull", Objects::nonNull);
+  }
+
+  //
+  // Convenient Helpers
+  //
+
+  /**
+   * This statically shared node represents an optional node with an empty value. Any node that
+   * depends on this node will always get {@link Optional#empty()} from emit.
+   */
+  private static final Node STEP_OPTIONAL_EMPTY = new Node("EMPTY", true, false) {
+    {
+      markShared();
+    }
+
+    @Override
+    protected CompletableFuture evaluate() {
+      return FUTURE_EMPTY;
+    }
+  };
+
+  /**
+   * Gets an {@code Node} with no contained reference.
+   */
+  public static <T> Node<Optional<T>> empty() {
+    return (Node<Optional<T>>) STEP_OPTIONAL_EMPTY;
+  }
+
+  /**
+   * Wrap a node which has an optional generic type and return an {@link Optional} wrapped value.
+   * <p>
+   * This node will always succeed, and will return {@link Optional#empty()} if the underlying node
+   * fails.
+   */
+  public static <T> Node<Optional<T>> optional(final Node<T> node) {
+    if (node == null) {
+      return empty();
+    }
+    return new OptionalNodeWrapper<>(node);
+  }
+
+  /**
+   * Create a fixed value {@code Node}.
+   *
+   * @param value value of the node
+   * @param <T>   type of the node
+   */
+  public static <T> Node<T> value(T value) {
+    return ValueNode.create(value);
+  }
+
+  /**
+   * Create a fixed value Node.
+   *
+   * @param <T>   type of the node
+   * @param value value of the node
+   * @param name  name of the node used in graph serialization
+   */
+  public static <T> Node<T> value(T value, String name) {
+    return ValueNode.create(value, name);
+  }
+
+  /**
+   * Create a node from a value supplier. The supplier will be called at most once.
+   * <p>
+   * This is only called when the value node is actually used (have its {@link #emit()} or {@link
+   * #apply()} called, not during its creation)
+   */
+  public static <T> Node<T> valueFromSupplier(Supplier<T> valueSupplier, String name) {
+    return SupplierValueNode.create(valueSupplier, name);
+  }
+
+  /**
+   * Gets a Node with a null value.
+   * <p>
+   * Any node that depends on this noValue node will not succeed.
+   */
+  public static <K> Node<K> noValue() {
+    if (ExecutionContext.current().isDebugEnabled(DebugLevel.BASIC)) {
+      return Node.value(null, "null");
+    } else {
+      // non-debug time optimization
+      return (Node<K>) NULL_NODE;
+    }
+  }
+
+  /**
+   * Create a failure node with the given exception.
+   */
+  public static <T> Node<T> fail(final Exception e) {
+    return new Node<T>() {
+      @Override
+      protected CompletableFuture<T> evaluate() throws Exception {
+        return CompletableFutures.exceptionallyCompletedFuture(e);
+      }
+    };
+  }
+
+  public static <T> PredicateSwitchNode<T> ifThenElse(Node<Boolean> predicateNode,
+                                                      Node<T> trueNode,
+                                                      Node<T> falseNode) {
+    return new PredicateSwitchNode<>(predicateNode, trueNode, falseNode);
+  }
+
+  public static <T> PredicateSwitchNode<T> ifThen(Node<Boolean> predicateNode,
+                                                  Node<T> trueNode) {
+    return new PredicateSwitchNode<>(predicateNode, trueNode, Node.noValue());
+  }
+
+  public static <T> PredicateSwitchNode<T> ifSuccessThenElse(Node testNode,
+                                                             Node<T> trueNode,
+                                                             Node<T> falseNode) {
+    return ifThenElse(IfSuccessfulNode.create(testNode), trueNode, falseNode);
+  }
+
+  public static <T> PredicateSwitchNode<T> ifSuccessThen(Node testNode,
+                                                         Node<T> trueNode) {
+    return ifThen(IfSuccessfulNode.create(testNode), trueNode);
+  }
+
+  /**
+   * Wrap a {@link CompletableFuture} object into a node.
+   */
+  public static <T> Node<T> wrapCompletableFuture(final CompletableFuture<T> future) {
+    return wrapCompletableFuture(future, "wrapCompletableFuture[" + getLastTemplateType(future.getClass()) + "]");
+  }
+
+  /**
+   * Wrap a {@link CompletableFuture} object into a node with a name.
+   */
+  public static <T> Node<T> wrapCompletableFuture(final CompletableFuture<T> future, final String name) {
+    // Create a dummy wrapping node, not optional, no dependencies or sinks
+    return new NullableNode<T>(name) {
+      @Override
+      protected CompletableFuture<T> evaluate() {
+        return future;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the values of nodes into a list or a map in a single pass.
+ * <p>
+ * Every node is applied once and its value is written into an array of the size of the input as
+ * soon as it completes. Nodes which are already complete when they are applied, like the ones
+ * evaluated inline, are read directly, without registering a callback. A single counter of the
+ * nodes which are not complete yet decides when the result is ready.
+ */
+final class NodeCollector<K, V> {
+
+  // Keys of the values, or null when collecting a list.
+  private final Object[] keys;
+  private final Object[] values;
+  // Nodes which are not complete yet, plus one while they are being applied.
+  private final AtomicInteger remaining;
+  private final CompletableFuture<Object> promise = new CompletableFuture<>();
+
+  private NodeCollector(Object[] keys, int size) {
+    this.keys = keys;
+    this.values = new Object[size];
+    this.remaining = new AtomicInteger(size + 1);
+  }
+
+  /**
+   * Applies every node of the list and collects their values, in the same order.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> CompletableFuture<List<T>> collect(List<Node<T>> nodes) {
+    NodeCollector<Void, T> collector = new NodeCollector<>(null, nodes.size());
+    int completed = 0;
+    int index = 0;
+    for (Node<T> node : nodes) {
+      if (collector.apply(index++, node)) {
+        completed++;
+      }
+    }
+    return (CompletableFuture<List<T>>) (CompletableFuture<?>) collector.applied(completed);
+  }
+
+  /**
+   * Applies every node of the map and collects their values under the same keys.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> CompletableFuture<Map<K, V>> collect(Map<K, Node<V>> nodes) {
+    Object[] keys = new Object[nodes.size()];
+    NodeCollector<K, V> collector = new NodeCollector<>(keys, nodes.size());
+    int completed = 0;
+    int index = 0;
+    for (Map.Entry<K, Node<V>> entry : nodes.entrySet()) {
+      keys[index] = entry.getKey();
+      if (collector.apply(index++, entry.getValue())) {
+        completed++;
+      }
+    }
+    return (CompletableFuture<Map<K, V>>) (CompletableFuture<?>) collector.applied(completed);
+  }
+
+  /**
+   * Applies the node and stores its value if it is already complete.
+   *
+   * @return {@code true} if the value was stored, {@code false} if it will be when the node
+   * completes
+   */
+  private boolean apply(int index, Node<V> node) {
+    CompletableFuture<V> future = node.apply();
+    if (future.isDone() && !future.isCompletedExceptionally()) {
+      values[index] = future.join();
+      return true;
+    }
+    future.whenComplete((value, throwable) -> {
+      if (throwable != null) {
+        promise.completeExceptionally(throwable);
+      } else {
+        values[index] = value;
+        completed(1);
+      }
+    });
+    return false;
+  }
+
+  /**
+   * Called once all nodes are applied, with the number of them which were already complete.
+   */
+  private CompletableFuture<Object> applied(int completed) {
+    completed(completed + 1);
+    return promise;
+  }
+
+  private void completed(int count) {
+    // the decrement publishes the values written before it to the thread completing the promise
+    if (remaining.addAndGet(-count) == 0) {
+      promise.complete(keys == null ? new ArrayList<>(Arrays.asList(values)) : toMap());
+    }
+  }
+
+  private Map<Object, Object> toMap() {
+    Map<Object, Object> map = new HashMap<>((int) (values.length / 0.75f) + 1);
+    for (int i = 0; i < values.length; i++) {
+      map.put(keys[i], values[i]);
+    }
+    return map;
+  }
+}
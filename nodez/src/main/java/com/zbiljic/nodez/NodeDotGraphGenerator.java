@@ -18,11 +18,14 @@ package com.zbiljic.nodez;
 import com.zbiljic.nodez.utils.Pair;
 
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,8 +35,8 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
- * Create DOT graph text for a node. This recursively traverses the node dependencies and create the
- * node dependency graph.
+ * Create DOT graph text for a node. This traverses the node dependencies and create the node
+ * dependency graph.
  * <p>
  * <ul> <li><a href="http://www.graphviz.org/Documentation.php">http://www.graphviz.org/Documentation.php</a></li>
  * <li><a href="http://en.wikipedia.org/wiki/DOT_(graph_description_language)">http://en.wikipedia.org/wiki/DOT_(graph_description_language)</a></li>
@@ -179,7 +182,7 @@ public final class NodeDotGraphGenerator {
     sb.append("digraph G {\n");
     sb.append(DEFAULT_PROPERTIES);
 
-    // Extract all node graph information recursively.
+    // Extract all node graph information.
     Map<String, NodeInfo> nodeInfoMap = new LinkedHashMap<>();
 
     GraphContext context = new GraphContext();
@@ -222,8 +225,8 @@ public final class NodeDotGraphGenerator {
   }
 
   /**
-   * A class to store the context information while we recursively traverse the node dependency
-   * tree, currently it has only {@code keyId} info.
+   * A class to store the context information while we traverse the node dependency tree,
+   * currently it has only {@code keyId} info.
    * <p>
    * TODO: add subgraph cluster support.
    */
@@ -250,9 +253,11 @@ public final class NodeDotGraphGenerator {
   }
 
   /**
-   * A recursive function to extract node information into nodeInfoMap.
+   * Extract information of the node and all of its dependencies into nodeInfoMap. The graph is
+   * traversed depth first with an explicit stack, so very deep graphs don't overflow the thread
+   * stack. Keys are assigned in the order nodes are first visited.
    *
-   * @return a pair of NodeInfo for current node, and an integer, which is the next keyId to use.
+   * @return NodeInfo for the given node
    */
   private static NodeInfo extractNodeInfo(Node node, Map<String, NodeInfo> nodeInfoMap, GraphContext context) {
 
@@ -262,29 +267,64 @@ public final class NodeDotGraphGenerator {
       return seenInfo;
     }
 
-    NodeInfo info = new NodeInfo("n" + context.getKeyIdAndInc(), node);
-    nodeInfoMap.put(info.keyName, info);  // put into the map first
+    Deque<ExtractFrame> stack = new ArrayDeque<>();
+    ExtractFrame root = new ExtractFrame(node, nodeInfoMap, context);
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      ExtractFrame frame = stack.peek();
+      if (frame.dependencies.hasNext()) {
+        Map.Entry<String, Node> depEntry = frame.dependencies.next();
+        Node unwrappedNode = unwrapOptional(depEntry.getValue());
+        NodeInfo depNodeInfo = context.getNodeInfo(unwrappedNode);
+        if (depNodeInfo != null) {
+          frame.addDependency(depEntry, depNodeInfo);
+        } else {
+          // get information for the dependency first, it is added to this node once done
+          frame.pendingDependency = depEntry;
+          stack.push(new ExtractFrame(unwrappedNode, nodeInfoMap, context));
+        }
+      } else {
+        stack.pop();
+        context.updateNodeInfo(frame.info.node, frame.info);
+        ExtractFrame parent = stack.peek();
+        if (parent != null) {
+          parent.addDependency(parent.pendingDependency, frame.info);
+        }
+      }
+    }
+    return root.info;
+  }
 
-    Node baseNode = unwrapOptional(node);
+  /**
+   * A node being visited by {@link #extractNodeInfo}, with its dependencies left to visit.
+   */
+  private static final class ExtractFrame {
+
+    final NodeInfo info;
+    final Iterator<Map.Entry<String, Node>> dependencies;
+    final Set<String> optionalDeps;
+    Map.Entry<String, Node> pendingDependency;
+
+    ExtractFrame(Node node, Map<String, NodeInfo> nodeInfoMap, GraphContext context) {
+      this.info = new NodeInfo("n" + context.getKeyIdAndInc(), node);
+      nodeInfoMap.put(info.keyName, info);  // put into the map first
 
-    // create dependency map, some dependencies are special and need to be added specially
-    Map<String, Node> depsByStr = baseNode.getInputsByName();
+      Node baseNode = unwrapOptional(node);
+
+      // create dependency map, some dependencies are special and need to be added specially
+      Map<String, Node> depsByStr = baseNode.getInputsByName();
+      this.dependencies = depsByStr.entrySet().iterator();
+
+      Set<? extends Enum> depEnums = node.getOptionalDependencies();
+      this.optionalDeps = depEnums.stream().map(e -> e.name()).collect(Collectors.toSet());
+    }
 
-    // Add all dependencies and semi-dependencies to the NodeInfo map.
-    Set<? extends Enum> depEnums = node.getOptionalDependencies();
-    Set<String> optionalDeps = depEnums.stream().map(e -> e.name()).collect(Collectors.toSet());
-    for (Map.Entry<String, Node> depEntry : depsByStr.entrySet()) {
-      Node dep = depEntry.getValue();
-      // Recursively get information for all dependencies
-      Node unwrappedNode = unwrapOptional(dep);
-      NodeInfo depNodeInfo = extractNodeInfo(unwrappedNode, nodeInfoMap, context);
+    void addDependency(Map.Entry<String, Node> depEntry, NodeInfo depNodeInfo) {
       EdgeInfo edgeInfo = new EdgeInfo(
-        optionalDeps.contains(depEntry.getKey()) || dep.isOptional(),
+        optionalDeps.contains(depEntry.getKey()) || depEntry.getValue().isOptional(),
         depEntry.getKey());
       info.depInfo.put(depEntry.getKey(), Pair.of(depNodeInfo, edgeInfo));
     }
-    context.updateNodeInfo(node, info);
-    return info;
   }
 
   private static final Pattern CLASS_NAME_PATTERN =
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.utils.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Metadata of node classes, dependency enums and subgraphs. Everything is computed once per class
+ * and cached in a {@link ClassValue}, so building nodes does no reflection after the first node of
+ * each class.
+ * <p>
+ * Metadata {@link GeneratedMetadata generated at compile time} is used when present, otherwise it
+ * is found with reflection.
+ */
+final class NodeMetadata {
+
+  private NodeMetadata() { /* No instance methods */ }
+
+  private static final MethodType DEFAULT_CONSTRUCTOR = MethodType.methodType(void.class);
+  private static final MethodType NODE_FACTORY = MethodType.methodType(Node.class);
+
+  private static final Logger log = LoggerFactory.getLogger(NodeMetadata.class);
+
+  private static final ClassValue<Set<Enum>> OPTIONAL_DEPENDENCIES = new ClassValue<Set<Enum>>() {
+    @Override
+    protected Set<Enum> computeValue(Class<?> type) {
+      GeneratedMetadata.DependencyEnum generated = findGenerated(type, GeneratedMetadata.DependencyEnum.class);
+      return generated != null
+        ? fromMask((Class<? extends Enum>) type, generated.optionalDependencyMask())
+        : findOptionalDependencies((Class<? extends Enum>) type);
+    }
+  };
+
+  private static final ClassValue<Integer> ENUM_SIZES = new ClassValue<Integer>() {
+    @Override
+    protected Integer computeValue(Class<?> type) {
+      return type.getEnumConstants().length;
+    }
+  };
+
+  private static final ClassValue<String> LAST_TEMPLATE_TYPES = new ClassValue<String>() {
+    @Override
+    protected String computeValue(Class<?> type) {
+      return findLastTemplateType(type);
+    }
+  };
+
+  private static final ClassValue<GeneratedMetadata.NodeFactory> FACTORIES = new ClassValue<GeneratedMetadata.NodeFactory>() {
+    @Override
+    protected GeneratedMetadata.NodeFactory computeValue(Class<?> type) {
+      GeneratedMetadata.NodeFactory generated = findGenerated(type, GeneratedMetadata.NodeFactory.class);
+      return generated != null
+        ? generated
+        : findConstructor(type);
+    }
+  };
+
+  private static final ClassValue<GeneratedMetadata.ExposedNodes> EXPOSED_NODES = new ClassValue<GeneratedMetadata.ExposedNodes>() {
+    @Override
+    protected GeneratedMetadata.ExposedNodes computeValue(Class<?> type) {
+      GeneratedMetadata.ExposedNodes generated = findGenerated(type, GeneratedMetadata.ExposedNodes.class);
+      return generated != null
+        ? generated
+        : findExposedNodes(type);
+    }
+  };
+
+  /**
+   * Returns the constants of the enum which are annotated with {@link OptionalDep}. The returned
+   * set is shared and cannot be modified.
+   */
+  static Set<Enum> getOptionalDependencies(Class<? extends Enum> enumClass) {
+    return OPTIONAL_DEPENDENCIES.get(enumClass);
+  }
+
+  /**
+   * Returns the number of constants of the enum, without copying them like {@link
+   * Class#getEnumConstants()} does.
+   */
+  static int getEnumSize(Class<? extends Enum> enumClass) {
+    return ENUM_SIZES.get(enumClass);
+  }
+
+  /**
+   * Returns the last type argument of the generic superclass of the class, or an empty string if it
+   * has none.
+   */
+  static String getLastTemplateType(Class<?> clazz) {
+    return LAST_TEMPLATE_TYPES.get(clazz);
+  }
+
+  /**
+   * Create an instance of the node class with its default constructor.
+   */
+  static <T> Node<T> newInstance(Class<? extends Node<T>> nodeClass) {
+    return (Node<T>) FACTORIES.get(nodeClass).newInstance();
+  }
+
+  /**
+   * Returns the values of the public node fields declared by the class of the subgraph.
+   */
+  static List<Node> getExposedNodes(Subgraph subgraph) {
+    return EXPOSED_NODES.get(subgraph.getClass()).getExposedNodes(subgraph);
+  }
+
+  /**
+   * Returns an instance of the metadata generated for the class, or null if there is none.
+   */
+  @Nullable
+  private static <T> T findGenerated(Class<?> type, Class<T> metadataType) {
+    Class<?> generated;
+    try {
+      generated = Class.forName(type.getName() + GeneratedMetadata.CLASS_NAME_SUFFIX, true, type.getClassLoader());
+    } catch (ClassNotFoundException | LinkageError e) {
+      return null;
+    }
+    if (!metadataType.isAssignableFrom(generated)) {
+      return null;
+    }
+    try {
+      return metadataType.cast(generated.getConstructor().newInstance());
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Set<Enum> fromMask(Class<? extends Enum> enumClass, long mask) {
+    EnumSet optionalEnumSet = EnumSet.noneOf(enumClass);
+    for (Enum item : enumClass.getEnumConstants()) {
+      if ((mask & (1L << item.ordinal())) != 0) {
+        optionalEnumSet.add(item);
+      }
+    }
+    return Collections.unmodifiableSet(optionalEnumSet);
+  }
+
+  private static GeneratedMetadata.NodeFactory findConstructor(Class<?> type) {
+    MethodHandle constructor;
+    try {
+      constructor = MethodHandles.lookup()
+        .findConstructor(type, DEFAULT_CONSTRUCTOR)
+        .asType(NODE_FACTORY);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(
+        String.format(
+          "Cannot create instance for Node [%s], make sure it has a default constructor",
+          type.getSimpleName()), e);
+    }
+    return () -> {
+      try {
+        return (Node<?>) constructor.invokeExact();
+      } catch (Throwable t) {
+        Throwables.throwIfUnchecked(t);
+        throw new RuntimeException(t);
+      }
+    };
+  }
+
+  private static GeneratedMetadata.ExposedNodes findExposedNodes(Class<?> type) {
+    List<Field> exposedFields = new ArrayList<>();
+    for (Field f : type.getDeclaredFields()) {
+      if (Modifier.isPublic(f.getModifiers()) && Node.class.isAssignableFrom(f.getType())) {
+        exposedFields.add(f);
+      }
+    }
+    return subgraph -> {
+      List<Node> nodes = new ArrayList<>(exposedFields.size());
+      for (Field f : exposedFields) {
+        try {
+          nodes.add((Node) f.get(subgraph));
+        } catch (IllegalAccessException e) {
+          log.warn("Cannot access field [{}] in subgraph {}", f.getName(), type.getSimpleName());
+        }
+      }
+      return nodes;
+    };
+  }
+
+  private static Set<Enum> findOptionalDependencies(Class<? extends Enum> enumClass) {
+    EnumSet optionalEnumSet = EnumSet.noneOf(enumClass);
+    try {
+      for (Enum item : enumClass.getEnumConstants()) {
+        if (enumClass.getField(item.name()).isAnnotationPresent(OptionalDep.class)) {
+          optionalEnumSet.add(item);
+        }
+      }
+    } catch (NoSuchFieldException e) {
+      throw new RuntimeException(e);
+    }
+    return Collections.unmodifiableSet(optionalEnumSet);
+  }
+
+  private static String findLastTemplateType(Class<?> clazz) {
+    Type t = clazz.getGenericSuperclass();
+    if (t instanceof ParameterizedType) {
+      Type[] argTypes = ((ParameterizedType) t).getActualTypeArguments();
+      if (argTypes.length > 0) {
+        return argTypes[argTypes.length - 1].toString();
+      }
+    }
+    return "";
+  }
+}
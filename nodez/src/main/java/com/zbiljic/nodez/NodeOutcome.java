@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+/**
+ * How the evaluation of a node ended.
+ */
+public enum NodeOutcome {
+
+  /**
+   * The node completed with a non-null value.
+   */
+  SUCCESS,
+
+  /**
+   * The node completed with {@code null}, which it is allowed to emit.
+   */
+  NULL,
+
+  /**
+   * The node failed, either in {@link Node#evaluate()} or because one of its dependencies failed.
+   */
+  FAILURE,
+
+  /**
+   * The node was not evaluated because its decider was off for the request.
+   */
+  DECIDED_OFF,
+
+  /**
+   * The node is optional and completed empty because it failed.
+   */
+  OPTIONAL_EMPTY,
+
+  /**
+   * The node was cancelled while the future returned by {@link Node#evaluate()} was in flight, which
+   * was abandoned.
+   */
+  CANCELLED,
+
+  /**
+   * The node was cancelled before {@link Node#evaluate()} was called, so its evaluation is saved.
+   */
+  CANCELLED_BEFORE_EVALUATION
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Promise of a node in one execution, which propagates cancellation through the graph.
+ * <p>
+ * Cancelling the promise stops the work of the node: it is not evaluated if it was not yet, the
+ * future returned by {@link Node#evaluate()} is cancelled if it is still in flight, and the
+ * dependencies the node applied are released. Every node applying a dependency retains its
+ * promise, and a dependency is cancelled in turn once all of the nodes which retained it released
+ * it, so dependencies shared with nodes which are not cancelled keep running.
+ * <p>
+ * Only promises which are still pending are retained and released, as cancelling a completed
+ * promise has no effect anyway. Promises of {@link Node#isShared() shared} nodes are never
+ * retained, released or cancelled: they are used by all executions in the process, while only the
+ * first one to apply them would count as their dependent.
+ * <p>
+ * The node and the context of the promise are provided by subclasses, which know them without
+ * keeping them in additional fields, as there is a promise for every node in every execution.
+ *
+ * @param <T> return type of the node
+ */
+abstract class NodePromise<T> extends CompletableFuture<T> {
+
+  // The low bits of the state field hold one of the DEPENDENCIES_* constants, for the dependencies
+  // of the node, the others the number of dependents which retained this promise and did not
+  // release it yet, in units of ONE_DEPENDENT.
+  private static final int DEPENDENCIES_NONE = 0;
+  private static final int DEPENDENCIES_RETAINED = 1;
+  private static final int DEPENDENCIES_RELEASED = 2;
+  private static final int DEPENDENCIES_MASK = 3;
+  private static final int ONE_DEPENDENT = 4;
+
+  // Value of the evaluation field once the work of the node is stopped.
+  private static final Object STOPPED = new Object();
+
+  private static final AtomicIntegerFieldUpdater<NodePromise> STATE =
+    AtomicIntegerFieldUpdater.newUpdater(NodePromise.class, "state");
+  private static final AtomicReferenceFieldUpdater<NodePromise, Object> EVALUATION =
+    AtomicReferenceFieldUpdater.newUpdater(NodePromise.class, Object.class, "evaluation");
+
+  private volatile int state = DEPENDENCIES_NONE;
+  // The future returned by evaluate() while it is in flight, or STOPPED.
+  @Nullable
+  private volatile Object evaluation;
+
+  /**
+   * Returns the node this is the promise of.
+   */
+  abstract Node<T> node();
+
+  /**
+   * Returns the context the node is applied with, once it is.
+   */
+  @Nullable
+  abstract ExecutionContext context();
+
+  /**
+   * Retain the given dependency future, if it is a pending promise of a node.
+   */
+  static void retain(CompletableFuture<?> future) {
+    if (future instanceof NodePromise && !future.isDone() && !((NodePromise) future).isShared()) {
+      STATE.addAndGet((NodePromise) future, ONE_DEPENDENT);
+    }
+  }
+
+  /**
+   * Release the given dependency future retained before, cancelling it if it is a pending promise
+   * of a node and this was its last dependent.
+   */
+  static void release(CompletableFuture<?> future) {
+    if (future instanceof NodePromise && !future.isDone() && !((NodePromise) future).isShared()
+        && STATE.addAndGet((NodePromise) future, -ONE_DEPENDENT) < ONE_DEPENDENT) {
+      future.cancel(false);
+    }
+  }
+
+  /**
+   * Called once the dependencies of the node are applied and retained.
+   *
+   * @return {@code false} if the work of the node was stopped meanwhile, in which case the caller
+   * releases the dependencies
+   */
+  boolean dependenciesRetained() {
+    for (; ; ) {
+      int current = state;
+      if ((current & DEPENDENCIES_MASK) != DEPENDENCIES_NONE) {
+        return false;
+      }
+      if (STATE.compareAndSet(this, current, current | DEPENDENCIES_RETAINED)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Called with the future returned by {@link Node#evaluate()} while it is in flight, so it can be
+   * cancelled with the promise. A promise of another node is retained instead.
+   */
+  void evaluating(CompletableFuture<?> future) {
+    retain(future);
+    if (!EVALUATION.compareAndSet(this, null, future)) {
+      // stopped meanwhile
+      cancelEvaluation(future);
+    }
+  }
+
+  /**
+   * Cancels a future returned by {@link Node#evaluate()}, or releases it if it is a promise of
+   * another node, retained by {@link #evaluating}.
+   */
+  static void cancelEvaluation(CompletableFuture<?> future) {
+    if (future instanceof NodePromise) {
+      release(future);
+    } else {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Stops the work of the node for this promise, which completes without it: cancels the future
+   * returned by {@link Node#evaluate()} and releases the dependencies.
+   */
+  void stop() {
+    Object future = EVALUATION.getAndSet(this, STOPPED);
+    if (future instanceof CompletableFuture) {
+      cancelEvaluation((CompletableFuture<?>) future);
+    }
+    int current;
+    do {
+      current = state;
+    } while (!STATE.compareAndSet(this, current,
+      (current & ~DEPENDENCIES_MASK) | DEPENDENCIES_RELEASED));
+    ExecutionContext context = context();
+    if ((current & DEPENDENCIES_MASK) == DEPENDENCIES_RETAINED && context != null) {
+      node().releaseDependencies(context);
+    }
+  }
+
+  /**
+   * Check if this is the promise of a {@link Node#isShared() shared} node, which is used by all
+   * executions, so it is not retained, released or cancelled for any one of them.
+   */
+  boolean isShared() {
+    return false;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (isShared()) {
+      return isCancelled();
+    }
+    // the same as CompletableFuture.cancel(), but through completeExceptionally() so subclasses
+    // see the completion
+    boolean cancelled = completeExceptionally(new CancellationException());
+    if (cancelled) {
+      stop();
+    }
+    return cancelled || isCancelled();
+  }
+
+  /**
+   * Promise of a node applied outside of a {@link GraphPlan}, which is kept by the node itself.
+   */
+  static final class OfNode<T> extends NodePromise<T> {
+
+    private final Node<T> node;
+
+    OfNode(Node<T> node) {
+      this.node = node;
+    }
+
+    @Override
+    Node<T> node() {
+      return node;
+    }
+
+    @Override
+    boolean isShared() {
+      return node.isShared();
+    }
+
+    @Nullable
+    @Override
+    ExecutionContext context() {
+      return node.getExecutionContext();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing of one evaluation of a node, recorded when the graph is applied with an {@link
+ * ExecutionContext} that has {@link ExecutionContext.Builder#withTiming(boolean) timing} enabled.
+ * <p>
+ * All times are in nanoseconds of the timing clock of the context ({@link System#nanoTime()} by
+ * default) and are only meaningful relative to each other. The phases of an evaluation follow each
+ * other:
+ * <ol>
+ * <li>{@linkplain #getDependencyWaitNanos() waiting on dependencies}, from applying the node until
+ * all dependencies are complete;</li>
+ * <li>{@linkplain #getQueueWaitNanos() waiting in the queue} of the executor until {@link
+ * Node#evaluate()} is called, which is zero for nodes evaluated inline;</li>
+ * <li>{@linkplain #getEvaluateNanos() evaluating}, the time spent in {@code evaluate()}
+ * itself;</li>
+ * <li>{@linkplain #getCompletionNanos() completing}, until the future returned by {@code
+ * evaluate()} completes.</li>
+ * </ol>
+ * If a dependency failed, {@code evaluate()} is not called and only the first and the last phase
+ * take time.
+ */
+public final class NodeTiming {
+
+  private final long appliedNanos;
+  private final long readyNanos;
+  private final long evaluateStartNanos;
+  private final long evaluateStopNanos;
+  private final long completedNanos;
+
+  NodeTiming(long appliedNanos,
+             long readyNanos,
+             long evaluateStartNanos,
+             long evaluateStopNanos,
+             long completedNanos) {
+    this.appliedNanos = appliedNanos;
+    this.readyNanos = readyNanos;
+    this.evaluateStartNanos = evaluateStartNanos;
+    this.evaluateStopNanos = evaluateStopNanos;
+    this.completedNanos = completedNanos;
+  }
+
+  /**
+   * Returns when the node was applied.
+   */
+  public long getAppliedNanos() {
+    return appliedNanos;
+  }
+
+  /**
+   * Returns when all dependencies of the node were complete.
+   */
+  public long getReadyNanos() {
+    return readyNanos;
+  }
+
+  /**
+   * Returns when {@link Node#evaluate()} was called, or when the node became ready if it was not.
+   */
+  public long getEvaluateStartNanos() {
+    return evaluateStartNanos;
+  }
+
+  /**
+   * Returns when {@link Node#evaluate()} returned, or when the node became ready if it was not
+   * called.
+   */
+  public long getEvaluateStopNanos() {
+    return evaluateStopNanos;
+  }
+
+  /**
+   * Returns when the node completed.
+   */
+  public long getCompletedNanos() {
+    return completedNanos;
+  }
+
+  public long getDependencyWaitNanos() {
+    return readyNanos - appliedNanos;
+  }
+
+  public long getQueueWaitNanos() {
+    return evaluateStartNanos - readyNanos;
+  }
+
+  public long getEvaluateNanos() {
+    return evaluateStopNanos - evaluateStartNanos;
+  }
+
+  public long getCompletionNanos() {
+    return completedNanos - evaluateStopNanos;
+  }
+
+  public long getTotalNanos() {
+    return completedNanos - appliedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("NodeTiming{dependencyWait=%s, queueWait=%s, evaluate=%s, completion=%s}",
+      formatMicros(getDependencyWaitNanos()),
+      formatMicros(getQueueWaitNanos()),
+      formatMicros(getEvaluateNanos()),
+      formatMicros(getCompletionNanos()));
+  }
+
+  private static String formatMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+  }
+}
@@ -37,6 +37,11 @@ public class NotNode extends Node<Boolean> {
     this.node = node;
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected final CompletableFuture<Boolean> evaluate() {
     return CompletableFuture.completedFuture(!node.emit());
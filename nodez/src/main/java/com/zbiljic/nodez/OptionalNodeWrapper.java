@@ -38,6 +38,11 @@ final class OptionalNodeWrapper<T> extends Node<Optional<T>> {
     return wrappedNode;
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected CompletableFuture<Optional<T>> evaluate() {
     T emitted = wrappedNode.emit();
@@ -53,6 +53,21 @@ final class Preconditions {
     }
   }
 
+  /**
+   * Ensures the truth of an expression involving one or more parameters to the calling method.
+   * <p>
+   * See {@link #checkArgument(boolean, String, Object...)} for details, this overload avoids the
+   * allocation of a varargs array on every call.
+   */
+  public static void checkArgument(
+    boolean expression,
+    @Nullable String errorMessageTemplate,
+    @Nullable Object errorMessageArg) {
+    if (!expression) {
+      throw new IllegalArgumentException(format(errorMessageTemplate, errorMessageArg));
+    }
+  }
+
   /**
    * Ensures the truth of an expression involving the state of the calling instance, but not
    * involving any parameters to the calling method.
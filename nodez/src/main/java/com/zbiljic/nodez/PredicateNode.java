@@ -60,6 +60,11 @@ public class PredicateNode<SourceType> extends Node<Boolean> {
     this.predicate = Preconditions.checkNotNull(predicate);
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected CompletableFuture<Boolean> evaluate() throws Exception {
     SourceType sourceValue = sourceNode.emit();
@@ -65,6 +65,11 @@ public class PredicateSwitchNode<R> extends Node<R> {
     return this.trueNode.getResponseClassName();
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected final CompletableFuture<R> evaluate() throws Exception {
     return predicateNode.emit()
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed thread pool which runs the nodes with the least slack first when it is saturated.
+ * <p>
+ * Nodes of a {@link GraphPlan} are submitted with the {@linkplain GraphPlan#getPriority(Node)
+ * priority} the plan computed from its static shape: the estimated time from the start of the node
+ * until the root completes, the longest path to the root weighted with evaluation time estimates.
+ * The node with the most work still ahead of it has the least slack and is taken from the queue
+ * first. Other tasks, including nodes applied without a plan, have no priority and run in FIFO
+ * order.
+ * <p>
+ * Priorities move tasks ahead in the queue by at most {@code maxBoost}: a task is ordered as if it
+ * was submitted its priority earlier, capped at {@code maxBoost}. So no task waits behind tasks
+ * submitted more than {@code maxBoost} after it, which keeps low priority nodes from starving when
+ * the pool is overloaded.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * PriorityExecutor executor = new PriorityExecutor(8, 50, TimeUnit.MILLISECONDS);
+ * ExecutionContext context = ExecutionContext.builder()
+ *   .withExecutor(executor)
+ *   .build();
+ * plan.execute(context);
+ * }</pre>
+ */
+public final class PriorityExecutor implements Executor {
+
+  private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+  private static final int INITIAL_QUEUE_CAPACITY = 64;
+
+  private final ThreadPoolExecutor pool;
+  private final long maxBoostNanos;
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * Create a pool with the given number of daemon threads.
+   *
+   * @param threads  number of threads
+   * @param maxBoost the most a task can be moved ahead of tasks submitted before it
+   * @param unit     unit of {@code maxBoost}
+   */
+  public PriorityExecutor(int threads, long maxBoost, TimeUnit unit) {
+    Preconditions.checkArgument(threads > 0, "Number of threads must be positive: %s", threads);
+    Preconditions.checkArgument(maxBoost >= 0, "Max boost cannot be negative: %s", maxBoost);
+    this.maxBoostNanos = unit.toNanos(maxBoost);
+    this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+      new PriorityBlockingQueue<>(INITIAL_QUEUE_CAPACITY, PriorityExecutor::compare),
+      new DaemonThreadFactory());
+  }
+
+  /**
+   * Run the command with no priority.
+   */
+  @Override
+  public void execute(Runnable command) {
+    execute(command, 0);
+  }
+
+  /**
+   * Run the command with the given priority, in nanoseconds of estimated work ahead of it.
+   */
+  public void execute(Runnable command, long priorityNanos) {
+    Preconditions.checkNotNull(command, "command");
+    long boost = Math.min(Math.max(priorityNanos, 0), maxBoostNanos);
+    pool.execute(new Task(command, System.nanoTime() - boost, sequence.getAndIncrement()));
+  }
+
+  /**
+   * Returns an executor submitting to this one with the given priority.
+   */
+  Executor withPriority(long priorityNanos) {
+    return command -> execute(command, priorityNanos);
+  }
+
+  /**
+   * Returns the number of tasks waiting for a thread.
+   */
+  public int getQueueSize() {
+    return pool.getQueue().size();
+  }
+
+  /**
+   * Stop accepting tasks, tasks already submitted still run.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return pool.awaitTermination(timeout, unit);
+  }
+
+  /**
+   * Orders queued tasks by their boosted submission time and then by submission order. The queue
+   * only ever holds {@link Task}s.
+   */
+  private static int compare(Runnable first, Runnable second) {
+    Task task = (Task) first;
+    Task other = (Task) second;
+    // nanoTime values are compared by their difference, they may overflow
+    long difference = task.orderNanos - other.orderNanos;
+    if (difference != 0) {
+      return difference < 0 ? -1 : 1;
+    }
+    return Long.compare(task.sequence, other.sequence);
+  }
+
+  /**
+   * A queued command.
+   */
+  private static final class Task implements Runnable {
+
+    private final Runnable command;
+    private final long orderNanos;
+    private final long sequence;
+
+    Task(Runnable command, long orderNanos, long sequence) {
+      this.command = command;
+      this.orderNanos = orderNanos;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public void run() {
+      command.run();
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix = "nodez-priority-" + POOL_NUMBER.incrementAndGet() + "-";
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Policy of nodes {@link Node#retrying(RetryPolicy) retrying} their evaluation, which decides if
+ * and when a failed evaluation is retried, and keeps the statistics of the retries.
+ * <p>
+ * A failed evaluation is retried up to {@link Builder#withMaxRetries(int) max retries} times,
+ * after a backoff which starts at the {@link Builder#withInitialBackoff(Duration) initial backoff}
+ * and is multiplied by the {@link Builder#withMultiplier(double) multiplier} for every retry, up to
+ * the {@link Builder#withMaxBackoff(Duration) max backoff}. A random part of the backoff, given by
+ * the {@link Builder#withJitter(double) jitter}, is left out, so evaluations which failed at the
+ * same time are not retried at the same time.
+ * <p>
+ * The number of retries is limited by a {@link Builder#withMaxExtraLoad(double) budget}: every
+ * evaluation earns the given fraction of a retry, and a retry is only made if a whole one was
+ * earned. Unused retries are saved up to {@value #MAX_SAVED_RETRIES}, which are also available from
+ * the start, so occasional failures are retried. When a backend fails for all calls, the calls are
+ * only retried that much more, instead of multiplying the load on the backend by the number of
+ * retries.
+ * <p>
+ * The budget and the statistics are kept by the policy, and are shared by all nodes using it,
+ * which usually call the same backend. Updating them is lock-free.
+ */
+public final class RetryPolicy {
+
+  /**
+   * Number of retries the budget can save up.
+   */
+  public static final int MAX_SAVED_RETRIES = 10;
+
+  private final int maxRetries;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final double multiplier;
+  private final double jitter;
+  private final double maxExtraLoad;
+  private final Predicate<Throwable> retryOn;
+  private final LoadBudget budget;
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder rejectedRetries = new LongAdder();
+
+  private RetryPolicy(Builder builder) {
+    this.maxRetries = builder.maxRetries;
+    this.initialBackoffNanos = builder.initialBackoffNanos;
+    this.maxBackoffNanos = Math.max(builder.maxBackoffNanos, builder.initialBackoffNanos);
+    this.multiplier = builder.multiplier;
+    this.jitter = builder.jitter;
+    this.maxExtraLoad = builder.maxExtraLoad;
+    this.retryOn = builder.retryOn;
+    this.budget = new LoadBudget(builder.maxExtraLoad, MAX_SAVED_RETRIES, MAX_SAVED_RETRIES);
+  }
+
+  /**
+   * Returns how many times a failed evaluation is retried at most.
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Returns the backoff before the first retry, without jitter.
+   */
+  public Duration getInitialBackoff() {
+    return Duration.ofNanos(initialBackoffNanos);
+  }
+
+  /**
+   * Returns the longest backoff before a retry, without jitter.
+   */
+  public Duration getMaxBackoff() {
+    return Duration.ofNanos(maxBackoffNanos);
+  }
+
+  /**
+   * Returns the fraction of evaluations which can be retried.
+   */
+  public double getMaxExtraLoad() {
+    return maxExtraLoad;
+  }
+
+  /**
+   * Returns the number of evaluations made with this policy, not counting retries.
+   */
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  /**
+   * Returns the number of retries made.
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * Returns the number of retries which were not made, because the budget was exhausted.
+   */
+  public long getRejectedRetries() {
+    return rejectedRetries.sum();
+  }
+
+  /**
+   * Called when an evaluation starts, earns its part of the budget.
+   */
+  void onCall() {
+    calls.increment();
+    budget.deposit();
+  }
+
+  /**
+   * Check if the failure of the given retry is retried at all, not counting the budget.
+   *
+   * @param retry   number of the retry, starting from zero for the first one
+   * @param failure failure of the previous evaluation, unwrapped
+   */
+  boolean isRetryable(int retry, Throwable failure) {
+    return retry < maxRetries
+      && !(failure instanceof CancellationException)
+      && retryOn.test(failure);
+  }
+
+  /**
+   * Returns the backoff before the given retry, with jitter.
+   *
+   * @param retry number of the retry, starting from zero for the first one
+   */
+  long backoffNanos(int retry) {
+    double backoff = initialBackoffNanos * Math.pow(multiplier, retry);
+    long nanos = backoff < maxBackoffNanos
+      ? (long) backoff
+      : maxBackoffNanos;
+    return jitter > 0
+      ? nanos - (long) (nanos * jitter * ThreadLocalRandom.current().nextDouble())
+      : nanos;
+  }
+
+  /**
+   * Called before a retry, takes it from the budget.
+   *
+   * @return {@code true} if the retry is made, {@code false} if the budget is exhausted
+   */
+  boolean tryRetry() {
+    if (!budget.tryWithdraw()) {
+      rejectedRetries.increment();
+      return false;
+    }
+    retries.increment();
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "RetryPolicy{"
+      + "maxRetries=" + maxRetries
+      + ", initialBackoff=" + getInitialBackoff()
+      + ", maxBackoff=" + getMaxBackoff()
+      + ", multiplier=" + multiplier
+      + ", jitter=" + jitter
+      + ", maxExtraLoad=" + maxExtraLoad
+      + '}';
+  }
+
+  //
+  // Builder
+  //
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link RetryPolicy}.
+   */
+  public static final class Builder {
+
+    private int maxRetries = 3;
+    private long initialBackoffNanos = Duration.ofMillis(10).toNanos();
+    private long maxBackoffNanos = Duration.ofSeconds(1).toNanos();
+    private double multiplier = 2;
+    private double jitter = 0.5;
+    private double maxExtraLoad = 0.1;
+    private Predicate<Throwable> retryOn = failure -> true;
+
+    private Builder() {
+    }
+
+    /**
+     * Set how many times a failed evaluation is retried at most; 3 by default.
+     */
+    public Builder withMaxRetries(int maxRetries) {
+      Preconditions.checkArgument(maxRetries >= 0, "Negative max retries: %s", maxRetries);
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * Set the backoff before the first retry; 10 milliseconds by default.
+     */
+    public Builder withInitialBackoff(Duration initialBackoff) {
+      this.initialBackoffNanos = toNanos(initialBackoff);
+      return this;
+    }
+
+    /**
+     * Set the longest backoff before a retry; 1 second by default.
+     */
+    public Builder withMaxBackoff(Duration maxBackoff) {
+      this.maxBackoffNanos = toNanos(maxBackoff);
+      return this;
+    }
+
+    /**
+     * Set the factor the backoff is multiplied by for every retry; 2 by default.
+     */
+    public Builder withMultiplier(double multiplier) {
+      Preconditions.checkArgument(multiplier >= 1, "Multiplier must be at least 1: %s", multiplier);
+      this.multiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * Set the fraction of the backoff which is left out at random, between 0 for no jitter and 1
+     * for a backoff anywhere between zero and its full length; 0.5 by default.
+     */
+    public Builder withJitter(double jitter) {
+      Preconditions.checkArgument(jitter >= 0 && jitter <= 1,
+        "Jitter must be between 0 and 1: %s", jitter);
+      this.jitter = jitter;
+      return this;
+    }
+
+    /**
+     * Set the fraction of evaluations which can be retried, such as {@code 0.1} for at most 10% of
+     * extra load; 0.1 by default.
+     */
+    public Builder withMaxExtraLoad(double maxExtraLoad) {
+      Preconditions.checkArgument(maxExtraLoad >= 0 && maxExtraLoad <= 1,
+        "Max extra load must be between 0 and 1: %s", maxExtraLoad);
+      this.maxExtraLoad = maxExtraLoad;
+      return this;
+    }
+
+    /**
+     * Retry only the failures matching the given predicate; all failures but cancellations are
+     * retried by default. The predicate is given the cause of {@link
+     * java.util.concurrent.CompletionException}s.
+     */
+    public Builder withRetryOn(Predicate<Throwable> retryOn) {
+      this.retryOn = Preconditions.checkNotNull(retryOn);
+      return this;
+    }
+
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+
+    private static long toNanos(Duration duration) {
+      Preconditions.checkNotNull(duration);
+      Preconditions.checkArgument(!duration.isNegative(), "Negative backoff: %s", duration);
+      try {
+        return duration.toNanos();
+      } catch (ArithmeticException e) {
+        return Long.MAX_VALUE;
+      }
+    }
+  }
+}
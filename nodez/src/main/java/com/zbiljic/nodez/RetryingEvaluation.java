@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.utils.TimerWheel;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Evaluation of a node {@link Node#retrying(RetryPolicy) retrying} failed evaluations, which
+ * completes with the outcome of the last one.
+ * <p>
+ * Retries are scheduled on the {@link TimerWheel#shared() shared timer}, which hands them over to
+ * the executor the node is evaluated on, so no thread sleeps during the backoff. A failure is not
+ * retried if the backoff would end after the deadline of the context. Cancelling the evaluation
+ * cancels the pending retry, or the evaluation in flight.
+ *
+ * @param <R> return type of the node
+ */
+final class RetryingEvaluation<R> extends CompletableFuture<R> {
+
+  // Value of the evaluation field once the evaluation is cancelled.
+  private static final Object STOPPED = new Object();
+
+  private static final AtomicReferenceFieldUpdater<RetryingEvaluation, Object> EVALUATION =
+    AtomicReferenceFieldUpdater.newUpdater(RetryingEvaluation.class, Object.class, "evaluation");
+
+  private final Node<R> node;
+  private final ExecutionContext context;
+  private final RetryPolicy policy;
+
+  // Number of retries made so far. Retries are made one after the other, each after the previous
+  // evaluation completed, which orders the accesses.
+  private int retries;
+
+  // The last evaluation, or STOPPED.
+  @Nullable
+  private volatile Object evaluation;
+  // The pending retry, if any.
+  @Nullable
+  private volatile TimerWheel.Timeout retry;
+
+  /**
+   * Returns the given outcome of the first evaluation of the node, or an evaluation retrying it
+   * if it did not succeed already.
+   */
+  static <R> CompletableFuture<R> of(Node<R> node,
+                                     ExecutionContext context,
+                                     RetryPolicy policy,
+                                     CompletableFuture<R> result) {
+    policy.onCall();
+    if (result.isDone() && !result.isCompletedExceptionally()) {
+      return result;
+    }
+    RetryingEvaluation<R> evaluation = new RetryingEvaluation<>(node, context, policy);
+    evaluation.track(result);
+    return evaluation;
+  }
+
+  private RetryingEvaluation(Node<R> node, ExecutionContext context, RetryPolicy policy) {
+    this.node = node;
+    this.context = context;
+    this.policy = policy;
+  }
+
+  private void track(CompletableFuture<R> result) {
+    NodePromise.retain(result);
+    Object previous = evaluation;
+    if (previous == STOPPED || !EVALUATION.compareAndSet(this, previous, result)) {
+      // cancelled meanwhile
+      NodePromise.cancelEvaluation(result);
+      return;
+    }
+    result.whenComplete(this::evaluated);
+  }
+
+  private void evaluated(@Nullable R value, @Nullable Throwable throwable) {
+    if (throwable == null) {
+      complete(value);
+      return;
+    }
+    if (isDone()) {
+      return;
+    }
+    Throwable failure = unwrap(throwable);
+    if (!policy.isRetryable(retries, failure)) {
+      completeExceptionally(throwable);
+      return;
+    }
+    long backoffNanos = policy.backoffNanos(retries);
+    if (backoffNanos >= context.getRemainingNanos() || !policy.tryRetry()) {
+      completeExceptionally(throwable);
+      return;
+    }
+    retries++;
+    Executor executor = node.getExecutor() != null
+      ? node.getExecutor()
+      : context.getExecutor();
+    retry = TimerWheel.shared().schedule(() -> {
+      try {
+        executor.execute(this::retry);
+      } catch (RejectedExecutionException e) {
+        // the evaluation is not retried on the timer thread, it fails with its last failure
+        completeExceptionally(throwable);
+      }
+    }, backoffNanos, TimeUnit.NANOSECONDS);
+    if (isDone()) {
+      retry.cancel();
+    }
+  }
+
+  private void retry() {
+    if (isDone()) {
+      return;
+    }
+    ExecutionContext outer = ExecutionContext.enter(context);
+    try {
+      track(node.evaluateOnce(context));
+    } finally {
+      ExecutionContext.exit(outer);
+    }
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    Throwable failure = throwable;
+    while (failure instanceof CompletionException && failure.getCause() != null) {
+      failure = failure.getCause();
+    }
+    return failure;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    // the same as CompletableFuture.cancel(), but the pending retry or the evaluation in flight
+    // are cancelled by the call which cancelled this future
+    boolean cancelled = completeExceptionally(new CancellationException());
+    if (cancelled) {
+      TimerWheel.Timeout pendingRetry = retry;
+      if (pendingRetry != null) {
+        pendingRetry.cancel();
+      }
+      Object current = EVALUATION.getAndSet(this, STOPPED);
+      if (current instanceof CompletableFuture) {
+        NodePromise.cancelEvaluation((CompletableFuture<?>) current);
+      }
+    }
+    return cancelled || isCancelled();
+  }
+}
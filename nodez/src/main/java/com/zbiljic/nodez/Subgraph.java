@@ -15,13 +15,8 @@
  */
 package com.zbiljic.nodez;
 
-import com.zbiljic.nodez.debug.DebugManager;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.zbiljic.nodez.debug.DebugLevel;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -39,8 +34,6 @@ import java.util.List;
  */
 public abstract class Subgraph {
 
-  private static final Logger log = LoggerFactory.getLogger(Subgraph.class);
-
   /**
    * ALWAYS REMEMBER TO CALL THIS AT THE END OF SUBCLASS CONSTRUCTOR.
    * <p>
@@ -52,7 +45,7 @@ public abstract class Subgraph {
    * production query.
    */
   protected void markExposedNodes() {
-    if (DebugManager.isEnabled()) {
+    if (ExecutionContext.current().isDebugEnabled(DebugLevel.BASIC)) {
       List<Node> exposedNodes = getExposedNodes();
       if (exposedNodes.isEmpty()) {
         throw new RuntimeException("You don't have any public Node field in subgraph class "
@@ -65,21 +58,11 @@ public abstract class Subgraph {
   }
 
   /**
-   * Find all exposed public node member variables by reflection.
+   * Find all exposed public node member variables, from metadata generated at compile time or by
+   * reflection.
    */
   List<Node> getExposedNodes() {
-    List<Node> nodes = new ArrayList<>();
-    Field[] fields = this.getClass().getDeclaredFields();
-    for (Field f : fields) {
-      if (Modifier.isPublic(f.getModifiers()) && Node.class.isAssignableFrom(f.getType())) {
-        try {
-          nodes.add((Node) f.get(this));
-        } catch (IllegalAccessException e) {
-          log.warn("Cannot access field [{}] in subgraph {}", f.getName(), this.getClass().getSimpleName());
-        }
-      }
-    }
-    return nodes;
+    return NodeMetadata.getExposedNodes(this);
   }
 
   /**
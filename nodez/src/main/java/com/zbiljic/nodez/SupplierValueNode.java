@@ -54,6 +54,12 @@ public class SupplierValueNode<R> extends ValueNode<R> {
       : value.getClass().getSimpleName();
   }
 
+  @Override
+  protected boolean isCheap() {
+    // the supplier may do arbitrary work
+    return false;
+  }
+
   @Override
   protected CompletableFuture<R> evaluate() {
     return CompletableFuture.completedFuture(getValue());
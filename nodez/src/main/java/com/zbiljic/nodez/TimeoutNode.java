@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.utils.TimerWheel;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Timeout nodes represent the output of a wrapped node if it completes within a timeout, and
+ * otherwise fail with a {@link TimeoutException}, or represent the output of a fallback node.
+ * Optional wrapped nodes are empty instead of failing.
+ * <p>
+ * Timeouts are scheduled on the {@link TimerWheel#shared() shared timer}, which hands the expiry
+ * over to the executor of the context, so dependents are not evaluated on the timer thread. On
+ * timeout, the output of the wrapped node is ignored, and it is cancelled unless other nodes depend
+ * on it. The fallback node is only applied on timeout.
+ *
+ * @param <R> return type of the node
+ * @see Node#withTimeout(Duration)
+ */
+final class TimeoutNode<R> extends Node<R> {
+
+  private final Node<R> node;
+  private final Duration timeout;
+  private final long timeoutNanos;
+  @Nullable
+  private final Node<R> fallbackNode;
+
+  TimeoutNode(Node<R> node, Duration timeout, @Nullable Node<R> fallbackNode) {
+    super(node.getName() + "_timeout",
+      node.isOptional(),
+      node.canEmitNull() || (fallbackNode != null && fallbackNode.canEmitNull()));
+    Preconditions.checkArgument(!timeout.isNegative(), "Negative timeout: %s", timeout);
+    this.node = node;
+    this.timeout = timeout;
+    this.timeoutNanos = toNanos(timeout);
+    this.fallbackNode = fallbackNode;
+  }
+
+  private static long toNanos(Duration duration) {
+    try {
+      return duration.toNanos();
+    } catch (ArithmeticException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  @Override
+  public String getResponseClassName() {
+    return node.getResponseClassName();
+  }
+
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
+  @Override
+  protected CompletableFuture<R> evaluate() {
+    ExecutionContext context = ExecutionContext.current();
+    CompletableFuture<R> future = node.apply(context);
+    if (future.isDone()) {
+      return future;
+    }
+    CompletableFuture<R> result = new CompletableFuture<>();
+    TimerWheel.Timeout expiry = TimerWheel.shared()
+      .schedule(() -> Node.executeFromTimer(context.getExecutor(), () -> expire(context, result)),
+        timeoutNanos, TimeUnit.NANOSECONDS);
+    future.whenComplete((value, throwable) -> {
+      // the timeout is only cancelled if it did not expire, its outcome wins otherwise
+      if (expiry.cancel()) {
+        complete(result, value, throwable);
+      }
+    });
+    // the wrapped node is cancelled on timeout or when the result is cancelled, unless other
+    // nodes depend on it
+    NodePromise.retain(future);
+    result.whenComplete((value, throwable) -> {
+      expiry.cancel();
+      NodePromise.release(future);
+    });
+    return result;
+  }
+
+  private void expire(ExecutionContext context, CompletableFuture<R> result) {
+    if (fallbackNode != null) {
+      fallbackNode.apply(context).whenComplete((value, throwable) -> complete(result, value, throwable));
+    } else if (isOptional()) {
+      result.complete((R) Optional.empty());
+    } else {
+      result.completeExceptionally(new TimeoutException(
+        String.format("Node [%s] timed out after %s", node.getName(), timeout)));
+    }
+  }
+
+  private static <T> void complete(CompletableFuture<T> result, @Nullable T value, @Nullable Throwable throwable) {
+    if (throwable == null) {
+      result.complete(value);
+    } else {
+      result.completeExceptionally(throwable);
+    }
+  }
+
+  @Override
+  Map<String, Node> getInputsByName() {
+    if (fallbackNode == null) {
+      return Collections.singletonMap("NODE", node);
+    }
+    final Map<String, Node> inputs = new HashMap<>();
+    inputs.put("NODE", node);
+    inputs.put("FALLBACK", fallbackNode);
+    return Collections.unmodifiableMap(inputs);
+  }
+}
@@ -87,6 +87,11 @@ public class TransformNode<SourceType, R> extends BaseTransformNode<SourceType,
     return getLastTemplateType(this.transform.getClass());
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected CompletableFuture<R> transform(SourceType source) {
     R response = transform.apply(source);
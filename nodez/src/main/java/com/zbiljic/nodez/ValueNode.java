@@ -42,8 +42,10 @@ public class ValueNode<R> extends NullableNode<R> {
   protected ValueNode(R value, String name) {
     super(name != null
       ? name
-      : String.format("value[%s]", valueStringInName(value)));
+      : "value[" + valueStringInName(value) + "]");
     this.value = value;
+    // value nodes are commonly kept in constants, and have no work to stop anyway
+    markShared();
   }
 
   private static <R> String valueStringInName(R value) {
@@ -62,6 +64,11 @@ public class ValueNode<R> extends NullableNode<R> {
     return value == null ? "" : value.getClass().getSimpleName();
   }
 
+  @Override
+  protected boolean isCheap() {
+    return true;
+  }
+
   @Override
   protected CompletableFuture<R> evaluate() {
     return CompletableFuture.completedFuture(value);
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+/**
+ * Applies the nodes of the elements of a list in batches, with a limited number of batches in
+ * flight, and writes their results into an array of the size of the list as they complete. Once
+ * the collection fails or is cancelled, the nodes still in flight are released.
+ *
+ * @see CollectOptions
+ */
+final class WindowedCollector<A, B> {
+
+  private final List<A> items;
+  // Exactly one of the functions is set.
+  private final Function<? super A, Node<B>> itemFunction;
+  private final Function<? super List<A>, Node<List<B>>> batchFunction;
+  private final ExecutionContext context;
+  private final int batchSize;
+  private final int batchCount;
+  private final int maxInFlight;
+  private final boolean ordered;
+
+  private final Object[] results;
+  // Elements of each batch that are not complete yet, if the elements of a batch are applied one
+  // by one.
+  private final AtomicIntegerArray batchRemaining;
+  private final AtomicInteger remaining;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  // Position of the next result, if the results are not ordered.
+  private final AtomicInteger position = new AtomicInteger();
+  // Requests to apply more batches; only the thread which increments it from zero applies them, so
+  // completions on the applying thread do not recurse.
+  private final AtomicInteger drainRequests = new AtomicInteger();
+  // Futures of the nodes applied and not complete yet, retained until they complete.
+  private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+  // Accessed only by the thread applying batches.
+  private int nextBatch;
+  private final CompletableFuture<List<B>> promise = new CompletableFuture<>();
+
+  private WindowedCollector(List<A> items,
+                            Function<? super A, Node<B>> itemFunction,
+                            Function<? super List<A>, Node<List<B>>> batchFunction,
+                            CollectOptions options) {
+    this.items = items;
+    this.itemFunction = itemFunction;
+    this.batchFunction = batchFunction;
+    this.context = ExecutionContext.current();
+    this.batchSize = options.getBatchSize();
+    this.batchCount = (int) ((items.size() + (long) batchSize - 1) / batchSize);
+    this.maxInFlight = options.getMaxInFlight();
+    this.ordered = options.isOrdered();
+    this.results = new Object[items.size()];
+    this.remaining = new AtomicInteger(batchCount);
+    if (itemFunction != null && batchSize > 1) {
+      batchRemaining = new AtomicIntegerArray(batchCount);
+      for (int batch = 0; batch < batchCount; batch++) {
+        batchRemaining.set(batch, batchEnd(batch) - batch * batchSize);
+      }
+    } else {
+      batchRemaining = null;
+    }
+  }
+
+  /**
+   * Applies the node of every element of the list with the context bound to the current thread.
+   */
+  static <A, B> CompletableFuture<List<B>> collect(List<A> items,
+                                                   Function<? super A, Node<B>> itemFunction,
+                                                   CollectOptions options) {
+    return new WindowedCollector<A, B>(items, itemFunction, null, options).start();
+  }
+
+  /**
+   * Applies the node of every batch of elements of the list with the context bound to the current
+   * thread. The node of a batch has to return one result for every element of the batch.
+   */
+  static <A, B> CompletableFuture<List<B>> collectBatches(List<A> items,
+                                                          Function<? super List<A>, Node<List<B>>> batchFunction,
+                                                          CollectOptions options) {
+    return new WindowedCollector<A, B>(items, null, batchFunction, options).start();
+  }
+
+  private CompletableFuture<List<B>> start() {
+    if (batchCount == 0) {
+      promise.complete(new ArrayList<>());
+    } else {
+      promise.whenComplete((values, throwable) -> {
+        if (throwable != null) {
+          pending.forEach(this::release);
+        }
+      });
+      drain();
+    }
+    return promise;
+  }
+
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int requests = 1;
+    do {
+      while (nextBatch < batchCount && inFlight.get() < maxInFlight && !promise.isDone()) {
+        inFlight.incrementAndGet();
+        apply(nextBatch++);
+      }
+      requests = drainRequests.addAndGet(-requests);
+    } while (requests != 0);
+  }
+
+  private int batchEnd(int batch) {
+    return (int) Math.min(items.size(), (long) (batch + 1) * batchSize);
+  }
+
+  private void apply(int batch) {
+    int from = batch * batchSize;
+    int to = batchEnd(batch);
+    try {
+      if (batchFunction != null) {
+        CompletableFuture<List<B>> future = batchFunction.apply(items.subList(from, to)).apply(context);
+        retain(future);
+        future.whenComplete((values, throwable) -> {
+          pending.remove(future);
+          batchCompleted(from, to - from, values, throwable);
+        });
+      } else {
+        for (int index = from; index < to && !promise.isDone(); index++) {
+          int itemIndex = index;
+          CompletableFuture<B> future = itemFunction.apply(items.get(index)).apply(context);
+          retain(future);
+          future.whenComplete((value, throwable) -> {
+            pending.remove(future);
+            itemCompleted(batch, itemIndex, value, throwable);
+          });
+        }
+      }
+    } catch (RuntimeException e) {
+      promise.completeExceptionally(e);
+    }
+  }
+
+  private void retain(CompletableFuture<?> future) {
+    if (future.isDone()) {
+      return;
+    }
+    NodePromise.retain(future);
+    if (!pending.add(future)) {
+      // the same node was applied for another element, and is retained once
+      NodePromise.release(future);
+      return;
+    }
+    // the collection may have failed before the future was added
+    if (promise.isCompletedExceptionally()) {
+      release(future);
+    }
+  }
+
+  private void release(CompletableFuture<?> future) {
+    // only the thread removing the future releases it
+    if (pending.remove(future)) {
+      NodePromise.release(future);
+    }
+  }
+
+  private void itemCompleted(int batch, int index, B value, Throwable throwable) {
+    if (throwable != null) {
+      promise.completeExceptionally(throwable);
+      return;
+    }
+    results[ordered ? index : position.getAndIncrement()] = value;
+    if (batchRemaining == null || batchRemaining.decrementAndGet(batch) == 0) {
+      completed();
+    }
+  }
+
+  private void batchCompleted(int from, int count, List<B> values, Throwable throwable) {
+    if (throwable != null) {
+      promise.completeExceptionally(throwable);
+      return;
+    }
+    if (values == null || values.size() != count) {
+      promise.completeExceptionally(new IllegalStateException(String.format(
+        "Batch of %d elements returned %s results", count, values == null ? null : values.size())));
+      return;
+    }
+    int offset = ordered ? from : position.getAndAdd(count);
+    for (int i = 0; i < count; i++) {
+      results[offset + i] = values.get(i);
+    }
+    completed();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void completed() {
+    // the decrement publishes the results written before it to the thread completing the promise
+    if (remaining.decrementAndGet() == 0) {
+      promise.complete((List<B>) new ArrayList<>(Arrays.asList(results)));
+    } else {
+      inFlight.decrementAndGet();
+      drain();
+    }
+  }
+}
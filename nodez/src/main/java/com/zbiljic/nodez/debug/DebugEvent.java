@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.debug;
+
+/**
+ * Types of the records of a {@link DebugMessageBuilder}. Each type defines how the payload of a
+ * record, two {@code long} values and a reference, is rendered to text.
+ */
+public enum DebugEvent {
+
+  /**
+   * A message formatted with {@link String#format(String, Object...)}; the reference holds the
+   * arguments.
+   */
+  MESSAGE,
+
+  /**
+   * Start of a node evaluation.
+   */
+  START,
+
+  /**
+   * End of a node evaluation; the values hold the total and evaluate time of the node in
+   * nanoseconds, or {@code -1} if it was not timed.
+   */
+  END,
+
+  /**
+   * Failure of a node; the values hold the timing like for {@link #END} and the reference holds
+   * the failure. Its stack trace is rendered at the {@link DebugLevel#VERBOSE verbose} level.
+   */
+  FAILED,
+
+  /**
+   * An exception thrown by the evaluation of a node; the reference holds the exception.
+   */
+  EVALUATE_FAILED,
+
+  /**
+   * A node which is decided off; the reference holds the decider key.
+   */
+  DECIDED_OFF;
+
+}
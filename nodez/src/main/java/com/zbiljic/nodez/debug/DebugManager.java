@@ -18,8 +18,12 @@ package com.zbiljic.nodez.debug;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * DebugManager controls debug message building (via {@link DebugMessageBuilder}) on a per-request
- * basis.
+ * DebugManager holds the global {@link DebugMessageBuilder}, used by executions whose {@link
+ * com.zbiljic.nodez.ExecutionContext} has no builder of its own.
+ * <p>
+ * The global builder is shared by all such executions, so turning it on affects every concurrent
+ * request. To debug a single request, give its context a builder with {@link
+ * com.zbiljic.nodez.ExecutionContext.Builder#withDebug(DebugMessageBuilder)} instead.
  */
 public final class DebugManager {
 
@@ -32,14 +36,14 @@ public final class DebugManager {
   }
 
   /**
-   * Update the request thread local with the builder to use for this request.
+   * Update the global builder.
    */
   public static void update(final DebugMessageBuilder builder) {
     DEBUG_MSG_BUILDER.set(builder);
   }
 
   /**
-   * Clear all request specific thread local. This should be called after the request is complete.
+   * Reset the global builder to one which has no effect.
    */
   public static void clear() {
     DEBUG_MSG_BUILDER.set(DebugNoneMessageBuilder.getInstance());
@@ -56,9 +60,7 @@ public final class DebugManager {
   }
 
   /**
-   * This builder is a thread-local, which will be automatically preserved across threads.
-   *
-   * @return the {@code DebugMessageBuilder} for the current thread.
+   * @return the global {@code DebugMessageBuilder}.
    */
   public static DebugMessageBuilder getDebugMessageBuilder() {
     return DEBUG_MSG_BUILDER.get();
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.debug;
+
+import com.zbiljic.nodez.utils.Throwables;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A class to build debug messages with different levels.
+ * <p>
+ * Messages are not formatted when they are added. Each one is stored as a record of its type, a
+ * reference to its source, two {@code long} values and a reference to its arguments, in a ring
+ * buffer of records, and is rendered to text only by {@link #toString()}. The ring grows on demand
+ * up to the capacity of the builder, so an execution which adds few messages allocates few records.
+ * Adding a record takes no lock, so the nodes of one execution can write to the same builder from
+ * several threads: a writer claims its record before writing it, and drops its message if the
+ * record is still being written by another one a full ring apart. When more records are added than
+ * the builder can hold, the oldest ones are dropped.
+ * <p>
+ * Since arguments are formatted lazily, they should not be modified after they are added.
+ */
+public class DebugMessageBuilder {
+
+  /**
+   * Number of records a builder holds, unless given otherwise.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  // We use an indentation step of 2 blank spaces.
+  private static final String INDENTATION_STEP = "  ";
+
+  // Number of records allocated when the first message is added.
+  private static final int INITIAL_RECORDS = 16;
+
+  private final DebugLevel level;
+  private final StringBuilder builder;
+  private final int capacity;
+  // Grown up to the capacity as messages are added; existing records are kept when it grows.
+  private final AtomicReference<Record[]> records = new AtomicReference<>(new Record[0]);
+  // Sequence number of the next record.
+  private final AtomicLong next = new AtomicLong();
+  private volatile int currentIndentationLevel;
+
+  /** Creates a new DebugMessageBuilder instance. */
+  public DebugMessageBuilder() {
+    this(new StringBuilder(), DebugLevel.NONE);
+  }
+
+  /** Creates a new DebugMessageBuilder instance. */
+  public DebugMessageBuilder(DebugLevel debugLevel) {
+    this(new StringBuilder(), debugLevel);
+  }
+
+  /** Creates a new DebugMessageBuilder instance holding the given number of records. */
+  public DebugMessageBuilder(DebugLevel debugLevel, int capacity) {
+    this(new StringBuilder(), debugLevel, capacity);
+  }
+
+  /** Creates a new DebugMessageBuilder instance. */
+  public DebugMessageBuilder(String initString, DebugLevel debugLevel) {
+    this(new StringBuilder(initString), debugLevel);
+  }
+
+  /** Creates a new DebugMessageBuilder instance. */
+  public DebugMessageBuilder(StringBuilder builder, DebugLevel level) {
+    this(builder, level, level == DebugLevel.NONE ? 0 : DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new DebugMessageBuilder instance, rendering the records after the text of the given
+   * builder.
+   */
+  public DebugMessageBuilder(StringBuilder builder, DebugLevel level, int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+    }
+    this.builder = (builder == null) ? new StringBuilder() : builder;
+    this.level = level;
+    this.capacity = capacity;
+    setIndentationLevel(0);
+  }
+
+  /** Returns the current debug level. */
+  public DebugLevel getLevel() {
+    return level;
+  }
+
+  /** Returns how many records this builder holds. */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Returns how many of the oldest records were dropped because the builder was full. */
+  public long getDroppedCount() {
+    return Math.max(0, next.get() - capacity);
+  }
+
+  public boolean isEmpty() {
+    return builder.length() == 0 && next.get() == 0;
+  }
+
+  /** Resets this builder. */
+  public synchronized void reset() {
+    builder.setLength(0);
+    for (Record record : records.get()) {
+      record.clear();
+    }
+    next.set(0);
+    setIndentationLevel(0);
+  }
+
+  public synchronized void setIndentationLevel(int indentationLevel) {
+    this.currentIndentationLevel = Math.max(0, indentationLevel);
+  }
+
+  public synchronized DebugMessageBuilder indent() {
+    setIndentationLevel(currentIndentationLevel + 1);
+    return this;
+  }
+
+  public synchronized DebugMessageBuilder unindent() {
+    setIndentationLevel(currentIndentationLevel - 1);
+    return this;
+  }
+
+  private boolean isLevelEnabled(DebugLevel msgLevel) {
+    return getLevel().ordinal() >= msgLevel.ordinal();
+  }
+
+  /**
+   * Adds a message with the given level, formatted with {@link String#format(String, Object...)}
+   * when the builder is rendered.
+   *
+   * @param source where the message comes from, like a node, rendered before it
+   */
+  public DebugMessageBuilder message(DebugLevel msgLevel,
+                                     @Nullable Object source,
+                                     final String message,
+                                     Object... args) {
+    if (!message.isEmpty() && isLevelEnabled(msgLevel)) {
+      add(source, DebugEvent.MESSAGE, message, 0, 0, args);
+    }
+    return this;
+  }
+
+  /**
+   * Adds an event with the given level and payload, which is rendered as described by the {@link
+   * DebugEvent}.
+   *
+   * @param source where the event comes from, like a node, rendered before it
+   */
+  public DebugMessageBuilder event(DebugLevel msgLevel,
+                                   @Nullable Object source,
+                                   DebugEvent event,
+                                   long first,
+                                   long second,
+                                   @Nullable Object reference) {
+    if (isLevelEnabled(msgLevel)) {
+      add(source, event, null, first, second, reference);
+    }
+    return this;
+  }
+
+  private void add(@Nullable Object source,
+                   DebugEvent event,
+                   @Nullable String message,
+                   long first,
+                   long second,
+                   @Nullable Object reference) {
+    if (capacity == 0) {
+      return;
+    }
+    long sequence = next.getAndIncrement();
+    Record record = record((int) (sequence % capacity));
+    // claims the record, which also marks it as being written so it is skipped if rendered
+    // concurrently; a writer a full ring ahead already replaced it, one behind is still writing it
+    long previous = record.sequence;
+    if (previous == Record.WRITING || previous > sequence
+        || !Record.SEQUENCE.compareAndSet(record, previous, Record.WRITING)) {
+      return;
+    }
+    record.timeMillis = System.currentTimeMillis();
+    record.indentation = currentIndentationLevel;
+    record.source = source;
+    record.event = event;
+    record.message = message;
+    record.first = first;
+    record.second = second;
+    record.reference = reference;
+    record.sequence = sequence;
+  }
+
+  private Record record(int index) {
+    Record[] current = records.get();
+    while (index >= current.length) {
+      int length = Math.min(capacity, Math.max(index + 1, Math.max(INITIAL_RECORDS, current.length * 2)));
+      Record[] grown = Arrays.copyOf(current, length);
+      for (int i = current.length; i < length; i++) {
+        grown[i] = new Record();
+      }
+      current = records.compareAndSet(current, grown)
+        ? grown
+        : records.get();
+    }
+    return current[index];
+  }
+
+  public DebugMessageBuilder basic(final String message, Object... args) {
+    return message(DebugLevel.BASIC, null, message, args);
+  }
+
+  public DebugMessageBuilder detailed(final String message, Object... args) {
+    return message(DebugLevel.DETAILED, null, message, args);
+  }
+
+  public DebugMessageBuilder verbose(final String message, Object... args) {
+    return message(DebugLevel.VERBOSE, null, message, args);
+  }
+
+  public boolean isEnabled() {
+    return getLevel().ordinal() >= DebugLevel.BASIC.ordinal();
+  }
+
+  public boolean isDetailed() {
+    return getLevel().ordinal() >= DebugLevel.DETAILED.ordinal();
+  }
+
+  public boolean isVerbose() {
+    return getLevel().ordinal() >= DebugLevel.VERBOSE.ordinal();
+  }
+
+  /**
+   * Renders the messages of this builder to text. Records which are being added concurrently are
+   * left out.
+   */
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder(builder);
+    long end = next.get();
+    long start = Math.max(0, end - capacity);
+    if (start > 0) {
+      out.append("... ").append(start).append(" earlier messages dropped\n");
+    }
+    Record[] current = records.get();
+    Record copy = new Record();
+    for (long sequence = start; sequence < end; sequence++) {
+      if (copyRecord(current, sequence, copy)) {
+        render(out, copy);
+      }
+    }
+    return out.toString();
+  }
+
+  private boolean copyRecord(Record[] current, long sequence, Record copy) {
+    int index = (int) (sequence % capacity);
+    if (index >= current.length) {
+      return false;
+    }
+    Record record = current[index];
+    if (record.sequence != sequence) {
+      return false;
+    }
+    copy.timeMillis = record.timeMillis;
+    copy.indentation = record.indentation;
+    copy.source = record.source;
+    copy.event = record.event;
+    copy.message = record.message;
+    copy.first = record.first;
+    copy.second = record.second;
+    copy.reference = record.reference;
+    return record.sequence == sequence;
+  }
+
+  private void render(StringBuilder out, Record record) {
+    switch (record.event) {
+      case MESSAGE:
+        Object[] args = (Object[]) record.reference;
+        appendLine(out, record, format(record.message, args));
+        break;
+      case START:
+        appendLine(out, record, "Start");
+        break;
+      case END:
+        appendLine(out, record, "End" + formatTiming(record));
+        break;
+      case FAILED:
+        Throwable failure = (Throwable) record.reference;
+        appendLine(out, record, "Failed" + formatTiming(record) + ": "
+          + (failure == null ? null : failure.getMessage()));
+        if (failure != null && isVerbose()) {
+          appendLine(out, record, "Detailed failure: " + Throwables.getStackTraceAsString(failure));
+        }
+        break;
+      case EVALUATE_FAILED:
+        Throwable exception = (Throwable) record.reference;
+        appendLine(out, record, "evaluate threw an exception\n"
+          + (exception == null ? null : Throwables.getStackTraceAsString(exception)));
+        break;
+      case DECIDED_OFF:
+        appendLine(out, record, "is decided off for this request, decider key: " + record.reference);
+        break;
+      default:
+        throw new IllegalStateException("Unknown debug event: " + record.event);
+    }
+  }
+
+  private static String format(String message, @Nullable Object[] args) {
+    if (args == null || args.length == 0) {
+      return message;
+    }
+    try {
+      return String.format(message, args);
+    } catch (IllegalFormatException e) {
+      return message + " " + Arrays.toString(args);
+    }
+  }
+
+  private static String formatTiming(Record record) {
+    return record.first < 0
+      ? ""
+      : " (" + TimeUnit.NANOSECONDS.toMicros(record.first)
+      + "/" + TimeUnit.NANOSECONDS.toMicros(record.second) + " us)";
+  }
+
+  private void appendLine(StringBuilder out, Record record, String message) {
+    for (int i = 0; i < record.indentation; ++i) {
+      out.append(INDENTATION_STEP);
+    }
+    if (record.source != null) {
+      if (isDetailed()) {
+        appendTime(out, record.timeMillis);
+      }
+      out.append(record.source).append(": ");
+    }
+    out.append(message);
+    out.append("\n");
+  }
+
+  /**
+   * Appends the last four digits of the time in milliseconds, padded with zeros.
+   */
+  private static void appendTime(StringBuilder out, long timeMillis) {
+    long time = timeMillis % 10000;
+    out.append('[');
+    for (long limit = 1000; limit > 1 && time < limit; limit /= 10) {
+      out.append('0');
+    }
+    out.append(time).append("] ");
+  }
+
+  /**
+   * One debug message, overwritten when the ring buffer wraps around.
+   */
+  private static final class Record {
+
+    static final long EMPTY = -1;
+    static final long WRITING = -2;
+    static final AtomicLongFieldUpdater<Record> SEQUENCE =
+      AtomicLongFieldUpdater.newUpdater(Record.class, "sequence");
+
+    // Sequence number of the message, EMPTY before the first one, or WRITING while it is written.
+    volatile long sequence = EMPTY;
+    long timeMillis;
+    int indentation;
+    Object source;
+    DebugEvent event;
+    String message;
+    long first;
+    long second;
+    Object reference;
+
+    void clear() {
+      sequence = EMPTY;
+      source = null;
+      event = null;
+      message = null;
+      reference = null;
+    }
+  }
+}
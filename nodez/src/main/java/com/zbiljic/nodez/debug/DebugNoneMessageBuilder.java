@@ -15,6 +15,8 @@
  */
 package com.zbiljic.nodez.debug;
 
+import javax.annotation.Nullable;
+
 /**
  * A variant of {@code DebugMessageBuilder} that has no effect and could be safely shared.
  *
@@ -55,6 +57,24 @@ public final class DebugNoneMessageBuilder extends DebugMessageBuilder {
     return this;
   }
 
+  @Override
+  public DebugMessageBuilder message(DebugLevel msgLevel,
+                                     @Nullable Object source,
+                                     String message,
+                                     Object... args) {
+    return this;
+  }
+
+  @Override
+  public DebugMessageBuilder event(DebugLevel msgLevel,
+                                   @Nullable Object source,
+                                   DebugEvent event,
+                                   long first,
+                                   long second,
+                                   @Nullable Object reference) {
+    return this;
+  }
+
   @Override
   public DebugMessageBuilder basic(String message, Object... args) {
     return this;
@@ -69,4 +89,9 @@ public final class DebugNoneMessageBuilder extends DebugMessageBuilder {
   public DebugMessageBuilder verbose(String message, Object... args) {
     return this;
   }
+
+  @Override
+  public String toString() {
+    return "";
+  }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with log-linear buckets.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} have a bucket each, larger values are split in powers of two,
+ * each of them divided in {@value #SUB_BUCKETS} buckets of equal width. The relative error of a
+ * value read from the histogram is below {@code 1/}{@value #SUB_BUCKETS}, with a fixed number of
+ * buckets covering all positive {@code long} values.
+ * <p>
+ * Recording a value is a single atomic increment of its bucket and of two striped counters, so the
+ * histogram can be updated concurrently from any number of threads. Reads are not atomic with
+ * respect to concurrent updates, they may miss values recorded at the same time.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Number of buckets, enough for {@link Long#MAX_VALUE}.
+   */
+  public static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+
+  /**
+   * Record a latency, negative values are recorded as zero.
+   */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    buckets.incrementAndGet(bucketIndex(value));
+    count.increment();
+    totalNanos.add(value);
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the sum of all recorded values.
+   */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Returns the number of values recorded in the bucket with the given index.
+   */
+  public long getBucketCount(int index) {
+    return buckets.get(index);
+  }
+
+  /**
+   * Returns a copy of the number of values recorded in every bucket.
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * Returns the value at the given percentile, between 0 and 100, as the lowest value of the bucket
+   * it was recorded in. Returns zero if no values were recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+    }
+    long[] counts = getBucketCounts();
+    long total = 0;
+    for (long bucketCount : counts) {
+      total += bucketCount;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return getBucketLowerBound(i);
+      }
+    }
+    return getBucketLowerBound(counts.length - 1);
+  }
+
+  /**
+   * Returns the lowest value recorded in the bucket with the given index.
+   */
+  public static long getBucketLowerBound(int index) {
+    if (index < 0 || index >= BUCKET_COUNT) {
+      throw new IllegalArgumentException("Bucket index out of range: " + index);
+    }
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    return (SUB_BUCKETS + subBucket) << shift;
+  }
+
+  /**
+   * Returns the index of the bucket the given non-negative value is recorded in.
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // position of the highest bit, followed by the next SUB_BUCKET_BITS bits
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+}
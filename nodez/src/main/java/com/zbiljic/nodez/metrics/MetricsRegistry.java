@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.metrics;
+
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTiming;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * A {@link NodeMetricsListener} which aggregates metrics of node evaluations in memory, by the name
+ * of the node and optionally by its key.
+ * <p>
+ * Metrics of a name are created on the first evaluation of a node with that name and kept for the
+ * lifetime of the registry. Recording does not lock: it is a lookup in a concurrent map followed by
+ * updates of striped counters and lock-free histograms.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * MetricsRegistry registry = new MetricsRegistry();
+ * ExecutionContext context = ExecutionContext.builder()
+ *   .withMetrics(registry)
+ *   .build();
+ * root.apply(context);
+ * ...
+ * registry.forEach(metrics -> report(metrics.getName(), metrics.getEvaluate()));
+ * }</pre>
+ */
+public final class MetricsRegistry implements NodeMetricsListener {
+
+  private final boolean byKey;
+  private final ConcurrentHashMap<String, NodeMetrics> metrics = new ConcurrentHashMap<>();
+
+  /**
+   * Create a registry keeping metrics by node name.
+   */
+  public MetricsRegistry() {
+    this(false);
+  }
+
+  /**
+   * Create a registry keeping metrics by node name, or by node name and key (like {@link
+   * com.zbiljic.nodez.Node#getName()} returns it) if {@code byKey} is {@code true}.
+   */
+  public MetricsRegistry(boolean byKey) {
+    this.byKey = byKey;
+  }
+
+  @Override
+  public void nodeCompleted(String name, @Nullable String key, NodeOutcome outcome, NodeTiming timing) {
+    String metricsName = byKey && key != null
+      ? name + ":" + key
+      : name;
+    NodeMetrics nodeMetrics = metrics.get(metricsName);
+    if (nodeMetrics == null) {
+      nodeMetrics = metrics.computeIfAbsent(metricsName, NodeMetrics::new);
+    }
+    nodeMetrics.record(outcome, timing);
+  }
+
+  /**
+   * Returns the metrics of nodes with the given name, or {@code null} if none was evaluated.
+   */
+  @Nullable
+  public NodeMetrics getMetrics(String name) {
+    return metrics.get(name);
+  }
+
+  /**
+   * Returns a live view of all metrics by name.
+   */
+  public Map<String, NodeMetrics> getAllMetrics() {
+    return Collections.unmodifiableMap(metrics);
+  }
+
+  /**
+   * Calls the consumer with the metrics of every name, for example to report them.
+   */
+  public void forEach(Consumer<NodeMetrics> consumer) {
+    metrics.values().forEach(consumer);
+  }
+
+  /**
+   * Returns estimates of the evaluation time of nodes: the mean {@code evaluate()} time recorded
+   * for their name, or the given default for names without any. Meant for {@link
+   * com.zbiljic.nodez.GraphPlan#updatePriorities}.
+   */
+  public ToLongFunction<Node<?>> evaluateNanosEstimate(long defaultNanos) {
+    return node -> {
+      String name = node.getName();
+      if (!byKey && node.getKey() != null) {
+        name = name.substring(0, name.length() - node.getKey().length() - 1);
+      }
+      NodeMetrics nodeMetrics = metrics.get(name);
+      if (nodeMetrics == null || nodeMetrics.getEvaluate().getCount() == 0) {
+        return defaultNanos;
+      }
+      LatencyHistogram evaluate = nodeMetrics.getEvaluate();
+      return evaluate.getTotalNanos() / evaluate.getCount();
+    };
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.metrics;
+
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTiming;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of all evaluations of nodes with the same name: a striped counter for every {@link
+ * NodeOutcome}, and latency histograms of the time spent waiting on dependencies and in {@code
+ * evaluate()}.
+ */
+public final class NodeMetrics {
+
+  private static final NodeOutcome[] OUTCOMES = NodeOutcome.values();
+
+  private final String name;
+  private final LongAdder[] outcomes = new LongAdder[OUTCOMES.length];
+  private final LatencyHistogram dependencyWait = new LatencyHistogram();
+  private final LatencyHistogram evaluate = new LatencyHistogram();
+
+  NodeMetrics(String name) {
+    this.name = name;
+    for (int i = 0; i < outcomes.length; i++) {
+      outcomes[i] = new LongAdder();
+    }
+  }
+
+  void record(NodeOutcome outcome, NodeTiming timing) {
+    outcomes[outcome.ordinal()].increment();
+    dependencyWait.record(timing.getDependencyWaitNanos());
+    if (outcome != NodeOutcome.DECIDED_OFF && outcome != NodeOutcome.CANCELLED_BEFORE_EVALUATION) {
+      evaluate.record(timing.getEvaluateNanos());
+    }
+  }
+
+  /**
+   * Returns the name the metrics are kept under.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the number of evaluations which ended with the given outcome.
+   */
+  public long getCount(NodeOutcome outcome) {
+    return outcomes[outcome.ordinal()].sum();
+  }
+
+  /**
+   * Returns the number of all evaluations.
+   */
+  public long getTotalCount() {
+    long total = 0;
+    for (LongAdder outcome : outcomes) {
+      total += outcome.sum();
+    }
+    return total;
+  }
+
+  /**
+   * Returns the histogram of the time from applying a node until all of its dependencies were
+   * complete.
+   */
+  public LatencyHistogram getDependencyWait() {
+    return dependencyWait;
+  }
+
+  /**
+   * Returns the histogram of the time spent in {@code evaluate()}, of nodes which were not decided
+   * off or cancelled.
+   */
+  public LatencyHistogram getEvaluate() {
+    return evaluate;
+  }
+
+  @Override
+  public String toString() {
+    return "NodeMetrics{name=" + name + ", count=" + getTotalCount() + "}";
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.metrics;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTiming;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the outcome and timing of every node evaluation of graphs applied with an {@link
+ * ExecutionContext} that has {@link ExecutionContext.Builder#withMetrics(NodeMetricsListener)
+ * metrics} enabled.
+ * <p>
+ * This is the extension point for bridging node metrics to a metrics system. {@link
+ * MetricsRegistry} is an implementation which aggregates them in memory.
+ * <p>
+ * The listener is called on the thread completing the node, before the future of the node
+ * completes, so implementations must be thread safe and fast. Exceptions thrown by the listener are
+ * logged and otherwise ignored.
+ */
+public interface NodeMetricsListener {
+
+  /**
+   * Called when a node completes.
+   *
+   * @param name    the name of the node, without its key
+   * @param key     the key of the node, see {@link com.zbiljic.nodez.Node#getKey()}
+   * @param outcome how the evaluation ended
+   * @param timing  timing of the evaluation
+   */
+  void nodeCompleted(String name, @Nullable String key, NodeOutcome outcome, NodeTiming timing);
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.NodeTiming;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes node spans in the Chrome Trace Event format.
+ *
+ * @see <a href="https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU">Trace
+ * Event Format</a>
+ */
+final class ChromeTraceWriter {
+
+  private static final int PID = 1;
+
+  private ChromeTraceWriter() { /* No instance methods */ }
+
+  static void write(List<NodeSpan> spans, Appendable out) throws IOException {
+    long origin = Long.MAX_VALUE;
+    Map<Long, String> threads = new LinkedHashMap<>();
+    for (NodeSpan span : spans) {
+      origin = Math.min(origin, span.getTiming().getAppliedNanos());
+      threads.putIfAbsent(span.getThreadId(), span.getThreadName());
+    }
+
+    out.append("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+    boolean first = true;
+    for (Map.Entry<Long, String> thread : threads.entrySet()) {
+      first = separate(out, first);
+      out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(String.valueOf(PID))
+        .append(",\"tid\":").append(String.valueOf(thread.getKey()))
+        .append(",\"args\":{\"name\":");
+      appendString(out, thread.getValue());
+      out.append("}}");
+    }
+
+    int flowId = 0;
+    for (NodeSpan span : spans) {
+      NodeTiming timing = span.getTiming();
+      String tid = String.valueOf(span.getThreadId());
+      String id = String.valueOf(span.getId());
+
+      // the whole lifetime of the node, from being applied until complete
+      first = separate(out, first);
+      appendEventStart(out, span.getName(), "b", timing.getAppliedNanos() - origin);
+      out.append(",\"cat\":\"node\",\"id\":").append(id).append(",\"tid\":").append(tid)
+        .append(",\"args\":{\"outcome\":\"").append(span.getOutcome().name()).append("\"}}");
+      out.append(',');
+      appendEventStart(out, span.getName(), "e", timing.getCompletedNanos() - origin);
+      out.append(",\"cat\":\"node\",\"id\":").append(id).append(",\"tid\":").append(tid).append('}');
+
+      // evaluate() on the thread it ran on
+      out.append(',');
+      appendEventStart(out, span.getName(), "X", timing.getEvaluateStartNanos() - origin);
+      out.append(",\"dur\":");
+      appendMicros(out, timing.getEvaluateNanos());
+      out.append(",\"cat\":\"evaluate\",\"tid\":").append(tid)
+        .append(",\"args\":{\"id\":").append(id)
+        .append(",\"outcome\":\"").append(span.getOutcome().name()).append('"')
+        .append(",\"dependencies\":[");
+      for (int i = 0; i < span.getDependencyIds().size(); i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        appendString(out, spans.get(span.getDependencyIds().get(i)).getName());
+      }
+      out.append("]}}");
+
+      // a flow from the evaluation of every dependency to the evaluation of this node
+      for (int dependencyId : span.getDependencyIds()) {
+        NodeSpan dependency = spans.get(dependencyId);
+        String flow = String.valueOf(flowId++);
+        out.append(',');
+        appendEventStart(out, "dependency", "s", dependency.getTiming().getEvaluateStartNanos() - origin);
+        out.append(",\"cat\":\"dependency\",\"id\":").append(flow)
+          .append(",\"tid\":").append(String.valueOf(dependency.getThreadId())).append('}');
+        out.append(',');
+        appendEventStart(out, "dependency", "f", timing.getEvaluateStartNanos() - origin);
+        out.append(",\"bp\":\"e\",\"cat\":\"dependency\",\"id\":").append(flow)
+          .append(",\"tid\":").append(tid).append('}');
+      }
+    }
+    out.append("]}");
+  }
+
+  private static boolean separate(Appendable out, boolean first) throws IOException {
+    if (!first) {
+      out.append(',');
+    }
+    return false;
+  }
+
+  /**
+   * Appends the opening brace and the fields shared by all events, leaving the object open.
+   */
+  private static void appendEventStart(Appendable out, String name, String phase, long nanos) throws IOException {
+    out.append("{\"name\":");
+    appendString(out, name);
+    out.append(",\"ph\":\"").append(phase).append("\",\"pid\":").append(String.valueOf(PID))
+      .append(",\"ts\":");
+    appendMicros(out, nanos);
+  }
+
+  /**
+   * Appends nanoseconds as microseconds, the unit of the trace format, without losing precision.
+   */
+  static void appendMicros(Appendable out, long nanos) throws IOException {
+    if (nanos < 0) {
+      out.append('-');
+      nanos = -nanos;
+    }
+    out.append(String.valueOf(nanos / 1000));
+    long fraction = nanos % 1000;
+    if (fraction != 0) {
+      out.append('.');
+      if (fraction < 100) {
+        out.append('0');
+      }
+      if (fraction < 10) {
+        out.append('0');
+      }
+      out.append(String.valueOf(fraction));
+    }
+  }
+
+  static void appendString(Appendable out, String value) throws IOException {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    out.append('"');
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of {@link CriticalPathAnalyzer}: the critical path of a graph execution and the slack
+ * of every node. Times are in nanoseconds of the clock the analyzed timings were taken with.
+ */
+public final class CriticalPath {
+
+  /**
+   * A node of the analyzed graph.
+   */
+  public static final class Step {
+
+    private final String name;
+    private final long appliedNanos;
+    private final long readyNanos;
+    private final long completedNanos;
+    private final long slackNanos;
+    private final boolean critical;
+    private final long criticalNanos;
+
+    Step(String name,
+         long appliedNanos,
+         long readyNanos,
+         long completedNanos,
+         long slackNanos,
+         boolean critical,
+         long criticalNanos) {
+      this.name = name;
+      this.appliedNanos = appliedNanos;
+      this.readyNanos = readyNanos;
+      this.completedNanos = completedNanos;
+      this.slackNanos = slackNanos;
+      this.critical = critical;
+      this.criticalNanos = criticalNanos;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getAppliedNanos() {
+      return appliedNanos;
+    }
+
+    public long getReadyNanos() {
+      return readyNanos;
+    }
+
+    public long getCompletedNanos() {
+      return completedNanos;
+    }
+
+    /**
+     * Returns the time from the node being ready until it completed, which is the part of its
+     * latency that is its own.
+     */
+    public long getSelfNanos() {
+      return completedNanos - readyNanos;
+    }
+
+    /**
+     * Returns how much later the node could have completed without delaying the root.
+     */
+    public long getSlackNanos() {
+      return slackNanos;
+    }
+
+    /**
+     * Returns {@code true} if the node is on the critical path.
+     */
+    public boolean isCritical() {
+      return critical;
+    }
+
+    /**
+     * Returns the time this node added to the critical path: from the completion of the previous
+     * node on the path (or its own application, for the first one) until it completed. Zero for
+     * nodes which are not on the critical path.
+     */
+    public long getCriticalNanos() {
+      return criticalNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Step{name=" + name + ", critical=" + criticalNanos + "ns, slack=" + slackNanos + "ns}";
+    }
+  }
+
+  private final List<Step> path;
+  private final List<Step> nodes;
+
+  CriticalPath(List<Step> path, List<Step> nodes) {
+    this.path = Collections.unmodifiableList(path);
+    this.nodes = Collections.unmodifiableList(nodes);
+  }
+
+  /**
+   * Returns the critical path, from its first node to the root.
+   */
+  public List<Step> getPath() {
+    return path;
+  }
+
+  /**
+   * Returns all nodes reachable from the root, every node after the nodes it depends on.
+   */
+  public List<Step> getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Returns the end-to-end latency, from the application of the root until it completed.
+   * <p>
+   * This is the sum of the critical times of the path, unless the first node of the path was
+   * applied after the root, for example because the thread was busy applying other nodes first.
+   * That time is not attributed to any node.
+   */
+  public long getTotalNanos() {
+    Step root = path.get(path.size() - 1);
+    return root.getCompletedNanos() - root.getAppliedNanos();
+  }
+
+  @Override
+  public String toString() {
+    return "CriticalPath{total=" + getTotalNanos() + "ns, path=" + path + "}";
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.NodeTiming;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Finds the critical path of a completed graph execution: the chain of nodes, from the root back
+ * through the dependency which completed last at every step, that determined the end-to-end
+ * latency.
+ * <p>
+ * Besides the path, every node reachable from the root gets its slack: how much later it could
+ * have completed without delaying the root. A node becomes ready when the last of its dependencies
+ * completes and then takes its own time ({@code completed - ready}) until it completes, so the
+ * latest a node may complete is the earliest latest-ready time of the nodes depending on it. Inputs
+ * a node applies itself, like the node wrapped by a timeout, count as dependencies, and its own
+ * time starts when the last of them completes. Nodes on the critical path have no slack.
+ * <p>
+ * The analysis works on live nodes, using their {@link NodeTiming}, and on exported traces, either
+ * {@link NodeSpan}s of an {@link ExecutionTrace} or OpenTelemetry {@link TraceSpan}s. Nodes
+ * without timing (never applied, or still running) are left out. {@link CriticalPathStats}
+ * aggregates the results of many executions.
+ */
+public final class CriticalPathAnalyzer {
+
+  private CriticalPathAnalyzer() { /* No instance methods */ }
+
+  /**
+   * Analyze the last execution of the graph of the given root node, which was applied with timing
+   * enabled.
+   */
+  public static CriticalPath analyze(Node<?> root) {
+    return analyze(root, Node::getTiming);
+  }
+
+  /**
+   * Analyze the graph of the given root node with the given timings, for example {@code
+   * execution::getTiming} for an execution of a {@link GraphPlan}.
+   */
+  public static CriticalPath analyze(Node<?> root, Function<Node<?>, NodeTiming> timings) {
+    Map<Node<?>, Vertex> vertices = new IdentityHashMap<>();
+    Vertex rootVertex = vertexOf(root, timings, vertices);
+    if (rootVertex == null) {
+      throw new IllegalArgumentException("Root node [" + root.getName() + "] has no timing");
+    }
+    Deque<Node<?>> pending = new ArrayDeque<>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      Node<?> node = pending.pop();
+      Vertex vertex = vertices.get(node);
+      for (Node<?> dependency : node.getAllInputs()) {
+        boolean visited = vertices.containsKey(dependency);
+        Vertex dependencyVertex = vertexOf(dependency, timings, vertices);
+        if (dependencyVertex != null) {
+          addDependency(vertex, dependencyVertex);
+          if (!visited) {
+            pending.push(dependency);
+          }
+        }
+      }
+    }
+    return analyze(rootVertex);
+  }
+
+  /**
+   * Analyze the spans recorded by the given trace, with the node which completed last among the
+   * ones no other node depends on as the root.
+   */
+  public static CriticalPath analyze(ExecutionTrace trace) {
+    List<NodeSpan> spans = trace.getSpans();
+    if (spans.isEmpty()) {
+      throw new IllegalArgumentException("Trace has no spans");
+    }
+    boolean[] isDependency = new boolean[spans.size()];
+    for (NodeSpan span : spans) {
+      for (int dependencyId : span.getDependencyIds()) {
+        isDependency[dependencyId] = true;
+      }
+    }
+    NodeSpan root = null;
+    for (NodeSpan span : spans) {
+      if (!isDependency[span.getId()]
+          && (root == null || span.getTiming().getCompletedNanos() > root.getTiming().getCompletedNanos())) {
+        root = span;
+      }
+    }
+    return analyze(spans, root.getId());
+  }
+
+  /**
+   * Analyze node spans, starting from the span with the given id.
+   */
+  public static CriticalPath analyze(List<NodeSpan> spans, int rootId) {
+    List<Vertex> vertices = new ArrayList<>(spans.size());
+    for (NodeSpan span : spans) {
+      NodeTiming timing = span.getTiming();
+      vertices.add(new Vertex(span.getName(),
+        timing.getAppliedNanos(), timing.getReadyNanos(), timing.getCompletedNanos()));
+    }
+    for (NodeSpan span : spans) {
+      for (int dependencyId : span.getDependencyIds()) {
+        addDependency(vertices.get(span.getId()), vertices.get(dependencyId));
+      }
+    }
+    return analyze(vertices.get(rootId));
+  }
+
+  /**
+   * Analyze OpenTelemetry spans exported from an {@link ExecutionTrace}, starting from the node
+   * span which completed last among the ones no other span links to. Times are the epoch times of
+   * the spans.
+   */
+  public static CriticalPath analyzeTraceSpans(List<TraceSpan> spans) {
+    Map<String, Vertex> vertices = new HashMap<>();
+    List<TraceSpan> nodeSpans = new ArrayList<>();
+    for (TraceSpan span : spans) {
+      if (TraceSpan.EXECUTION_SPAN_NAME.equals(span.getName())) {
+        continue;
+      }
+      long ready = span.getStartEpochNanos();
+      for (TraceSpan.Event event : span.getEvents()) {
+        if (TraceSpan.READY_EVENT.equals(event.getName())) {
+          ready = event.getEpochNanos();
+        }
+      }
+      vertices.put(span.getSpanId(),
+        new Vertex(span.getName(), span.getStartEpochNanos(), ready, span.getEndEpochNanos()));
+      nodeSpans.add(span);
+    }
+    Map<String, Boolean> linked = new HashMap<>();
+    for (TraceSpan span : nodeSpans) {
+      for (String link : span.getLinks()) {
+        Vertex dependency = vertices.get(link);
+        if (dependency != null) {
+          addDependency(vertices.get(span.getSpanId()), dependency);
+          linked.put(link, true);
+        }
+      }
+    }
+    Vertex root = null;
+    for (TraceSpan span : nodeSpans) {
+      Vertex vertex = vertices.get(span.getSpanId());
+      if (!linked.containsKey(span.getSpanId()) && (root == null || vertex.completed > root.completed)) {
+        root = vertex;
+      }
+    }
+    if (root == null) {
+      throw new IllegalArgumentException("No node spans");
+    }
+    return analyze(root);
+  }
+
+  private static Vertex vertexOf(Node<?> node, Function<Node<?>, NodeTiming> timings, Map<Node<?>, Vertex> vertices) {
+    Vertex vertex = vertices.get(node);
+    if (vertex == null && !vertices.containsKey(node)) {
+      NodeTiming timing = timings.apply(node);
+      if (timing != null) {
+        vertex = new Vertex(node.getName(),
+          timing.getAppliedNanos(), timing.getReadyNanos(), timing.getCompletedNanos());
+      }
+      vertices.put(node, vertex);
+    }
+    return vertex;
+  }
+
+  private static void addDependency(Vertex vertex, Vertex dependency) {
+    vertex.dependencies.add(dependency);
+  }
+
+  private static CriticalPath analyze(Vertex root) {
+    // nodes reachable from the root, every node after all the nodes depending on it
+    List<Vertex> order = new ArrayList<>();
+    Map<Vertex, Integer> remainingDependents = new IdentityHashMap<>();
+    Deque<Vertex> pending = new ArrayDeque<>();
+    pending.push(root);
+    remainingDependents.put(root, 0);
+    List<Vertex> reachable = new ArrayList<>();
+    while (!pending.isEmpty()) {
+      Vertex vertex = pending.pop();
+      reachable.add(vertex);
+      for (Vertex dependency : vertex.dependencies) {
+        if (!remainingDependents.containsKey(dependency)) {
+          remainingDependents.put(dependency, 0);
+          pending.push(dependency);
+        }
+      }
+    }
+    for (Vertex vertex : reachable) {
+      for (Vertex dependency : vertex.dependencies) {
+        remainingDependents.merge(dependency, 1, Integer::sum);
+      }
+    }
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      Vertex vertex = pending.pop();
+      order.add(vertex);
+      for (Vertex dependency : vertex.dependencies) {
+        if (remainingDependents.merge(dependency, -1, Integer::sum) == 0) {
+          pending.push(dependency);
+        }
+      }
+    }
+
+    // latest completion which does not delay the root
+    Map<Vertex, Long> latestCompleted = new IdentityHashMap<>();
+    latestCompleted.put(root, root.completed);
+    for (Vertex vertex : order) {
+      // inputs applied from evaluate (like the node wrapped by a timeout) complete after ready
+      long ready = vertex.ready;
+      for (Vertex dependency : vertex.dependencies) {
+        ready = Math.max(ready, dependency.completed);
+      }
+      long latestReady = latestCompleted.get(vertex) - (vertex.completed - ready);
+      for (Vertex dependency : vertex.dependencies) {
+        latestCompleted.merge(dependency, latestReady, Math::min);
+      }
+    }
+
+    // time every node of the critical path added to the latency
+    Map<Vertex, Long> critical = new IdentityHashMap<>();
+    List<Vertex> path = new ArrayList<>();
+    Vertex vertex = root;
+    while (vertex != null) {
+      Vertex last = null;
+      for (Vertex dependency : vertex.dependencies) {
+        if (last == null || dependency.completed > last.completed) {
+          last = dependency;
+        }
+      }
+      long start = last != null
+        ? last.completed
+        : vertex.applied;
+      critical.put(vertex, vertex.completed - start);
+      path.add(vertex);
+      vertex = last;
+    }
+    Collections.reverse(path);
+
+    Map<Vertex, CriticalPath.Step> steps = new IdentityHashMap<>();
+    List<CriticalPath.Step> nodes = new ArrayList<>(order.size());
+    for (int i = order.size() - 1; i >= 0; i--) {
+      Vertex node = order.get(i);
+      CriticalPath.Step step = new CriticalPath.Step(node.name, node.applied, node.ready,
+        node.completed, latestCompleted.get(node) - node.completed,
+        critical.containsKey(node), critical.getOrDefault(node, 0L));
+      steps.put(node, step);
+      nodes.add(step);
+    }
+    List<CriticalPath.Step> pathSteps = new ArrayList<>(path.size());
+    for (Vertex node : path) {
+      pathSteps.add(steps.get(node));
+    }
+    return new CriticalPath(pathSteps, nodes);
+  }
+
+  /**
+   * A node of the analyzed graph.
+   */
+  private static final class Vertex {
+
+    final String name;
+    final long applied;
+    final long ready;
+    final long completed;
+    // vertices are compared by identity, so a set keeps each dependency once in constant time
+    final Set<Vertex> dependencies = new LinkedHashSet<>(4);
+
+    Vertex(String name, long applied, long ready, long completed) {
+      this.name = name;
+      this.applied = applied;
+      this.ready = ready;
+      this.completed = completed;
+    }
+  }
+}
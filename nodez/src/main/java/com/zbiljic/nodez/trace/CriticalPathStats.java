@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates critical paths of many executions by node name, to find the nodes which most often
+ * determine the latency and are worth optimizing or caching. Thread safe.
+ */
+public final class CriticalPathStats {
+
+  private final LongAdder executions = new LongAdder();
+  private final ConcurrentHashMap<String, NodeStats> stats = new ConcurrentHashMap<>();
+
+  /**
+   * Add the result of one analysis.
+   */
+  public void add(CriticalPath criticalPath) {
+    executions.increment();
+    for (CriticalPath.Step step : criticalPath.getNodes()) {
+      NodeStats nodeStats = stats.get(step.getName());
+      if (nodeStats == null) {
+        nodeStats = stats.computeIfAbsent(step.getName(), NodeStats::new);
+      }
+      nodeStats.add(step);
+    }
+  }
+
+  /**
+   * Returns the number of added critical paths.
+   */
+  public long getExecutions() {
+    return executions.sum();
+  }
+
+  /**
+   * Returns the stats of the given node name, or {@code null} if no node with the name was seen.
+   */
+  @Nullable
+  public NodeStats getStats(String name) {
+    return stats.get(name);
+  }
+
+  /**
+   * Returns a live view of the stats of all node names.
+   */
+  public Map<String, NodeStats> getAllStats() {
+    return Collections.unmodifiableMap(stats);
+  }
+
+  public void forEach(Consumer<NodeStats> consumer) {
+    stats.values().forEach(consumer);
+  }
+
+  /**
+   * Stats of the nodes with one name.
+   */
+  public static final class NodeStats {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder criticalCount = new LongAdder();
+    private final LongAdder criticalNanos = new LongAdder();
+    private final LongAdder slackNanos = new LongAdder();
+
+    NodeStats(String name) {
+      this.name = name;
+    }
+
+    void add(CriticalPath.Step step) {
+      count.increment();
+      if (step.isCritical()) {
+        criticalCount.increment();
+        criticalNanos.add(step.getCriticalNanos());
+      }
+      slackNanos.add(step.getSlackNanos());
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the number of times the node was seen.
+     */
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * Returns the number of times the node was on the critical path.
+     */
+    public long getCriticalCount() {
+      return criticalCount.sum();
+    }
+
+    /**
+     * Returns the sum of the time the node added to critical paths.
+     */
+    public long getCriticalNanos() {
+      return criticalNanos.sum();
+    }
+
+    /**
+     * Returns the sum of the slack of the node.
+     */
+    public long getSlackNanos() {
+      return slackNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+      return "NodeStats{name=" + name + ", count=" + getCount() + ", criticalCount="
+        + getCriticalCount() + ", criticalNanos=" + getCriticalNanos() + "}";
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTiming;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records a {@link NodeSpan} for every node of one execution of a graph, to see which nodes ran in
+ * parallel and which were serialized.
+ * <p>
+ * A trace is given to the {@link ExecutionContext} of the execution with {@link
+ * ExecutionContext.Builder#withTrace(ExecutionTrace)}, which also turns on timing. Nodes record
+ * themselves when they complete into a buffer sized up front, with one atomic increment and one
+ * array write, so tracing adds little to the timings it records. Nodes completing after the buffer
+ * is full are counted as {@linkplain #getDroppedCount() dropped}. For a {@link
+ * com.zbiljic.nodez.GraphPlan} the {@linkplain com.zbiljic.nodez.GraphPlan#size() size} of the plan
+ * is the right capacity.
+ * <p>
+ * Once the execution is complete, the trace can be exported as Chrome Trace Event JSON, viewable in
+ * Perfetto or {@code chrome://tracing}, or as spans of the OpenTelemetry model:
+ * <pre>{@code
+ * ExecutionTrace trace = new ExecutionTrace(plan.size());
+ * plan.execute(context.toBuilder().withTrace(trace).build()).join();
+ * trace.writeChromeTrace(writer);
+ * }</pre>
+ */
+public final class ExecutionTrace {
+
+  private final AtomicReferenceArray<Record> records;
+  private final AtomicInteger recorded = new AtomicInteger();
+  private final long createdEpochNanos = System.currentTimeMillis() * 1_000_000L;
+
+  /**
+   * Create a trace with room for the given number of nodes.
+   */
+  public ExecutionTrace(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+    }
+    this.records = new AtomicReferenceArray<>(capacity);
+  }
+
+  /**
+   * Called by a node of the traced execution when it completes.
+   *
+   * @param node    the completed node
+   * @param outcome how its evaluation ended
+   * @param timing  timing of its evaluation
+   * @param thread  the thread which evaluated it, or completed it if it was not evaluated
+   */
+  public void record(Node<?> node, NodeOutcome outcome, NodeTiming timing, Thread thread) {
+    int index = recorded.getAndIncrement();
+    if (index < records.length()) {
+      records.set(index, new Record(node, outcome, timing, thread));
+    }
+  }
+
+  /**
+   * Returns how many nodes can be recorded.
+   */
+  public int getCapacity() {
+    return records.length();
+  }
+
+  /**
+   * Returns how many completed nodes did not fit into the trace.
+   */
+  public int getDroppedCount() {
+    return Math.max(recorded.get() - records.length(), 0);
+  }
+
+  /**
+   * Returns the spans of the nodes recorded so far, in the order they completed. Span ids are
+   * indexes into the returned list.
+   */
+  public List<NodeSpan> getSpans() {
+    List<Record> completed = new ArrayList<>();
+    int size = Math.min(recorded.get(), records.length());
+    for (int i = 0; i < size; i++) {
+      Record record = records.get(i);
+      // the slot was claimed but the node is still being recorded
+      if (record != null) {
+        completed.add(record);
+      }
+    }
+
+    Map<Node<?>, Integer> ids = new IdentityHashMap<>(completed.size());
+    for (int id = 0; id < completed.size(); id++) {
+      ids.put(completed.get(id).node, id);
+    }
+    List<NodeSpan> spans = new ArrayList<>(completed.size());
+    for (int id = 0; id < completed.size(); id++) {
+      Record record = completed.get(id);
+      List<Integer> dependencyIds = new ArrayList<>();
+      // every input is returned once, so the ids of the recorded ones are distinct
+      for (Node<?> dependency : record.node.getAllInputs()) {
+        Integer dependencyId = ids.get(dependency);
+        if (dependencyId != null) {
+          dependencyIds.add(dependencyId);
+        }
+      }
+      spans.add(new NodeSpan(id, record.node.getName(), record.outcome, record.timing,
+        record.thread.getName(), record.thread.getId(), dependencyIds));
+    }
+    return Collections.unmodifiableList(spans);
+  }
+
+  /**
+   * Writes the recorded spans as Chrome Trace Event JSON. Times are relative to the first applied
+   * node.
+   * <p>
+   * Every node is an async slice from being applied until it completed, and a slice of {@code
+   * evaluate()} on the thread which evaluated it. Flow arrows lead from each dependency to the
+   * evaluation of the nodes depending on it.
+   */
+  public void writeChromeTrace(Appendable out) throws IOException {
+    ChromeTraceWriter.write(getSpans(), out);
+  }
+
+  /**
+   * Returns the recorded spans as a Chrome Trace Event JSON string.
+   *
+   * @see #writeChromeTrace(Appendable)
+   */
+  public String toChromeTrace() {
+    StringBuilder out = new StringBuilder();
+    try {
+      writeChromeTrace(out);
+    } catch (IOException e) {
+      throw new AssertionError(e);  // StringBuilder does not throw
+    }
+    return out.toString();
+  }
+
+  /**
+   * Returns the recorded spans as OpenTelemetry spans of a new trace, under a root span of the
+   * whole execution.
+   *
+   * @see #toTraceSpans(String, String)
+   */
+  public List<TraceSpan> toTraceSpans() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return toTraceSpans(TraceSpan.toHex(random.nextLong()) + TraceSpan.toHex(random.nextLong()), null);
+  }
+
+  /**
+   * Returns the recorded spans as OpenTelemetry spans of the given trace.
+   * <p>
+   * The first span covers the whole execution and is a child of the given parent span, the other
+   * spans are its children, one for every node, with links to the spans of their dependencies.
+   * Times are converted to epoch nanoseconds by taking the time this trace was created as the
+   * start of the execution.
+   *
+   * @param traceId      32 lowercase hex characters
+   * @param parentSpanId 16 lowercase hex characters, or {@code null} for a root span
+   */
+  public List<TraceSpan> toTraceSpans(String traceId, @Nullable String parentSpanId) {
+    return TraceSpan.fromNodeSpans(getSpans(), traceId, parentSpanId, createdEpochNanos);
+  }
+
+  private static final class Record {
+
+    final Node<?> node;
+    final NodeOutcome outcome;
+    final NodeTiming timing;
+    final Thread thread;
+
+    Record(Node<?> node, NodeOutcome outcome, NodeTiming timing, Thread thread) {
+      this.node = node;
+      this.outcome = outcome;
+      this.timing = timing;
+      this.thread = thread;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTiming;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The span of one node in an {@link ExecutionTrace}: its timing, outcome, the thread it was
+ * evaluated on and the spans of its dependencies.
+ */
+public final class NodeSpan {
+
+  private final int id;
+  private final String name;
+  private final NodeOutcome outcome;
+  private final NodeTiming timing;
+  private final String threadName;
+  private final long threadId;
+  private final List<Integer> dependencyIds;
+
+  public NodeSpan(int id,
+                  String name,
+                  NodeOutcome outcome,
+                  NodeTiming timing,
+                  String threadName,
+                  long threadId,
+                  List<Integer> dependencyIds) {
+    this.id = id;
+    this.name = name;
+    this.outcome = outcome;
+    this.timing = timing;
+    this.threadName = threadName;
+    this.threadId = threadId;
+    this.dependencyIds = Collections.unmodifiableList(dependencyIds);
+  }
+
+  /**
+   * Returns the id of the span, unique within its trace.
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Returns the name of the node, including its key.
+   */
+  public String getName() {
+    return name;
+  }
+
+  public NodeOutcome getOutcome() {
+    return outcome;
+  }
+
+  public NodeTiming getTiming() {
+    return timing;
+  }
+
+  /**
+   * Returns the name of the thread which evaluated the node, or completed it if it was not
+   * evaluated.
+   */
+  public String getThreadName() {
+    return threadName;
+  }
+
+  public long getThreadId() {
+    return threadId;
+  }
+
+  /**
+   * Returns the ids of the spans of the inputs of the node which are part of the trace, see {@link
+   * com.zbiljic.nodez.Node#getAllInputs()}.
+   */
+  public List<Integer> getDependencyIds() {
+    return dependencyIds;
+  }
+
+  @Override
+  public String toString() {
+    return "NodeSpan{id=" + id + ", name=" + name + ", outcome=" + outcome + ", " + timing + "}";
+  }
+}
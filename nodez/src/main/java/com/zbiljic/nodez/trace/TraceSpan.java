@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTiming;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A span in the OpenTelemetry data model, with ids as lowercase hex strings and times in epoch
+ * nanoseconds, ready to be handed to an OpenTelemetry exporter without depending on it.
+ * <p>
+ * Node spans carry the {@link NodeOutcome} in the {@value #OUTCOME} attribute, the thread in the
+ * standard {@code thread.name} and {@code thread.id} attributes, the phases of their {@link
+ * NodeTiming} as events and links to the spans of their dependencies. Failed nodes have the {@link
+ * StatusCode#ERROR} status, all other spans leave it {@link StatusCode#UNSET}.
+ */
+public final class TraceSpan {
+
+  public static final String EXECUTION_SPAN_NAME = "nodez.execution";
+  public static final String OUTCOME = "nodez.outcome";
+  public static final String READY_EVENT = "ready";
+  public static final String EVALUATE_START_EVENT = "evaluate.start";
+  public static final String EVALUATE_END_EVENT = "evaluate.end";
+
+  /**
+   * Status of a span.
+   */
+  public enum StatusCode {
+    UNSET,
+    OK,
+    ERROR,
+  }
+
+  /**
+   * A named point in time within a span.
+   */
+  public static final class Event {
+
+    private final String name;
+    private final long epochNanos;
+
+    public Event(String name, long epochNanos) {
+      this.name = name;
+      this.epochNanos = epochNanos;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getEpochNanos() {
+      return epochNanos;
+    }
+
+    @Override
+    public String toString() {
+      return name + "@" + epochNanos;
+    }
+  }
+
+  private final String traceId;
+  private final String spanId;
+  @Nullable
+  private final String parentSpanId;
+  private final String name;
+  private final long startEpochNanos;
+  private final long endEpochNanos;
+  private final Map<String, Object> attributes;
+  private final List<Event> events;
+  private final List<String> links;
+  private final StatusCode status;
+
+  public TraceSpan(String traceId,
+                   String spanId,
+                   @Nullable String parentSpanId,
+                   String name,
+                   long startEpochNanos,
+                   long endEpochNanos,
+                   Map<String, Object> attributes,
+                   List<Event> events,
+                   List<String> links,
+                   StatusCode status) {
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.parentSpanId = parentSpanId;
+    this.name = name;
+    this.startEpochNanos = startEpochNanos;
+    this.endEpochNanos = endEpochNanos;
+    this.attributes = Collections.unmodifiableMap(attributes);
+    this.events = Collections.unmodifiableList(events);
+    this.links = Collections.unmodifiableList(links);
+    this.status = status;
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  public String getSpanId() {
+    return spanId;
+  }
+
+  /**
+   * Returns the id of the parent span, or {@code null} for a root span.
+   */
+  @Nullable
+  public String getParentSpanId() {
+    return parentSpanId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getStartEpochNanos() {
+    return startEpochNanos;
+  }
+
+  public long getEndEpochNanos() {
+    return endEpochNanos;
+  }
+
+  /**
+   * Returns the attributes, with {@code String} or {@code Long} values.
+   */
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+
+  public List<Event> getEvents() {
+    return events;
+  }
+
+  /**
+   * Returns the ids of the spans linked from this span, in the same trace.
+   */
+  public List<String> getLinks() {
+    return links;
+  }
+
+  public StatusCode getStatus() {
+    return status;
+  }
+
+  @Override
+  public String toString() {
+    return "TraceSpan{name=" + name + ", spanId=" + spanId + ", parentSpanId=" + parentSpanId
+      + ", attributes=" + attributes + "}";
+  }
+
+  /**
+   * Converts node spans, with times of the timing clock, to trace spans starting at the given epoch
+   * time.
+   */
+  static List<TraceSpan> fromNodeSpans(List<NodeSpan> nodeSpans,
+                                       String traceId,
+                                       @Nullable String parentSpanId,
+                                       long startEpochNanos) {
+    long origin = Long.MAX_VALUE;
+    long end = Long.MIN_VALUE;
+    for (NodeSpan span : nodeSpans) {
+      origin = Math.min(origin, span.getTiming().getAppliedNanos());
+      end = Math.max(end, span.getTiming().getCompletedNanos());
+    }
+    if (nodeSpans.isEmpty()) {
+      origin = 0;
+      end = 0;
+    }
+    long offset = startEpochNanos - origin;
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String executionSpanId = newSpanId(random);
+    String[] spanIds = new String[nodeSpans.size()];
+    for (int i = 0; i < spanIds.length; i++) {
+      spanIds[i] = newSpanId(random);
+    }
+
+    List<TraceSpan> spans = new ArrayList<>(nodeSpans.size() + 1);
+    Map<String, Object> executionAttributes = new LinkedHashMap<>();
+    executionAttributes.put("nodez.nodes", (long) nodeSpans.size());
+    spans.add(new TraceSpan(traceId, executionSpanId, parentSpanId, EXECUTION_SPAN_NAME,
+      origin + offset, end + offset, executionAttributes, Collections.emptyList(),
+      Collections.emptyList(), StatusCode.UNSET));
+
+    for (NodeSpan span : nodeSpans) {
+      NodeTiming timing = span.getTiming();
+      Map<String, Object> attributes = new LinkedHashMap<>();
+      attributes.put(OUTCOME, span.getOutcome().name());
+      attributes.put("thread.name", span.getThreadName());
+      attributes.put("thread.id", span.getThreadId());
+      List<Event> events = Arrays.asList(
+        new Event(READY_EVENT, timing.getReadyNanos() + offset),
+        new Event(EVALUATE_START_EVENT, timing.getEvaluateStartNanos() + offset),
+        new Event(EVALUATE_END_EVENT, timing.getEvaluateStopNanos() + offset));
+      List<String> links = new ArrayList<>(span.getDependencyIds().size());
+      for (int dependencyId : span.getDependencyIds()) {
+        links.add(spanIds[dependencyId]);
+      }
+      spans.add(new TraceSpan(traceId, spanIds[span.getId()], executionSpanId, span.getName(),
+        timing.getAppliedNanos() + offset, timing.getCompletedNanos() + offset, attributes, events,
+        links, span.getOutcome() == NodeOutcome.FAILURE ? StatusCode.ERROR : StatusCode.UNSET));
+    }
+    return Collections.unmodifiableList(spans);
+  }
+
+  private static String newSpanId(ThreadLocalRandom random) {
+    long id;
+    do {
+      id = random.nextLong();
+    } while (id == 0);
+    return toHex(id);
+  }
+
+  /**
+   * Returns the 16 lowercase hex characters of the value.
+   */
+  static String toHex(long value) {
+    String hex = Long.toHexString(value);
+    StringBuilder padded = new StringBuilder(16);
+    for (int i = hex.length(); i < 16; i++) {
+      padded.append('0');
+    }
+    return padded.append(hex).toString();
+  }
+}
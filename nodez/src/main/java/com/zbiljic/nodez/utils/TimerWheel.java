@@ -0,0 +1,313 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed wheel timer running short tasks after a delay on a single daemon thread.
+ * <p>
+ * Scheduling a task only enqueues it, the timer thread moves it into the bucket of its tick on the
+ * next tick. Cancelling only marks it, the timer thread unlinks it when it reaches its bucket. So
+ * scheduling and cancelling are cheap and do not contend on a lock. The price is
+ * precision: a task runs up to one tick after its delay elapsed. This suits timeouts, which are
+ * scheduled often, mostly cancelled and rarely need to be precise.
+ * <p>
+ * Tasks run on the timer thread and should be short, they delay all the other tasks of the timer
+ * otherwise. Exceptions thrown by tasks are logged and ignored.
+ */
+public final class TimerWheel {
+
+  private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+  private static final int STATE_NEW = 0;
+  private static final int STATE_STARTED = 1;
+  private static final int STATE_STOPPED = 2;
+
+  private static final TimerWheel SHARED = new TimerWheel("nodez-timer", 1, TimeUnit.MILLISECONDS, 512);
+
+  /**
+   * Returns the timer shared by all nodes, ticking every millisecond.
+   */
+  public static TimerWheel shared() {
+    return SHARED;
+  }
+
+  private final String threadName;
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final long startTime;
+  private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger state = new AtomicInteger(STATE_NEW);
+
+  // only accessed by the timer thread
+  private long tick;
+
+  /**
+   * Creates a timer whose thread is started when the first task is scheduled.
+   *
+   * @param threadName   name of the timer thread
+   * @param tickDuration duration of a tick
+   * @param unit         unit of the tick duration
+   * @param wheelSize    number of buckets of the wheel, rounded up to a power of two
+   */
+  public TimerWheel(String threadName, long tickDuration, TimeUnit unit, int wheelSize) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+    }
+    if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+      throw new IllegalArgumentException("wheelSize must be between 1 and 2^30: " + wheelSize);
+    }
+    this.threadName = threadName;
+    this.tickNanos = unit.toNanos(tickDuration);
+    int size = 1;
+    while (size < wheelSize) {
+      size <<= 1;
+    }
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = wheel.length - 1;
+    this.startTime = System.nanoTime();
+  }
+
+  /**
+   * Schedules the task to run once the delay elapsed.
+   *
+   * @return handle for cancelling the task
+   * @throws IllegalStateException if the timer was stopped
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+    start();
+    long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+    if (deadline < 0) {
+      deadline = Long.MAX_VALUE;  // overflow
+    }
+    Timeout timeout = new Timeout(task, deadline);
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stops the timer thread. Tasks which did not run yet never will.
+   */
+  public void stop() {
+    // the timer thread notices it within a tick
+    state.set(STATE_STOPPED);
+  }
+
+  private void start() {
+    int current = state.get();
+    if (current == STATE_STARTED) {
+      return;
+    }
+    if (current == STATE_NEW && state.compareAndSet(STATE_NEW, STATE_STARTED)) {
+      Thread thread = new Thread(this::run, threadName);
+      thread.setDaemon(true);
+      thread.start();
+    } else if (state.get() == STATE_STOPPED) {
+      throw new IllegalStateException("Timer " + threadName + " was stopped");
+    }
+  }
+
+  private void run() {
+    tick = (System.nanoTime() - startTime) / tickNanos;
+    while (state.get() == STATE_STARTED) {
+      long now = waitForNextTick();
+      if (now < 0) {
+        break;
+      }
+      transferScheduled();
+      wheel[(int) (tick & mask)].expire(now);
+      tick++;
+    }
+  }
+
+  /**
+   * Sleeps until the end of the current tick, returning the time elapsed since the start of the
+   * timer, or -1 if the timer was stopped meanwhile.
+   */
+  private long waitForNextTick() {
+    long tickEnd = tickNanos * (tick + 1);
+    for (; ; ) {
+      long now = System.nanoTime() - startTime;
+      if (now >= tickEnd) {
+        return now;
+      }
+      if (state.get() != STATE_STARTED) {
+        return -1;
+      }
+      LockSupport.parkNanos(this, tickEnd - now);
+    }
+  }
+
+  private void transferScheduled() {
+    // bounded, so a flood of scheduled tasks cannot starve expiration
+    for (int i = 0; i < 100_000; i++) {
+      Timeout timeout = scheduled.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.state != Timeout.STATE_PENDING) {
+        continue;
+      }
+      long ticks = timeout.deadline / tickNanos;
+      timeout.remainingRounds = (ticks - tick) / wheel.length;
+      // deadlines already passed go to the current tick
+      wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+    }
+  }
+
+  /**
+   * Handle of a scheduled task.
+   */
+  public static final class Timeout {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final long deadline;
+    @Nullable
+    private Runnable task;
+    private volatile int state = STATE_PENDING;
+
+    // only accessed by the timer thread
+    private long remainingRounds;
+    @Nullable
+    private Bucket bucket;
+    @Nullable
+    private Timeout next;
+    @Nullable
+    private Timeout prev;
+
+    Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the task if it did not run yet.
+     *
+     * @return {@code true} if the task will not run because of this call, {@code false} if it ran
+     * (or is running) or was cancelled before
+     */
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, STATE_PENDING, STATE_CANCELLED)) {
+        return false;
+      }
+      // the timer thread never reads the task once cancelled, and unlinks the timeout itself when
+      // its bucket comes round
+      task = null;
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return state == STATE_CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state == STATE_EXPIRED;
+    }
+
+    private void expire() {
+      if (!STATE.compareAndSet(this, STATE_PENDING, STATE_EXPIRED)) {
+        return;
+      }
+      Runnable toRun = task;
+      task = null;
+      try {
+        if (toRun != null) {
+          toRun.run();
+        }
+      } catch (Throwable t) {
+        log.warn("Timer task {} failed", toRun, t);
+      }
+    }
+  }
+
+  /**
+   * Doubly linked list of the timeouts of a tick, only accessed by the timer thread.
+   */
+  private static final class Bucket {
+
+    @Nullable
+    private Timeout head;
+    @Nullable
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = timeout;
+        tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void expire(long now) {
+      Timeout timeout = head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.isCancelled()) {
+          remove(timeout);
+        } else if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+          remove(timeout);
+          timeout.expire();
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        tail = timeout.prev;
+      }
+      timeout.next = null;
+      timeout.prev = null;
+      timeout.bucket = null;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.metrics.MetricsRegistry;
+import org.testng.annotations.Test;
+
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class CancellationTest extends NodeTestBase {
+
+  private static final ExecutionContext INLINE = ExecutionContext.builder()
+    .withInlineExecution(true)
+    .build();
+
+  @Test
+  public void testSharedNodesAreNotCancelled() throws Exception {
+    Queue<Runnable> queue = new ArrayDeque<>();
+    ExecutionContext queued = ExecutionContext.builder()
+      .withExecutor(queue::add)
+      .withMaxInlineDepth(0)
+      .build();
+    Node<Boolean> constant = Node.value(true, "constant");
+    Node<Optional<String>> empty = Node.empty();
+
+    // constant nodes are shared by all executions, cancelling one must not cancel them
+    Node.TRUE.map("not", value -> !value).apply(queued).cancel(true);
+    constant.map("not", value -> !value).apply(queued).cancel(true);
+    empty.map("get", Optional::isPresent).apply(queued).cancel(true);
+    while (!queue.isEmpty()) {
+      queue.poll().run();
+    }
+
+    assertFalse(constant.apply().isCancelled());
+    assertFalse(empty.apply().isCancelled());
+    assertEquals(resultFromNode(AndNode.create(Node.TRUE, Node.value(true))), Boolean.TRUE);
+    assertEquals(resultFromNode(constant), Boolean.TRUE);
+    assertEquals(resultFromNode(empty), Optional.empty());
+  }
+
+  @Test
+  public void testCancelStopsInFlightEvaluation() throws Exception {
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    Node<Integer> root = Node.wrapCompletableFuture(backend, "backend").map("length", String::length);
+
+    CompletableFuture<Integer> result = root.apply(INLINE);
+    assertFalse(result.isDone());
+    assertTrue(result.cancel(true));
+    assertTrue(result.isCancelled());
+    assertTrue(backend.isCancelled());
+  }
+
+  @Test
+  public void testCancelledNodesAreNotEvaluated() throws Exception {
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    AtomicInteger evaluated = new AtomicInteger();
+    Node<String> dependent = Node.wrapCompletableFuture(backend, "backend")
+      .map("dependent", value -> {
+        evaluated.incrementAndGet();
+        return value;
+      });
+    Node<String> root = dependent.map("root", value -> value);
+
+    CompletableFuture<String> result = root.apply(INLINE);
+    result.cancel(true);
+    assertTrue(dependent.apply().isCancelled());
+    assertTrue(backend.isCancelled());
+    // completing the backend late does not evaluate the cancelled dependents
+    backend.complete("late");
+    assertEquals(evaluated.get(), 0);
+  }
+
+  @Test
+  public void testSharedDependencyCancelledWithLastDependent() throws Exception {
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    Node<String> shared = Node.wrapCompletableFuture(backend, "shared");
+    CompletableFuture<String> first = shared.map("first", value -> value).apply(INLINE);
+    CompletableFuture<String> second = shared.map("second", value -> value).apply(INLINE);
+
+    first.cancel(true);
+    assertFalse(backend.isCancelled());
+    second.cancel(true);
+    assertTrue(backend.isCancelled());
+  }
+
+  @Test
+  public void testSharedDependencyKeptForOtherDependents() throws Exception {
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    Node<String> shared = Node.wrapCompletableFuture(backend, "shared");
+    CompletableFuture<String> first = shared.map("first", value -> value).apply(INLINE);
+    CompletableFuture<String> second = shared.map("second", value -> value + "!").apply(INLINE);
+
+    first.cancel(true);
+    backend.complete("value");
+    assertEquals(resultFromFuture(second), "value!");
+  }
+
+  @Test
+  public void testCancelPropagatesToDynamicallyAppliedNodes() throws Exception {
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    Node<String> chosen = Node.ifThenElse(Node.TRUE,
+      Node.wrapCompletableFuture(backend, "true"),
+      Node.value("false"));
+
+    chosen.apply(INLINE).cancel(true);
+    assertTrue(backend.isCancelled());
+  }
+
+  @Test
+  public void testCancelPlanExecution() throws Exception {
+    for (GraphPlan.Scheduling scheduling : GraphPlan.Scheduling.values()) {
+      CompletableFuture<String> backend = new CompletableFuture<>();
+      Node<String> root = Node.wrapCompletableFuture(backend, "backend").map("root", value -> value);
+      GraphPlan.Execution<String> execution = GraphPlan.compile(root, scheduling).newExecution(INLINE);
+
+      CompletableFuture<String> result = execution.start();
+      assertTrue(execution.cancel(), scheduling.name());
+      assertTrue(result.isCancelled(), scheduling.name());
+      assertTrue(backend.isCancelled(), scheduling.name());
+      assertFalse(execution.cancel(), scheduling.name());
+    }
+  }
+
+  @Test
+  public void testMetricsCountCancelledNodes() throws Exception {
+    MetricsRegistry metrics = new MetricsRegistry();
+    ExecutionContext context = INLINE.toBuilder()
+      .withMetrics(metrics)
+      .build();
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    Node<String> root = Node.wrapCompletableFuture(backend, "backend").map("root", value -> value);
+
+    root.apply(context).cancel(true);
+    // the backend call was in flight and abandoned, the root was never evaluated
+    assertEquals(metrics.getMetrics("backend").getCount(NodeOutcome.CANCELLED), 1);
+    assertEquals(metrics.getMetrics("backend").getCount(NodeOutcome.CANCELLED_BEFORE_EVALUATION), 0);
+    assertEquals(metrics.getMetrics("root").getCount(NodeOutcome.CANCELLED), 0);
+    assertEquals(metrics.getMetrics("root").getCount(NodeOutcome.CANCELLED_BEFORE_EVALUATION), 1);
+  }
+}
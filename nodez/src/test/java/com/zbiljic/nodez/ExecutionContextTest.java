@@ -0,0 +1,485 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.debug.DebugLevel;
+import com.zbiljic.nodez.debug.DebugManager;
+import com.zbiljic.nodez.debug.DebugMessageBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ExecutionContextTest extends NodeTestBase {
+
+  private ExecutorService graphExecutor;
+  private ExecutorService blockingExecutor;
+
+  @Override
+  @BeforeMethod
+  public void setUp() throws Exception {
+    super.setUp();
+    graphExecutor = Executors.newFixedThreadPool(2, r -> new Thread(r, "graph"));
+    blockingExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "blocking"));
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    graphExecutor.shutdownNow();
+    blockingExecutor.shutdownNow();
+  }
+
+  /**
+   * A node that emits the name of the thread it was evaluated on.
+   */
+  static class ThreadNameNode extends Node<String> {
+
+    ThreadNameNode(Node... nodes) {
+      super(nodes);
+    }
+
+    @Override
+    protected CompletableFuture<String> evaluate() throws Exception {
+      return CompletableFuture.completedFuture(Thread.currentThread().getName());
+    }
+  }
+
+  @Test
+  public void testDependenciesInheritContext() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .build();
+
+    Node<String> dependency = new ThreadNameNode();
+    Node<String> root = new ThreadNameNode(dependency);
+
+    assertEquals(resultFromFuture(root.apply(context)), "graph");
+    assertEquals(dependency.emit(), "graph");
+    assertSame(dependency.getExecutionContext(), context);
+  }
+
+  @Test
+  public void testDynamicallyAppliedNodesInheritContext() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .build();
+
+    Node<String> trueNode = new ThreadNameNode();
+    Node<String> falseNode = new ThreadNameNode();
+    Node<String> root = Node.ifThenElse(Node.TRUE, trueNode, falseNode);
+
+    assertEquals(resultFromFuture(root.apply(context)), "graph");
+    assertSame(trueNode.getExecutionContext(), context);
+  }
+
+  @Test
+  public void testNodeExecutorOverride() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .build();
+
+    Node<String> blocking = new ThreadNameNode().withExecutor(blockingExecutor);
+    Node<String> root = Node.map2("concat", blocking, new ThreadNameNode(), (a, b) -> a + "," + b);
+
+    assertEquals(resultFromFuture(root.apply(context)), "blocking,graph");
+  }
+
+  @Test
+  public void testDefaultContext() throws Exception {
+    Node<String> root = new ThreadNameNode();
+    assertNotEquals(resultFromNode(root), Thread.currentThread().getName());
+    assertSame(root.getExecutionContext(), ExecutionContext.DEFAULT);
+  }
+
+  @Test
+  public void testCheapNodesEvaluateInline() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .build();
+
+    Node<String> root = Node.value(1)
+      .map("first", x -> x + 1)
+      .map("threadName", x -> Thread.currentThread().getName());
+
+    assertEquals(resultFromFuture(root.apply(context)), Thread.currentThread().getName());
+  }
+
+  @Test
+  public void testInlineExecution() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .withInlineExecution(true)
+      .build();
+
+    Node<String> root = new ThreadNameNode(Node.value(1));
+
+    assertEquals(resultFromFuture(root.apply(context)), Thread.currentThread().getName());
+  }
+
+  @Test
+  public void testInlineDisabled() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .withMaxInlineDepth(0)
+      .build();
+
+    Node<String> root = Node.value(1).map("threadName", x -> Thread.currentThread().getName());
+
+    assertEquals(resultFromFuture(root.apply(context)), "graph");
+  }
+
+  @Test
+  public void testMaxInlineDepth() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .withMaxInlineDepth(2)
+      .build();
+
+    // every node completed inline dispatches the next one from its completion, nesting inline
+    // evaluations
+    CompletableFuture<Integer> source = new CompletableFuture<>();
+    Node<Integer> node = Node.wrapCompletableFuture(source);
+    for (int i = 0; i < 4; i++) {
+      node = node.map("plusOne", x -> x + 1);
+    }
+    Node<String> root = node.map("threadName", x -> Thread.currentThread().getName());
+
+    CompletableFuture<String> result = GraphPlan.compile(root).execute(context);
+    source.complete(1);
+    assertEquals(resultFromFuture(result), "graph");
+  }
+
+  @Test
+  public void testNestedSwitchNodesRespectMaxInlineDepth() throws Exception {
+    // branches applied from evaluate() are activated inside it, nesting up to the inline depth
+    Node<String> root = Node.value(1).map("threadName", x -> Thread.currentThread().getName());
+    for (int i = 0; i < 4; i++) {
+      root = Node.ifThen(Node.TRUE, root);
+    }
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .build();
+    assertEquals(resultFromFuture(root.apply(context)), Thread.currentThread().getName());
+
+    Node<String> nested = Node.value(1).map("threadName", x -> Thread.currentThread().getName());
+    for (int i = 0; i < 4; i++) {
+      nested = Node.ifThen(Node.TRUE, nested);
+    }
+    ExecutionContext shallow = context.toBuilder()
+      .withMaxInlineDepth(2)
+      .build();
+    assertEquals(resultFromFuture(nested.apply(shallow)), "graph");
+  }
+
+  @Test
+  public void testTimingOffByDefault() throws Exception {
+    Node<Integer> root = Node.value(1).map("plusOne", x -> x + 1);
+    assertEquals(resultFromNode(root).intValue(), 2);
+    assertNull(root.getTiming());
+  }
+
+  @Test
+  public void testTiming() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withTimingClock(clock::get)
+      .build();
+
+    Node<Integer> slow = Node.value(1).map("slow", x -> {
+      clock.addAndGet(1000);
+      return x;
+    });
+    Node<Integer> root = slow.map("plusOne", x -> x + 1);
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 2);
+
+    NodeTiming slowTiming = slow.getTiming();
+    assertEquals(slowTiming.getQueueWaitNanos(), 0);
+    assertEquals(slowTiming.getEvaluateNanos(), 1000);
+    assertEquals(slowTiming.getCompletionNanos(), 0);
+
+    NodeTiming rootTiming = root.getTiming();
+    assertEquals(rootTiming.getAppliedNanos(), 0);
+    assertEquals(rootTiming.getDependencyWaitNanos(), 1000);
+    assertEquals(rootTiming.getEvaluateNanos(), 0);
+    assertEquals(rootTiming.getTotalNanos(), 1000);
+  }
+
+  @Test
+  public void testTimingOfSkippedEvaluation() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    ExecutionContext context = ExecutionContext.builder()
+      .withTimingClock(clock::get)
+      .build();
+
+    Node<Integer> failing = Node.value(1).map("failing", x -> {
+      clock.addAndGet(1000);
+      throw new IllegalStateException();
+    });
+    Node<Integer> root = failing.map("plusOne", x -> x + 1);
+    // both nodes are cheap, so they complete inline
+    assertTrue(root.apply(context).isCompletedExceptionally());
+
+    assertEquals(failing.getTiming().getEvaluateNanos(), 1000);
+    NodeTiming rootTiming = root.getTiming();
+    assertEquals(rootTiming.getDependencyWaitNanos(), 1000);
+    assertEquals(rootTiming.getEvaluateNanos(), 0);
+  }
+
+  @Test
+  public void testTimingOnExecutor() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .withTiming(true)
+      .build();
+
+    Node<String> root = new ThreadNameNode();
+    assertEquals(resultFromFuture(root.apply(context)), "graph");
+
+    // published before the node completes
+    NodeTiming timing = root.getTiming();
+    assertTrue(timing.getReadyNanos() >= timing.getAppliedNanos());
+    assertTrue(timing.getEvaluateStartNanos() >= timing.getReadyNanos());
+    assertTrue(timing.getCompletedNanos() >= timing.getEvaluateStopNanos());
+    assertEquals(timing.getTotalNanos(), timing.getDependencyWaitNanos() + timing.getQueueWaitNanos()
+      + timing.getEvaluateNanos() + timing.getCompletionNanos());
+  }
+
+  /**
+   * A node that writes the given marker to the debug messages.
+   */
+  static class DebugNode extends Node<String> {
+
+    private final String marker;
+
+    DebugNode(String marker, Node... nodes) {
+      super(nodes);
+      this.marker = marker;
+    }
+
+    @Override
+    protected CompletableFuture<String> evaluate() throws Exception {
+      debugBasic("marker %s", marker);
+      return CompletableFuture.completedFuture(marker);
+    }
+  }
+
+  @Test
+  public void testDebugPerExecution() throws Exception {
+    ExecutionContext shared = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .build();
+    DebugMessageBuilder first = new DebugMessageBuilder(DebugLevel.DETAILED);
+    DebugMessageBuilder second = new DebugMessageBuilder(DebugLevel.BASIC);
+
+    CompletableFuture<String> firstResult = new DebugNode("first", new DebugNode("first-dependency"))
+      .apply(shared.toBuilder().withDebug(first).build());
+    CompletableFuture<String> secondResult = new DebugNode("second", new DebugNode("second-dependency"))
+      .apply(shared.toBuilder().withDebug(second).build());
+    CompletableFuture<String> otherResult = new DebugNode("other").apply(shared);
+
+    assertEquals(resultFromFuture(firstResult), "first");
+    assertEquals(resultFromFuture(secondResult), "second");
+    assertEquals(resultFromFuture(otherResult), "other");
+    assertTrue(first.toString().contains("marker first\n"));
+    assertTrue(first.toString().contains("marker first-dependency\n"));
+    assertTrue(first.toString().contains("Start\n"));
+    assertFalse(first.toString().contains("second"));
+    assertTrue(second.toString().contains("marker second\n"));
+    assertTrue(second.toString().contains("marker second-dependency\n"));
+    // node start and end are detailed messages
+    assertFalse(second.toString().contains("Start"));
+    assertFalse(second.toString().contains("first"));
+    assertTrue(DebugManager.getDebugMessage().isEmpty());
+  }
+
+  @Test
+  public void testDebugFallsBackToDebugManager() throws Exception {
+    ExecutionContext context = ExecutionContext.builder().build();
+    assertFalse(context.isDebugEnabled(DebugLevel.BASIC));
+
+    DebugManager.resetForTest(DebugLevel.BASIC);
+    assertTrue(context.isDebugEnabled(DebugLevel.BASIC));
+    assertFalse(context.isDebugEnabled(DebugLevel.DETAILED));
+    assertEquals(resultFromFuture(new DebugNode("global").apply(context)), "global");
+    assertTrue(DebugManager.getDebugMessage().contains("marker global\n"));
+
+    ExecutionContext own = context.toBuilder()
+      .withDebug(new DebugMessageBuilder(DebugLevel.NONE))
+      .build();
+    assertFalse(own.isDebugEnabled(DebugLevel.BASIC));
+  }
+
+  private static Node<String> partialResult(Node<String> required, Node<String> optional) {
+    return Node.map2("partial", required, Node.optional(optional),
+      (value, optionalValue) -> value + "-" + optionalValue.orElse("empty"));
+  }
+
+  @Test
+  public void testDeadlineCompletesOptionalDependenciesEmpty() throws Exception {
+    CompletableFuture<String> backend = new CompletableFuture<>();
+    Node<String> pending = Node.wrapCompletableFuture(backend, "pending");
+    Node<String> partial = partialResult(Node.value("value"), pending);
+    // the graph is built first, the deadline runs from the context being built
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      // long enough for the whole graph to be applied before it, even on a busy machine
+      .withDeadline(Duration.ofMillis(500))
+      .build();
+
+    CompletableFuture<String> result = partial.apply(context);
+    assertEquals(resultFromFuture(result), "value-empty");
+    assertTrue(context.isDeadlineExceeded());
+    // the abandoned work is cancelled, as nothing else depends on it; the backend only right after
+    // the promise of the node, whose dependents may complete the result before
+    assertTrue(pending.apply().isCancelled());
+    assertTrue(backend
+      .handle((value, throwable) -> throwable instanceof CancellationException)
+      .get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDeadlineOfPlanExecution() throws Exception {
+    for (GraphPlan.Scheduling scheduling : GraphPlan.Scheduling.values()) {
+      Node<String> pending = Node.wrapCompletableFuture(new CompletableFuture<String>(), "pending");
+      GraphPlan<String> plan = GraphPlan.compile(partialResult(Node.value("value"), pending), scheduling);
+      // the plan is compiled first, the deadline runs from the context being built
+      ExecutionContext context = ExecutionContext.builder()
+        .withExecutor(graphExecutor)
+        // long enough for the whole graph to be applied before it, even on a busy machine
+        .withDeadline(Duration.ofMillis(500))
+        .build();
+      assertEquals(resultFromFuture(plan.execute(context)), "value-empty", scheduling.name());
+    }
+  }
+
+  @Test
+  public void testNodesReadyAfterDeadlineAreNotEvaluated() throws Exception {
+    for (boolean planned : new boolean[]{false, true}) {
+      CompletableFuture<String> dependency = new CompletableFuture<>();
+      AtomicLong backendCalls = new AtomicLong();
+      Node<String> backend = Node.wrapCompletableFuture(dependency, "dependency")
+        .flatMap("backend", value -> {
+          backendCalls.incrementAndGet();
+          return CompletableFuture.completedFuture(value);
+        });
+      Node<String> root = backend.map("root", value -> value);
+      GraphPlan<String> plan = GraphPlan.compile(root);
+      ExecutionContext context = ExecutionContext.builder()
+        .withExecutor(graphExecutor)
+        .withDeadline(Duration.ofMillis(50))
+        .build();
+
+      CompletableFuture<String> result = planned
+        ? plan.execute(context)
+        : root.apply(context);
+      while (!context.isDeadlineExceeded()) {
+        Thread.sleep(5);
+      }
+      // the dependency completes after the deadline, the backend is not called anymore
+      dependency.complete("late");
+      try {
+        resultFromFuture(result);
+        fail("expected the deadline to fail the result");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof DeadlineExceededException, e.toString());
+      }
+      assertEquals(backendCalls.get(), 0);
+    }
+  }
+
+  @Test
+  public void testNodesAppliedAfterDeadlineFailFast() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withExecutor(graphExecutor)
+      .withDeadline(Duration.ZERO)
+      .build();
+    AtomicLong evaluated = new AtomicLong();
+    Node<String> dependency = Node.valueFromSupplier(() -> {
+      evaluated.incrementAndGet();
+      return "dependency";
+    }, "dependency");
+
+    CompletableFuture<String> result = new ThreadNameNode(dependency).apply(context);
+    assertTrue(result.isCompletedExceptionally());
+    try {
+      result.join();
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof DeadlineExceededException, e.toString());
+    }
+    assertEquals(Node.optional(new ThreadNameNode()).apply(context).join(), Optional.empty());
+    assertEquals(evaluated.get(), 0);
+    assertNull(dependency.getExecutionContext());
+  }
+
+  @Test
+  public void testSharedNodesIgnoreDeadline() throws Exception {
+    ExecutionContext expired = ExecutionContext.builder()
+      .withDeadline(Duration.ZERO)
+      .build();
+    // constant nodes are shared by all executions, the deadline of one must not stick to them
+    Node<Integer> noValue = Node.noValue();
+    assertNull(noValue.apply(expired).join());
+    assertEquals(Node.TRUE.apply(expired).join(), Boolean.TRUE);
+    assertEquals(Node.value("value").apply(expired).join(), "value");
+    assertEquals(GraphPlan.compile(Node.value("planned")).execute(expired).join(), "planned");
+
+    assertNull(resultFromNode(Node.ifThen(Node.value(false), Node.value(1))));
+    assertNull(resultFromNode(Node.noValue()));
+  }
+
+  @Test
+  public void testRemainingNanos() throws Exception {
+    assertFalse(ExecutionContext.DEFAULT.hasDeadline());
+    assertFalse(ExecutionContext.DEFAULT.isDeadlineExceeded());
+    assertEquals(ExecutionContext.DEFAULT.getRemainingNanos(), Long.MAX_VALUE);
+
+    ExecutionContext context = ExecutionContext.builder()
+      .withDeadline(Duration.ofMinutes(1))
+      .build();
+    assertTrue(context.hasDeadline());
+    assertTrue(context.toBuilder().build().hasDeadline());
+    assertFalse(context.toBuilder().withoutDeadline().build().hasDeadline());
+
+    Node<Long> remaining = new Node<Long>() {
+      @Override
+      protected CompletableFuture<Long> evaluate() {
+        return CompletableFuture.completedFuture(getRemainingNanos());
+      }
+    };
+    long remainingNanos = resultFromFuture(remaining.apply(context));
+    assertTrue(remainingNanos > 0 && remainingNanos <= Duration.ofMinutes(1).toNanos(),
+      String.valueOf(remainingNanos));
+  }
+}
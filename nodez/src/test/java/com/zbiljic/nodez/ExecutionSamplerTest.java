@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.debug.DebugLevel;
+import com.zbiljic.nodez.debug.DebugManager;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ExecutionSamplerTest extends NodeTestBase {
+
+  /**
+   * A node that writes a debug message when evaluated.
+   */
+  static class DebugNode extends Node<String> {
+
+    DebugNode(Node... nodes) {
+      super(nodes);
+    }
+
+    @Override
+    protected CompletableFuture<String> evaluate() throws Exception {
+      debugBasic("evaluated");
+      return CompletableFuture.completedFuture("value");
+    }
+  }
+
+  @Test
+  public void testNothingSampledByDefault() throws Exception {
+    ExecutionSampler sampler = ExecutionSampler.builder().build();
+
+    ExecutionContext first = sampler.sample("key");
+    ExecutionContext second = sampler.sample();
+    assertSame(first, second);
+    assertFalse(sampler.isSampled(first));
+    assertFalse(first.isTimingEnabled());
+    assertNull(first.getTrace());
+
+    // the global builder is not used by executions which are not sampled
+    DebugManager.resetForTest(DebugLevel.VERBOSE);
+    assertFalse(first.isDebugEnabled(DebugLevel.BASIC));
+    assertEquals(resultFromFuture(new DebugNode().apply(first)), "value");
+    assertTrue(DebugManager.getDebugMessage().isEmpty());
+  }
+
+  @Test
+  public void testSampledExecution() throws Exception {
+    ExecutionSampler sampler = ExecutionSampler.builder()
+      .withRate(1)
+      .withDebugLevel(DebugLevel.BASIC)
+      .withTraceCapacity(16)
+      .build();
+
+    ExecutionContext context = sampler.sample();
+    assertTrue(sampler.isSampled(context));
+    assertNotSame(sampler.sample(), context);
+
+    DebugNode dependency = new DebugNode();
+    assertEquals(resultFromFuture(new DebugNode(dependency).apply(context)), "value");
+    assertEquals(context.getDebugMessageBuilder().toString(),
+      "NODE [DebugNode]: evaluated\nNODE [DebugNode]: evaluated\n");
+    assertNotNull(context.getTrace());
+    assertEquals(context.getTrace().getSpans().size(), 2);
+  }
+
+  @Test
+  public void testKeyRate() throws Exception {
+    ExecutionSampler sampler = ExecutionSampler.builder()
+      .withKeyRate(0.1)
+      .build();
+
+    int sampled = 0;
+    for (int i = 0; i < 10_000; i++) {
+      boolean sample = sampler.shouldSample(i);
+      // the same key is always sampled the same way
+      assertEquals(sampler.shouldSample(i), sample);
+      if (sample) {
+        sampled++;
+      }
+    }
+    assertTrue(sampled > 800 && sampled < 1200, "sampled " + sampled);
+    assertFalse(sampler.shouldSample(null));
+  }
+
+  @Test
+  public void testForcedKeys() throws Exception {
+    ExecutionSampler sampler = ExecutionSampler.builder()
+      .withForcedKeys("user-1"::equals)
+      .build();
+
+    assertTrue(sampler.isSampled(sampler.sample("user-1")));
+    assertFalse(sampler.isSampled(sampler.sample("user-2")));
+    assertTrue(sampler.isSampled(sampler.forceOn()));
+    assertTrue(sampler.forceOn().isDebugEnabled(DebugLevel.DETAILED));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidRate() {
+    ExecutionSampler.builder().withRate(1.5);
+  }
+}
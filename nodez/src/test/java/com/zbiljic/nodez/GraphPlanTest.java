@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class GraphPlanTest extends NodeTestBase {
+
+  @Test
+  public void testConcurrentExecutions() throws Exception {
+    Node<Integer> first = GraphPlan.input("first");
+    Node<Integer> second = GraphPlan.input("second");
+    Node<Integer> sumNode = Node.builder(NodeTest.SumNode.class)
+      .withDependencies(
+        NodeTest.SumNode.D.FIRST, first,
+        NodeTest.SumNode.D.SECOND, second,
+        NodeTest.SumNode.D.THIRD, Node.value(3))
+      .build();
+    Node<String> root = sumNode.map("toString", String::valueOf);
+    GraphPlan<String> plan = GraphPlan.compile(root);
+
+    List<CompletableFuture<String>> results = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      results.add(plan.newExecution()
+        .bind(first, i % 10)
+        .bind(second, i / 10)
+        .start());
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(resultFromFuture(results.get(i)), String.valueOf(300 + i));
+    }
+  }
+
+  @Test
+  public void testGraphIsBuiltOnce() throws Exception {
+    AtomicInteger evaluations = new AtomicInteger();
+    Node<Boolean> condition = GraphPlan.input("condition");
+    Node<String> trueNode = Node.value("yes").map("count", x -> {
+      evaluations.incrementAndGet();
+      return x;
+    });
+    GraphPlan<String> plan = GraphPlan.compile(Node.ifThenElse(condition, trueNode, Node.value("no")));
+
+    assertEquals(resultFromFuture(plan.newExecution().bind(condition, true).start()), "yes");
+    assertEquals(resultFromFuture(plan.newExecution().bind(condition, false).start()), "no");
+    assertEquals(resultFromFuture(plan.newExecution().bind(condition, true).start()), "yes");
+    assertEquals(evaluations.get(), 2);
+  }
+
+  @Test
+  public void testTopologicalOrder() throws Exception {
+    Node<Integer> a = Node.value(1);
+    Node<Integer> b = a.map("b", x -> x + 1);
+    Node<Integer> c = a.map("c", x -> x + 2);
+    Node<Integer> d = Node.map2("d", b, c, (x, y) -> x + y);
+    GraphPlan<Integer> plan = GraphPlan.compile(d);
+
+    List<Node> nodes = plan.getNodes();
+    assertEquals(plan.size(), 4);
+    assertEquals(nodes.get(0), a);
+    assertEquals(nodes.get(3), d);
+    assertEquals(resultFromFuture(plan.execute()), Integer.valueOf(5));
+    assertEquals(resultFromFuture(plan.execute()), Integer.valueOf(5));
+  }
+
+  @Test
+  public void testUnboundInput() throws Exception {
+    Node<Integer> input = GraphPlan.input("input");
+    GraphPlan<Integer> plan = GraphPlan.compile(input.map("plusOne", x -> x + 1));
+    try {
+      resultFromFuture(plan.execute());
+      fail();
+    } catch (Exception e) {
+      assertTrue(e.getMessage().contains("Input [input] is not bound"));
+    }
+  }
+
+  @Test
+  public void testSchedulingResultsMatch() throws Exception {
+    Node<Integer> input = GraphPlan.input("input");
+    Node<Integer> left = input.map("left", x -> x + 1);
+    Node<Integer> right = input.map("right", x -> x * 2);
+    Node<Integer> sum = Node.map2("sum", left, right, (x, y) -> x + y);
+    Node<Integer> root = Node.ifThenElse(
+      AndNode.create(sum.map("positive", x -> x > 0), Node.TRUE), sum, Node.value(-1));
+
+    GraphPlan<Integer> futures = GraphPlan.compile(root, GraphPlan.Scheduling.FUTURES);
+    GraphPlan<Integer> counters = GraphPlan.compile(root, GraphPlan.Scheduling.COUNTERS);
+    for (int i = -3; i < 3; i++) {
+      assertEquals(
+        resultFromFuture(counters.newExecution().bind(input, i).start()),
+        resultFromFuture(futures.newExecution().bind(input, i).start()));
+    }
+  }
+
+  @Test
+  public void testCountersWaitOnAllDependencies() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ExecutionContext context = ExecutionContext.builder()
+        .withExecutor(executor)
+        .build();
+      Node<Integer> input = GraphPlan.input("input");
+      Node<Integer> root = Node.value(0);
+      for (int i = 0; i < 20; i++) {
+        int offset = i;
+        Node<Integer> slow = input.flatMap("slow" + i,
+          x -> CompletableFuture.supplyAsync(() -> x + offset, executor));
+        root = Node.map2("sum" + i, root, slow, (x, y) -> x + y);
+      }
+      GraphPlan<Integer> plan = GraphPlan.compile(root);
+
+      for (int i = 0; i < 50; i++) {
+        assertEquals(resultFromFuture(plan.newExecution(context).bind(input, i).start()),
+          Integer.valueOf(20 * i + 190));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCountersPropagateFailure() throws Exception {
+    Node<Integer> input = GraphPlan.input("input");
+    AtomicInteger evaluations = new AtomicInteger();
+    Node<Integer> failing = input.map("failing", x -> {
+      throw new IllegalArgumentException("failed for " + x);
+    });
+    Node<Integer> root = failing.map("dependent", x -> evaluations.incrementAndGet());
+    GraphPlan<Integer> plan = GraphPlan.compile(root);
+
+    try {
+      resultFromFuture(plan.newExecution().bind(input, 1).start());
+      fail();
+    } catch (Exception e) {
+      assertTrue(e.getMessage().contains("failed for 1"));
+    }
+    assertEquals(evaluations.get(), 0);
+  }
+
+  @Test
+  public void testCountersReleaseCancelledNode() throws Exception {
+    Node<Integer> slow = Node.wrapCompletableFuture(new CompletableFuture<>());
+    Node<Integer> root = slow.map("dependent", x -> x + 1);
+    GraphPlan.Execution<Integer> execution = GraphPlan.compile(root, GraphPlan.Scheduling.COUNTERS)
+      .newExecution();
+    CompletableFuture<Integer> result = execution.start();
+    assertTrue(!result.isDone());
+
+    assertTrue(execution.get(slow).cancel(true));
+    assertTrue(result.isCompletedExceptionally());
+  }
+
+  @Test
+  public void testTimingPerExecution() throws Exception {
+    Node<Integer> input = GraphPlan.input("input");
+    Node<Integer> root = input.map("plusOne", x -> x + 1);
+    ExecutionContext context = ExecutionContext.builder()
+      .withTiming(true)
+      .build();
+
+    for (GraphPlan.Scheduling scheduling : GraphPlan.Scheduling.values()) {
+      GraphPlan<Integer> plan = GraphPlan.compile(root, scheduling);
+      GraphPlan.Execution<Integer> first = plan.newExecution(context).bind(input, 1);
+      GraphPlan.Execution<Integer> second = plan.newExecution(context).bind(input, 2);
+      resultFromFuture(first.start());
+      assertTrue(first.getTiming(root) != null);
+      assertTrue(second.getTiming(root) == null);
+      resultFromFuture(second.start());
+      assertTrue(second.getTiming(root) != first.getTiming(root));
+
+      GraphPlan.Execution<Integer> untimed = plan.newExecution().bind(input, 3);
+      resultFromFuture(untimed.start());
+      assertTrue(untimed.getTiming(root) == null);
+    }
+  }
+
+  @Test
+  public void testDeepChain() throws Exception {
+    Node<Integer> input = GraphPlan.input("input");
+    Node<Integer> node = input;
+    for (int i = 0; i < 100_000; i++) {
+      node = node.map("plusOne", x -> x + 1);
+    }
+    for (GraphPlan.Scheduling scheduling : GraphPlan.Scheduling.values()) {
+      GraphPlan<Integer> plan = GraphPlan.compile(node, scheduling);
+      assertEquals(resultFromFuture(plan.newExecution().bind(input, 1).start()).intValue(), 100_001);
+    }
+  }
+
+  static class PlanGraph extends Subgraph {
+
+    public final Node<Integer> doubled;
+    public final Node<Integer> squared;
+
+    PlanGraph(Node<Integer> input) {
+      this.doubled = input.map("doubled", x -> x * 2);
+      this.squared = input.map("squared", x -> x * x);
+      markExposedNodes();
+    }
+  }
+
+  @Test
+  public void testSubgraph() throws Exception {
+    Node<Integer> input = GraphPlan.input("input");
+    PlanGraph subgraph = new PlanGraph(input);
+    GraphPlan<Void> plan = GraphPlan.compile(subgraph);
+
+    GraphPlan.Execution<Void> execution = plan.newExecution().bind(input, 7);
+    resultFromFuture(execution.start());
+    assertEquals(resultFromFuture(execution.get(subgraph.doubled)), Integer.valueOf(14));
+    assertEquals(resultFromFuture(execution.get(subgraph.squared)), Integer.valueOf(49));
+  }
+
+  @Test
+  public void testPriorities() throws Exception {
+    Node<Integer> source = Node.value(1);
+    Node<Integer> first = source.map("first", x -> x + 1);
+    Node<Integer> second = first.map("second", x -> x + 1);
+    Node<Integer> side = source.map("side", x -> x);
+    Node<Integer> root = Node.map2("root", second, side, Integer::sum);
+    GraphPlan<Integer> plan = GraphPlan.compile(root);
+
+    long unit = GraphPlan.DEFAULT_EVALUATE_ESTIMATE_NANOS;
+    assertEquals(plan.getPriority(root), unit);
+    assertEquals(plan.getPriority(second), 2 * unit);
+    assertEquals(plan.getPriority(first), 3 * unit);
+    assertEquals(plan.getPriority(side), 2 * unit);
+    assertEquals(plan.getPriority(source), 4 * unit);
+
+    plan.updatePriorities(node -> node == side ? 10_000 : 10);
+    assertEquals(plan.getPriority(side), 10_010);
+    assertEquals(plan.getPriority(first), 30);
+    assertEquals(plan.getPriority(source), 10_020);
+
+    PriorityExecutor executor = new PriorityExecutor(2, 1, TimeUnit.MILLISECONDS);
+    try {
+      ExecutionContext context = ExecutionContext.builder()
+        .withExecutor(executor)
+        .build();
+      assertEquals(resultFromFuture(plan.execute(context)).intValue(), 4);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class HedgedNodeTest extends NodeTestBase {
+
+  private static final Duration DELAY = Duration.ofMillis(10);
+
+  /**
+   * Returns the given futures from consecutive calls, and counts down the latch on every call.
+   */
+  private static final class Calls {
+
+    private final List<CompletableFuture<String>> futures = new ArrayList<>();
+    private final CountDownLatch called = new CountDownLatch(2);
+    private int next;
+
+    Calls(CompletableFuture<String> first, CompletableFuture<String> second) {
+      futures.add(first);
+      futures.add(second);
+    }
+
+    synchronized CompletableFuture<String> call() {
+      called.countDown();
+      return futures.get(next++);
+    }
+
+    synchronized int count() {
+      return next;
+    }
+
+    /**
+     * Waits until the second call was made, and the hedge is waiting for it.
+     */
+    void awaitHedge() throws InterruptedException {
+      assertTrue(called.await(10, TimeUnit.SECONDS));
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (futures.get(1).getNumberOfDependents() == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+    }
+  }
+
+  private static HedgePolicy policy(double maxExtraLoad) {
+    return HedgePolicy.builder()
+      .withDelay(DELAY)
+      .withMaxExtraLoad(maxExtraLoad)
+      .build();
+  }
+
+  private static Node<String> hedged(Calls calls, HedgePolicy policy) {
+    return Node.value("request").hedged("call", request -> calls.call(), policy);
+  }
+
+  @Test
+  public void testNotHedgedIfCompletedInTime() throws Exception {
+    HedgePolicy policy = policy(1);
+    Calls calls = new Calls(CompletableFuture.completedFuture("first"), new CompletableFuture<>());
+    assertEquals(resultFromNode(hedged(calls, policy)), "first");
+    assertEquals(calls.count(), 1);
+    assertEquals(policy.getCalls(), 1);
+    assertEquals(policy.getHedges(), 0);
+  }
+
+  @Test
+  public void testHedgeWins() throws Exception {
+    HedgePolicy policy = policy(1);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    Calls calls = new Calls(first, CompletableFuture.completedFuture("second"));
+    assertEquals(resultFromNode(hedged(calls, policy)), "second");
+    assertTrue(first.isCancelled());
+    assertEquals(policy.getHedges(), 1);
+    assertEquals(policy.getHedgeWins(), 1);
+  }
+
+  @Test
+  public void testFirstWinsAfterHedge() throws Exception {
+    HedgePolicy policy = policy(1);
+    CompletableFuture<String> second = new CompletableFuture<>();
+    CompletableFuture<String> first = new CompletableFuture<>();
+    Calls calls = new Calls(first, second);
+    CompletableFuture<String> result = hedged(calls, policy).apply();
+    calls.awaitHedge();
+
+    first.complete("first");
+    assertEquals(resultFromFuture(result), "first");
+    assertTrue(second.isCancelled());
+    assertEquals(policy.getHedges(), 1);
+    assertEquals(policy.getHedgeWins(), 0);
+  }
+
+  @Test
+  public void testBudgetExhausted() throws Exception {
+    HedgePolicy policy = policy(0);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    Calls calls = new Calls(first, CompletableFuture.completedFuture("second"));
+    CompletableFuture<String> result = hedged(calls, policy).apply();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (policy.getRejectedHedges() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(policy.getRejectedHedges(), 1);
+    assertFalse(result.isDone());
+
+    first.complete("first");
+    assertEquals(resultFromFuture(result), "first");
+    assertEquals(calls.count(), 1);
+    assertEquals(policy.getHedges(), 0);
+  }
+
+  @Test
+  public void testFailsIfBothFail() throws Exception {
+    HedgePolicy policy = policy(1);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    CompletableFuture<String> second = new CompletableFuture<>();
+    Calls calls = new Calls(first, second);
+    CompletableFuture<String> result = hedged(calls, policy).apply();
+    calls.awaitHedge();
+
+    first.completeExceptionally(new IllegalStateException("first"));
+    assertFalse(result.isDone());
+    second.completeExceptionally(new IllegalStateException("second"));
+    try {
+      result.join();
+      fail("expected a failure");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+    }
+  }
+
+  @Test
+  public void testFailureBeforeDelayIsNotHedged() throws Exception {
+    HedgePolicy policy = HedgePolicy.builder()
+      .withDelay(Duration.ofHours(1))
+      .withMaxExtraLoad(1)
+      .build();
+    CompletableFuture<String> first = new CompletableFuture<>();
+    Calls calls = new Calls(first, CompletableFuture.completedFuture("second"));
+    Node<String> node = hedged(calls, policy);
+    CompletableFuture<String> result = node.apply();
+
+    first.completeExceptionally(new IllegalStateException("first"));
+    assertNodeThrow(node);
+    assertTrue(result.isCompletedExceptionally());
+    assertEquals(calls.count(), 1);
+  }
+
+  @Test
+  public void testCancellingResultCancelsCalls() throws Exception {
+    HedgePolicy policy = policy(1);
+    CompletableFuture<String> first = new CompletableFuture<>();
+    CompletableFuture<String> second = new CompletableFuture<>();
+    Calls calls = new Calls(first, second);
+    CompletableFuture<String> result = hedged(calls, policy).apply();
+    calls.awaitHedge();
+
+    result.cancel(false);
+    assertTrue(first.isCancelled());
+    assertTrue(second.isCancelled());
+  }
+
+  @Test
+  public void testPercentileDelay() throws Exception {
+    HedgePolicy policy = HedgePolicy.builder()
+      .withDelay(Duration.ofHours(1))
+      .withPercentileDelay(95)
+      .withMinSamples(10)
+      .build();
+    assertEquals(policy.getDelayNanos(), TimeUnit.HOURS.toNanos(1));
+    for (int i = 0; i < 100; i++) {
+      Calls calls = new Calls(CompletableFuture.completedFuture("first"), new CompletableFuture<>());
+      resultFromNode(hedged(calls, policy));
+    }
+    assertTrue(policy.getDelayNanos() < TimeUnit.SECONDS.toNanos(1), policy.toString());
+  }
+
+  @Test
+  public void testBudget() throws Exception {
+    HedgePolicy policy = policy(0.5);
+    assertFalse(policy.tryHedge());
+    policy.onCall();
+    assertFalse(policy.tryHedge());
+    policy.onCall();
+    assertTrue(policy.tryHedge());
+    assertFalse(policy.tryHedge());
+
+    // unused hedges are saved up to a limit
+    for (int i = 0; i < 100; i++) {
+      policy.onCall();
+    }
+    for (int i = 0; i < HedgePolicy.MAX_SAVED_HEDGES; i++) {
+      assertTrue(policy.tryHedge());
+    }
+    assertFalse(policy.tryHedge());
+    assertEquals(policy.getHedges(), 1 + HedgePolicy.MAX_SAVED_HEDGES);
+    assertEquals(policy.getRejectedHedges(), 4);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class NodeMetadataTest extends NodeTestBase {
+
+  static class NoDefaultConstructorNode extends Node<String> {
+
+    NoDefaultConstructorNode(String unused) {
+    }
+
+    @Override
+    protected CompletableFuture<String> evaluate() throws Exception {
+      return CompletableFuture.completedFuture("");
+    }
+  }
+
+  @Test
+  public void testOptionalDependencies() throws Exception {
+    Set<Enum> optional = NodeMetadata.getOptionalDependencies(NodeTest.SumNode.D.class);
+    assertEquals(optional, Collections.singleton(NodeTest.SumNode.D.FOURTH_OP));
+    assertSame(NodeMetadata.getOptionalDependencies(NodeTest.SumNode.D.class), optional);
+    try {
+      optional.clear();
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLastTemplateType() throws Exception {
+    assertEquals(NodeMetadata.getLastTemplateType(NodeTest.SumNode.class),
+      "class java.lang.Integer");
+    assertEquals(NodeMetadata.getLastTemplateType(Object.class), "");
+  }
+
+  @Test
+  public void testNewInstance() throws Exception {
+    Node<Integer> first = NodeMetadata.newInstance(NodeTest.SumNode.class);
+    Node<Integer> second = NodeMetadata.newInstance(NodeTest.SumNode.class);
+    assertTrue(first instanceof NodeTest.SumNode);
+    assertTrue(first != second);
+
+    try {
+      Node.builder(NoDefaultConstructorNode.class);
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("make sure it has a default constructor"));
+    }
+  }
+
+  @Test
+  public void testMissingDependencies() throws Exception {
+    try {
+      Node.builder(NodeTest.SumNode.class)
+        .withDependencies(NodeTest.SumNode.D.FIRST, Node.value(1))
+        .build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("[SECOND, THIRD]"));
+    }
+  }
+
+  // private, so the processor leaves it to reflection
+  private static class PrivateGraph extends Subgraph {
+
+    public final Node<Integer> value = Node.value(1);
+    public final String notANode = "";
+  }
+
+  @Test
+  public void testGeneratedMetadata() throws Exception {
+    // generated by nodez-processor while compiling the tests
+    GeneratedMetadata.DependencyEnum dependencyEnum = (GeneratedMetadata.DependencyEnum)
+      Class.forName(NodeTest.SumNode.D.class.getName() + GeneratedMetadata.CLASS_NAME_SUFFIX).newInstance();
+    assertEquals(dependencyEnum.optionalDependencyMask(), 1L << NodeTest.SumNode.D.FOURTH_OP.ordinal());
+
+    GeneratedMetadata.NodeFactory factory = (GeneratedMetadata.NodeFactory)
+      Class.forName(NodeTest.SumNode.class.getName() + GeneratedMetadata.CLASS_NAME_SUFFIX).newInstance();
+    assertTrue(factory.newInstance() instanceof NodeTest.SumNode);
+
+    Node<Integer> input = Node.value(3);
+    GraphPlanTest.PlanGraph graph = new GraphPlanTest.PlanGraph(input);
+    assertEquals(NodeMetadata.getExposedNodes(graph), Arrays.asList(graph.doubled, graph.squared));
+  }
+
+  @Test
+  public void testReflectionFallback() throws Exception {
+    PrivateGraph graph = new PrivateGraph();
+    try {
+      Class.forName(PrivateGraph.class.getName() + GeneratedMetadata.CLASS_NAME_SUFFIX);
+      fail();
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+    assertEquals(NodeMetadata.getExposedNodes(graph), Collections.singletonList(graph.value));
+  }
+}
@@ -15,17 +15,22 @@
  */
 package com.zbiljic.nodez;
 
+import com.zbiljic.nodez.debug.DebugLevel;
+import com.zbiljic.nodez.debug.DebugMessageBuilder;
 import com.zbiljic.nodez.utils.CompletableFutures;
 import com.zbiljic.nodez.utils.DeciderSupplier;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
@@ -450,6 +455,109 @@ public class NodeTest extends NodeTestBase {
     assertEquals(stringList.get(2), "str3");
   }
 
+  @Test
+  public void testCollectCompletingLater() throws Exception {
+    CompletableFuture<Integer> first = new CompletableFuture<>();
+    CompletableFuture<Integer> second = new CompletableFuture<>();
+    Map<String, Node<Integer>> nodeMap = new HashMap<>();
+    nodeMap.put("first", Node.wrapCompletableFuture(first));
+    nodeMap.put("second", Node.wrapCompletableFuture(second));
+    nodeMap.put("done", Node.value(0));
+    nodeMap.put("null", Node.<Integer>noValue());
+
+    CompletableFuture<Map<String, Integer>> mapResult = Node.collect(nodeMap).apply();
+    CompletableFuture<List<Integer>> listResult = Node.collect(
+      Arrays.asList(Node.wrapCompletableFuture(second), Node.value(0), Node.wrapCompletableFuture(first)))
+      .apply();
+    assertFalse(mapResult.isDone());
+    assertFalse(listResult.isDone());
+
+    second.complete(2);
+    first.complete(1);
+    Map<String, Integer> map = resultFromFuture(mapResult);
+    assertEquals(map.size(), 4);
+    assertEquals(map.get("first").intValue(), 1);
+    assertEquals(map.get("second").intValue(), 2);
+    assertEquals(map.get("done").intValue(), 0);
+    assertTrue(map.containsKey("null"));
+    assertNull(map.get("null"));
+    assertEquals(resultFromFuture(listResult), Arrays.asList(2, 0, 1));
+  }
+
+  @Test
+  public void testCollectFailure() throws Exception {
+    CompletableFuture<Integer> pending = new CompletableFuture<>();
+    Node<List<Integer>> collected = Node.collect(
+      Arrays.asList(Node.value(0), Node.wrapCompletableFuture(pending)));
+    CompletableFuture<List<Integer>> result = collected.apply();
+
+    pending.completeExceptionally(new IllegalStateException("failed"));
+    CompletableFutures.awaitOptionalResult(result);
+    assertTrue(result.isCompletedExceptionally());
+    assertTrue(resultFromFuture(Node.collect(Collections.<Node<Integer>>emptyList()).apply()).isEmpty());
+  }
+
+  // the failure this guards against is a hang of the thread applying the graph
+  @Test(timeOut = 10_000)
+  public void testJoinNodeAppliedInEvaluate() throws Exception {
+    // the node applied from evaluate() is activated before apply() returns, or join() would wait
+    // on the thread calling it
+    Node<Integer> other = Node.value(1).map("other", x -> x + 1);
+    Node<Integer> root = Node.value(1).map("root", x -> x + other.apply().join());
+    assertEquals(resultFromFuture(root.apply(ExecutionContext.DEFAULT)), Integer.valueOf(3));
+
+    Node<Integer> inline = Node.value(1).map("other", x -> x + 1);
+    Node<Integer> inlineRoot = Node.value(1).map("root", x -> x + inline.apply().join());
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .build();
+    assertEquals(resultFromFuture(inlineRoot.apply(context)), Integer.valueOf(3));
+  }
+
+  @Test
+  public void testThrowingActivationFailsOnlyItsNode() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withDebug(new DebugMessageBuilder(DebugLevel.DETAILED))
+      .build();
+    Node<Integer> throwing = new Node<Integer>("throwing", false, false) {
+      @Override
+      protected CompletableFuture<Integer> evaluate() {
+        return CompletableFuture.completedFuture(1);
+      }
+
+      @Override
+      protected void logResponse(Integer response) {
+        throw new IllegalStateException("logResponse");
+      }
+    };
+    Node<Integer> other = Node.value(2).map("other", x -> x);
+    CompletableFuture<Integer> result = Node.map2("sum", throwing, other, Integer::sum).apply(context);
+
+    // the activations queued with the throwing one still run, nothing is left pending
+    assertTrue(result.isCompletedExceptionally());
+    assertEquals(other.apply().join(), Integer.valueOf(2));
+    try {
+      throwing.apply().join();
+      fail("expected a failure");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+    }
+  }
+
+  @Test
+  public void testCollectedListIsMutable() throws Exception {
+    List<Integer> list = resultFromNode(Node.collect(Arrays.asList(Node.value(0), Node.value(1))));
+    list.add(2);
+    list.remove(0);
+    assertEquals(list, Arrays.asList(1, 2));
+
+    List<Integer> split = resultFromNode(Node.splitAndCollect(Node.value(Arrays.asList(0, 1)), "plusOne",
+      (Integer x) -> Node.value(x + 1)));
+    split.add(3);
+    assertEquals(split, Arrays.asList(1, 2, 3));
+  }
+
   @Test
   public void testWaitOn() throws Exception {
     final List<Integer> store = new ArrayList<>();
@@ -493,4 +601,47 @@ public class NodeTest extends NodeTestBase {
       (a, b, c, d) -> a + b + c + d);
     assertEquals(10, (int) resultFromNode(sum4));
   }
+
+  static class ForeignDepNode extends Node<Integer> {
+
+    ForeignDepNode(Node<Integer> dependency) {
+      super(dependency);
+    }
+
+    @Override
+    protected CompletableFuture<Integer> evaluate() throws Exception {
+      // DEP0 of this node has the same ordinal as FIRST, but is not a dependency named FIRST
+      return CompletableFuture.completedFuture(getDep(SumNode.D.FIRST));
+    }
+  }
+
+  @Test
+  public void testDependencyNames() throws Exception {
+    assertNodeThrow(new ForeignDepNode(Node.value(1)));
+
+    Map<Enum, Node> mixed = new HashMap<>();
+    mixed.put(SumNode.D.FIRST, Node.value(1));
+    mixed.put(Node.DefaultDependencyEnum.DEP1, Node.value(2));
+    try {
+      new Node<Integer>("mixed", false, false, mixed, new Node[0]) {
+        @Override
+        protected CompletableFuture<Integer> evaluate() throws Exception {
+          return CompletableFuture.completedFuture(0);
+        }
+      };
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("must be named by constants of one enum"));
+    }
+  }
+
+  @Test
+  public void testDeepChain() throws Exception {
+    Node<Integer> node = Node.value(0);
+    for (int i = 0; i < 100_000; i++) {
+      node = node.map("plusOne", x -> x + 1);
+    }
+    assertEquals(resultFromNode(node).intValue(), 100_000);
+    assertTrue(NodeDotGraphGenerator.createDot(node).contains("n100000"));
+  }
 }
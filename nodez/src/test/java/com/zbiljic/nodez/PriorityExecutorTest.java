@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PriorityExecutorTest {
+
+  @Test
+  public void testPriorityOrder() throws Exception {
+    PriorityExecutor executor = new PriorityExecutor(1, 1, TimeUnit.HOURS);
+    try {
+      List<String> order = runBlocked(executor, Arrays.asList("low", "none", "high", "medium"),
+        Arrays.asList(millis(10), 0L, millis(1000), millis(100)));
+      assertEquals(order, Arrays.asList("high", "medium", "low", "none"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBoostIsCapped() throws Exception {
+    // without boost, priorities do not reorder anything
+    PriorityExecutor executor = new PriorityExecutor(1, 0, TimeUnit.NANOSECONDS);
+    try {
+      List<String> order = runBlocked(executor, Arrays.asList("first", "second", "third"),
+        Arrays.asList(0L, 1000L, Long.MAX_VALUE));
+      assertEquals(order, Arrays.asList("first", "second", "third"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    PriorityExecutor executor = new PriorityExecutor(2, 1, TimeUnit.MILLISECONDS);
+    CountDownLatch done = new CountDownLatch(10);
+    for (int i = 0; i < 10; i++) {
+      executor.execute(done::countDown);
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(done.getCount(), 0);
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * Submits the tasks while the only thread of the executor is blocked, and returns the order they
+   * ran in.
+   */
+  private static List<String> runBlocked(PriorityExecutor executor,
+                                         List<String> names,
+                                         List<Long> priorities) throws InterruptedException {
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(() -> {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    blocked.await();
+
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+      executor.execute(() -> {
+        order.add(name);
+        done.countDown();
+      }, priorities.get(i));
+    }
+    assertEquals(executor.getQueueSize(), names.size());
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    return order;
+  }
+}
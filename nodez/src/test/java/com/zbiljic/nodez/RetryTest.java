@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import com.zbiljic.nodez.utils.CompletableFutures;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RetryTest extends NodeTestBase {
+
+  private static RetryPolicy.Builder policy() {
+    return RetryPolicy.builder()
+      .withInitialBackoff(Duration.ofMillis(1))
+      .withMaxBackoff(Duration.ofMillis(10));
+  }
+
+  /**
+   * Fails the given number of calls with an {@link IllegalStateException}, then returns the
+   * number of calls.
+   */
+  private static Function<String, CompletableFuture<Integer>> failing(AtomicInteger calls, int failures) {
+    return request -> {
+      int call = calls.incrementAndGet();
+      return call <= failures
+        ? CompletableFutures.exceptionallyCompletedFuture(new IllegalStateException("call " + call))
+        : CompletableFuture.completedFuture(call);
+    };
+  }
+
+  private static <T> void assertFailsWith(CompletableFuture<T> future, Class<? extends Throwable> type) {
+    try {
+      future.join();
+      fail("expected a failure");
+    } catch (CompletionException e) {
+      assertTrue(type.isInstance(e.getCause()), e.toString());
+    }
+  }
+
+  @Test
+  public void testRetriesUntilSuccess() throws Exception {
+    RetryPolicy policy = policy().build();
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", failing(calls, 2))
+      .retrying(policy);
+    assertEquals(resultFromNode(node), Integer.valueOf(3));
+    assertEquals(policy.getCalls(), 1);
+    assertEquals(policy.getRetries(), 2);
+  }
+
+  @Test
+  public void testFailsAfterMaxRetries() throws Exception {
+    RetryPolicy policy = policy().withMaxRetries(2).build();
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", failing(calls, Integer.MAX_VALUE))
+      .retrying(policy);
+    assertFailsWith(node.apply(), IllegalStateException.class);
+    assertEquals(calls.get(), 3);
+  }
+
+  @Test
+  public void testOptionalNodeIsEmptyAfterRetries() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", failing(calls, Integer.MAX_VALUE))
+      .retrying(policy().build());
+    assertEquals(resultFromNode(Node.optional(node)), Optional.empty());
+    assertEquals(calls.get(), 4);
+  }
+
+  @Test
+  public void testRetriesOnlyMatchingFailures() throws Exception {
+    RetryPolicy policy = policy()
+      .withRetryOn(failure -> !(failure instanceof IllegalStateException))
+      .build();
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", failing(calls, 1))
+      .retrying(policy);
+    assertFailsWith(node.apply(), IllegalStateException.class);
+    assertEquals(calls.get(), 1);
+    assertEquals(policy.getRetries(), 0);
+  }
+
+  @Test
+  public void testRetriesExceptionsThrownByEvaluate() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = new Node<Integer>("throwing", false, false) {
+      @Override
+      protected CompletableFuture<Integer> evaluate() throws Exception {
+        if (calls.incrementAndGet() == 1) {
+          throw new IllegalStateException("first call");
+        }
+        return CompletableFuture.completedFuture(calls.get());
+      }
+    }.retrying(policy().build());
+    assertEquals(resultFromNode(node), Integer.valueOf(2));
+  }
+
+  @Test
+  public void testBudget() throws Exception {
+    RetryPolicy policy = policy()
+      .withMaxRetries(1)
+      .withMaxExtraLoad(0)
+      .build();
+    int nodes = RetryPolicy.MAX_SAVED_RETRIES + 2;
+    AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < nodes; i++) {
+      Node<Integer> node = Node.value("request")
+        .flatMap("call", failing(calls, Integer.MAX_VALUE))
+        .retrying(policy);
+      assertFailsWith(node.apply(), IllegalStateException.class);
+    }
+    assertEquals(policy.getCalls(), nodes);
+    assertEquals(policy.getRetries(), RetryPolicy.MAX_SAVED_RETRIES);
+    assertEquals(policy.getRejectedRetries(), 2);
+    assertEquals(calls.get(), nodes + RetryPolicy.MAX_SAVED_RETRIES);
+  }
+
+  @Test
+  public void testNotRetriedAfterDeadline() throws Exception {
+    RetryPolicy policy = policy()
+      .withInitialBackoff(Duration.ofHours(1))
+      .withJitter(0)
+      .build();
+    ExecutionContext context = ExecutionContext.builder()
+      .withDeadline(Duration.ofSeconds(30))
+      .build();
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", failing(calls, 1))
+      .retrying(policy);
+    assertFailsWith(node.apply(context), IllegalStateException.class);
+    assertEquals(calls.get(), 1);
+    assertEquals(policy.getRetries(), 0);
+  }
+
+  @Test
+  public void testRetryRejectedByExecutorFails() throws Exception {
+    // the executor is shut down, the evaluation fails with its last failure instead of hanging
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withExecutor(command -> {
+        throw new RejectedExecutionException("shut down");
+      })
+      .build();
+    AtomicInteger calls = new AtomicInteger();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", failing(calls, Integer.MAX_VALUE))
+      .retrying(policy().build());
+    Throwable failure = node.apply(context).handle((value, throwable) -> throwable).get(10, TimeUnit.SECONDS);
+    assertTrue(failure instanceof CompletionException, String.valueOf(failure));
+    assertTrue(failure.getCause() instanceof IllegalStateException, failure.toString());
+    assertEquals(calls.get(), 1);
+  }
+
+  @Test
+  public void testCancellingCancelsRetry() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CompletableFuture<Integer> retry = new CompletableFuture<>();
+    Node<Integer> node = Node.value("request")
+      .flatMap("call", request -> calls.incrementAndGet() == 1
+        ? CompletableFutures.<Integer>exceptionallyCompletedFuture(new IllegalStateException("first call"))
+        : retry)
+      .retrying(policy().build());
+    CompletableFuture<Integer> result = node.apply();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (calls.get() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(calls.get(), 2);
+
+    result.cancel(false);
+    assertTrue(retry.isCancelled());
+  }
+
+  @Test
+  public void testBackoff() throws Exception {
+    RetryPolicy policy = RetryPolicy.builder()
+      .withInitialBackoff(Duration.ofMillis(10))
+      .withMaxBackoff(Duration.ofMillis(30))
+      .withJitter(0)
+      .build();
+    assertEquals(policy.backoffNanos(0), TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(policy.backoffNanos(1), TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(policy.backoffNanos(2), TimeUnit.MILLISECONDS.toNanos(30));
+    assertEquals(policy.backoffNanos(100), TimeUnit.MILLISECONDS.toNanos(30));
+
+    RetryPolicy jittered = RetryPolicy.builder()
+      .withInitialBackoff(Duration.ofMillis(10))
+      .withJitter(1)
+      .build();
+    for (int i = 0; i < 100; i++) {
+      long backoff = jittered.backoffNanos(0);
+      assertTrue(backoff >= 0 && backoff <= TimeUnit.MILLISECONDS.toNanos(10), String.valueOf(backoff));
+    }
+  }
+}
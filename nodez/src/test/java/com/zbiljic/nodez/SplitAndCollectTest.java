@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SplitAndCollectTest extends NodeTestBase {
+
+  private static final ExecutionContext INLINE = ExecutionContext.builder()
+    .withInlineExecution(true)
+    .build();
+
+  private static List<Integer> range(int size) {
+    return IntStream.range(0, size).boxed().collect(Collectors.toList());
+  }
+
+  @Test
+  public void testMaxInFlight() throws Exception {
+    List<CompletableFuture<String>> started = new ArrayList<>();
+    Node<List<String>> collected = Node.splitAndCollect(Node.value(range(5)), "pending",
+      (Integer i) -> {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        started.add(future);
+        return Node.wrapCompletableFuture(future);
+      },
+      CollectOptions.builder().withMaxInFlight(2).build());
+
+    CompletableFuture<List<String>> result = collected.apply(INLINE);
+    assertEquals(started.size(), 2);
+
+    started.get(1).complete("1");
+    assertEquals(started.size(), 3);
+    started.get(0).complete("0");
+    started.get(2).complete("2");
+    assertEquals(started.size(), 5);
+    assertFalse(result.isDone());
+
+    started.get(4).complete("4");
+    started.get(3).complete("3");
+    assertEquals(resultFromFuture(result), Arrays.asList("0", "1", "2", "3", "4"));
+  }
+
+  @Test
+  public void testUnordered() throws Exception {
+    List<CompletableFuture<Integer>> started = new ArrayList<>();
+    Node<List<Integer>> collected = Node.splitAndCollect(Node.value(range(3)), "pending",
+      (Integer i) -> {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        started.add(future);
+        return Node.wrapCompletableFuture(future);
+      },
+      CollectOptions.builder().withOrdered(false).build());
+
+    CompletableFuture<List<Integer>> result = collected.apply(INLINE);
+    assertEquals(started.size(), 3);
+    started.get(2).complete(2);
+    started.get(0).complete(0);
+    started.get(1).complete(1);
+    assertEquals(resultFromFuture(result), Arrays.asList(2, 0, 1));
+  }
+
+  @Test
+  public void testBatchesOfElements() throws Exception {
+    List<CompletableFuture<Integer>> started = new ArrayList<>();
+    Node<List<Integer>> collected = Node.splitAndCollect(Node.value(range(5)), "pending",
+      (Integer i) -> {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        started.add(future);
+        return Node.wrapCompletableFuture(future);
+      },
+      CollectOptions.builder().withBatchSize(2).withMaxInFlight(1).build());
+
+    CompletableFuture<List<Integer>> result = collected.apply(INLINE);
+    assertEquals(started.size(), 2);
+    started.get(0).complete(0);
+    // the next batch starts once the whole batch is complete
+    assertEquals(started.size(), 2);
+    started.get(1).complete(1);
+    assertEquals(started.size(), 4);
+    started.get(2).complete(2);
+    started.get(3).complete(3);
+    assertEquals(started.size(), 5);
+    started.get(4).complete(4);
+    assertEquals(resultFromFuture(result), range(5));
+  }
+
+  @Test
+  public void testSplitAndCollectBatches() throws Exception {
+    List<List<Integer>> batches = new ArrayList<>();
+    Node<List<String>> collected = Node.splitAndCollectBatches(Node.value(range(7)), "toString",
+      (List<Integer> batch) -> {
+        batches.add(new ArrayList<>(batch));
+        return Node.value(batch.stream().map(String::valueOf).collect(Collectors.toList()));
+      },
+      CollectOptions.builder().withBatchSize(3).withMaxInFlight(2).build());
+
+    assertEquals(resultFromFuture(collected.apply(INLINE)),
+      Arrays.asList("0", "1", "2", "3", "4", "5", "6"));
+    assertEquals(batches, Arrays.asList(range(3), Arrays.asList(3, 4, 5), Collections.singletonList(6)));
+  }
+
+  @Test
+  public void testBatchWithMissingResults() throws Exception {
+    Node<List<Integer>> collected = Node.splitAndCollectBatches(Node.value(range(4)), "first",
+      (List<Integer> batch) -> Node.value(batch.subList(0, 1)),
+      CollectOptions.builder().withBatchSize(2).build());
+
+    assertNodeThrow(collected);
+  }
+
+  @Test
+  public void testFailureStopsApplying() throws Exception {
+    List<Integer> applied = new ArrayList<>();
+    Node<List<Integer>> collected = Node.splitAndCollect(Node.value(range(10)), "failAtThree",
+      (Integer i) -> {
+        applied.add(i);
+        return i == 3
+          ? Node.fail(new IllegalStateException("three"))
+          : Node.value(i);
+      },
+      CollectOptions.builder().withMaxInFlight(1).build());
+
+    CompletableFuture<List<Integer>> result = collected.apply(INLINE);
+    assertTrue(result.isCompletedExceptionally());
+    assertEquals(applied, range(4));
+  }
+
+  @Test
+  public void testFailureCancelsInFlight() throws Exception {
+    List<CompletableFuture<Integer>> started = new ArrayList<>();
+    Node<List<Integer>> collected = Node.splitAndCollect(Node.value(range(5)), "pending",
+      (Integer i) -> {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        started.add(future);
+        return Node.wrapCompletableFuture(future);
+      },
+      CollectOptions.builder().withMaxInFlight(3).build());
+
+    CompletableFuture<List<Integer>> result = collected.apply(INLINE);
+    assertEquals(started.size(), 3);
+    started.get(1).completeExceptionally(new IllegalStateException("one"));
+    assertTrue(result.isCompletedExceptionally());
+    assertTrue(started.get(0).isCancelled());
+    assertTrue(started.get(2).isCancelled());
+    assertEquals(started.size(), 3);
+  }
+
+  @Test
+  public void testCancelCancelsInFlightBatches() throws Exception {
+    List<CompletableFuture<List<Integer>>> started = new ArrayList<>();
+    Node<List<Integer>> collected = Node.splitAndCollectBatches(Node.value(range(6)), "pending",
+      (List<Integer> batch) -> {
+        CompletableFuture<List<Integer>> future = new CompletableFuture<>();
+        started.add(future);
+        return Node.wrapCompletableFuture(future);
+      },
+      CollectOptions.builder().withBatchSize(2).withMaxInFlight(2).build());
+
+    CompletableFuture<List<Integer>> result = collected.apply(INLINE);
+    assertEquals(started.size(), 2);
+    result.cancel(true);
+    assertTrue(started.get(0).isCancelled());
+    assertTrue(started.get(1).isCancelled());
+    assertEquals(started.size(), 2);
+  }
+
+  @Test
+  public void testCollectedListIsMutable() throws Exception {
+    List<Integer> result = resultFromNode(Node.splitAndCollect(Node.value(range(3)), "plusOne",
+      (Integer i) -> Node.value(i + 1), CollectOptions.builder().withBatchSize(2).build()));
+    result.add(4);
+    assertEquals(result, Arrays.asList(1, 2, 3, 4));
+
+    List<Integer> empty = resultFromNode(Node.splitAndCollect(
+      Node.value(Collections.<Integer>emptyList()), "plusOne", (Integer i) -> Node.value(i + 1),
+      CollectOptions.DEFAULT));
+    empty.add(1);
+    assertEquals(empty, Collections.singletonList(1));
+  }
+
+  @Test
+  public void testLargeListCompletingInline() throws Exception {
+    Node<List<Integer>> collected = Node.splitAndCollect(Node.value(range(50_000)), "plusOne",
+      (Integer i) -> Node.value(i + 1),
+      CollectOptions.builder().withMaxInFlight(1).build());
+
+    List<Integer> result = resultFromFuture(collected.apply(INLINE));
+    assertEquals(result.size(), 50_000);
+    assertEquals(result.get(49_999).intValue(), 50_000);
+  }
+
+  @Test
+  public void testEmptyList() throws Exception {
+    Node<List<Integer>> collected = Node.splitAndCollect(Node.value(Collections.<Integer>emptyList()),
+      "plusOne", (Integer i) -> Node.value(i + 1), CollectOptions.DEFAULT);
+
+    assertEquals(resultFromNode(collected), Collections.emptyList());
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TimeoutNodeTest extends NodeTestBase {
+
+  private static final Duration TIMEOUT = Duration.ofMillis(20);
+
+  private static final ExecutionContext INLINE = ExecutionContext.builder()
+    .withInlineExecution(true)
+    .build();
+
+  @Test
+  public void testCompletesInTime() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    CompletableFuture<String> result = Node.wrapCompletableFuture(future, "slow")
+      .withTimeout(Duration.ofSeconds(30))
+      .apply();
+    assertFalse(result.isDone());
+
+    future.complete("value");
+    assertEquals(resultFromFuture(result), "value");
+  }
+
+  @Test
+  public void testAlreadyCompleted() throws Exception {
+    CompletableFuture<String> result = Node.value("value").withTimeout(Duration.ofSeconds(30)).apply(INLINE);
+    assertTrue(result.isDone());
+    assertEquals(result.join(), "value");
+  }
+
+  @Test
+  public void testTimeoutFails() throws Exception {
+    Node<String> node = Node.wrapCompletableFuture(new CompletableFuture<String>(), "never")
+      .withTimeout(TIMEOUT);
+    assertNodeThrow(node);
+    try {
+      node.apply().join();
+      fail("expected a timeout");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException, e.toString());
+    }
+  }
+
+  @Test
+  public void testTimeoutWithRejectingExecutor() throws Exception {
+    // the executor is shut down, the timeout is handled on the timer thread instead
+    ExecutionContext context = INLINE.toBuilder()
+      .withExecutor(command -> {
+        throw new RejectedExecutionException("shut down");
+      })
+      .build();
+    CompletableFuture<String> result = Node.wrapCompletableFuture(new CompletableFuture<String>(), "never")
+      .withTimeout(TIMEOUT)
+      .apply(context);
+    Throwable failure = result.handle((value, throwable) -> throwable).get(10, TimeUnit.SECONDS);
+    assertTrue(failure instanceof CompletionException, String.valueOf(failure));
+    assertTrue(failure.getCause() instanceof TimeoutException, failure.toString());
+  }
+
+  @Test
+  public void testTimeoutOfOptionalNodeIsEmpty() throws Exception {
+    Node<String> never = Node.wrapCompletableFuture(new CompletableFuture<String>(), "never");
+    assertEquals(resultFromNode(Node.optional(never.withTimeout(TIMEOUT))), Optional.empty());
+    assertEquals(resultFromNode(Node.optional(never).withTimeout(TIMEOUT)), Optional.empty());
+  }
+
+  @Test
+  public void testTimeoutFallback() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    Node<String> node = Node.wrapCompletableFuture(future, "late")
+      .withTimeout(TIMEOUT, "fallback");
+    assertEquals(resultFromNode(node), "fallback");
+
+    // the output of the wrapped node is ignored once the timeout expired
+    future.complete("value");
+    assertEquals(resultFromNode(node), "fallback");
+  }
+
+  @Test
+  public void testFallbackNodeAppliedOnlyOnTimeout() throws Exception {
+    Node<String> fallback = Node.valueFromSupplier(() -> "fallback", "fallback");
+    Node<String> node = Node.value("value").withTimeout(TIMEOUT, fallback);
+    assertEquals(resultFromNode(node), "value");
+    assertNull(fallback.getExecutionContext());
+  }
+
+  @Test
+  public void testDependentsProceed() throws Exception {
+    Node<String> node = Node.wrapCompletableFuture(new CompletableFuture<String>(), "never")
+      .withTimeout(TIMEOUT, "fallback");
+    Node<Integer> length = node.map("length", String::length);
+    assertEquals(resultFromNode(length), Integer.valueOf(8));
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.debug;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DebugMessageBuilderTest {
+
+  @Test
+  public void testMessagesAreFormattedWhenRendered() {
+    AtomicInteger rendered = new AtomicInteger();
+    Object argument = new Object() {
+      @Override
+      public String toString() {
+        return "argument-" + rendered.incrementAndGet();
+      }
+    };
+    DebugMessageBuilder builder = new DebugMessageBuilder(DebugLevel.BASIC);
+
+    builder.basic("value: %s", argument);
+    builder.detailed("not recorded: %s", argument);
+    assertEquals(rendered.get(), 0);
+    assertFalse(builder.isEmpty());
+
+    assertEquals(builder.toString(), "value: argument-1\n");
+  }
+
+  @Test
+  public void testOldestRecordsAreDropped() {
+    DebugMessageBuilder builder = new DebugMessageBuilder(DebugLevel.BASIC, 2);
+
+    builder.basic("first");
+    builder.indent().basic("second");
+    builder.unindent().basic("third");
+
+    assertEquals(builder.getDroppedCount(), 1);
+    assertEquals(builder.toString(), "... 1 earlier messages dropped\n  second\nthird\n");
+
+    builder.reset();
+    assertTrue(builder.isEmpty());
+    assertEquals(builder.toString(), "");
+  }
+
+  @Test
+  public void testRecordsGrowUpToCapacity() {
+    DebugMessageBuilder builder = new DebugMessageBuilder(DebugLevel.BASIC, 40);
+
+    for (int i = 0; i < 100; i++) {
+      builder.basic("m%d", i);
+    }
+
+    assertEquals(builder.getCapacity(), 40);
+    assertEquals(builder.getDroppedCount(), 60);
+    String[] lines = builder.toString().split("\n");
+    assertEquals(lines.length, 41);
+    assertEquals(lines[1], "m60");
+    assertEquals(lines[40], "m99");
+  }
+
+  @Test(timeOut = 30_000)
+  public void testConcurrentWritersDoNotTearRecords() throws Exception {
+    DebugMessageBuilder builder = new DebugMessageBuilder(DebugLevel.BASIC, 4);
+    Thread[] writers = new Thread[8];
+    for (int i = 0; i < writers.length; i++) {
+      String name = "T" + i;
+      writers[i] = new Thread(() -> {
+        for (int j = 0; j < 20_000; j++) {
+          builder.message(DebugLevel.BASIC, name, "%s", name);
+        }
+      });
+      writers[i].start();
+    }
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread writer : writers) {
+        running |= writer.isAlive();
+      }
+      for (String line : builder.toString().split("\n")) {
+        if (!line.startsWith("...") && !line.isEmpty()) {
+          String[] parts = line.split(": ");
+          assertEquals(parts[1], parts[0], line);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEvents() {
+    DebugMessageBuilder builder = new DebugMessageBuilder(DebugLevel.DETAILED);
+    long millis = TimeUnit.MILLISECONDS.toNanos(1);
+
+    builder.event(DebugLevel.DETAILED, "NODE [a]", DebugEvent.START, 0, 0, null);
+    builder.event(DebugLevel.DETAILED, "NODE [a]", DebugEvent.END, 3 * millis, millis, null);
+    builder.event(DebugLevel.DETAILED, "NODE [b]", DebugEvent.FAILED, -1, -1,
+      new IllegalStateException("failure"));
+    builder.event(DebugLevel.VERBOSE, "NODE [c]", DebugEvent.DECIDED_OFF, 0, 0, "key");
+
+    String[] lines = builder.toString().split("\n");
+    assertEquals(lines.length, 3);
+    assertTrue(lines[0].matches("\\[\\d{4}] NODE \\[a]: Start"), lines[0]);
+    assertTrue(lines[1].matches("\\[\\d{4}] NODE \\[a]: End \\(3000/1000 us\\)"), lines[1]);
+    assertTrue(lines[2].matches("\\[\\d{4}] NODE \\[b]: Failed: failure"), lines[2]);
+  }
+
+  @Test
+  public void testStackTraceOnlyWhenVerbose() {
+    DebugMessageBuilder detailed = new DebugMessageBuilder(DebugLevel.DETAILED);
+    DebugMessageBuilder verbose = new DebugMessageBuilder(DebugLevel.VERBOSE);
+    IllegalStateException failure = new IllegalStateException("failure");
+
+    detailed.event(DebugLevel.DETAILED, null, DebugEvent.FAILED, -1, -1, failure);
+    verbose.event(DebugLevel.DETAILED, null, DebugEvent.FAILED, -1, -1, failure);
+
+    assertEquals(detailed.toString(), "Failed: failure\n");
+    assertTrue(verbose.toString().startsWith(
+      "Failed: failure\nDetailed failure: java.lang.IllegalStateException: failure\n"));
+    assertTrue(verbose.toString().contains("testStackTraceOnlyWhenVerbose"));
+  }
+
+  @Test
+  public void testInvalidFormat() {
+    DebugMessageBuilder builder = new DebugMessageBuilder(DebugLevel.BASIC);
+
+    builder.basic("value: %d", "text");
+
+    assertEquals(builder.toString(), "value: %d [text]\n");
+  }
+
+  @Test
+  public void testNoneBuilderRecordsNothing() {
+    DebugMessageBuilder builder = DebugNoneMessageBuilder.getInstance();
+
+    builder.basic("message");
+    builder.event(DebugLevel.BASIC, null, DebugEvent.START, 0, 0, null);
+
+    assertTrue(builder.isEmpty());
+    assertEquals(builder.toString(), "");
+    assertEquals(new DebugMessageBuilder().getCapacity(), 0);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.metrics;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    for (long value = 0; value < 8; value++) {
+      assertEquals(LatencyHistogram.bucketIndex(value), (int) value);
+    }
+    assertEquals(LatencyHistogram.bucketIndex(8), 8);
+    assertEquals(LatencyHistogram.bucketIndex(15), 15);
+    assertEquals(LatencyHistogram.bucketIndex(16), 16);
+    assertEquals(LatencyHistogram.bucketIndex(17), 16);
+    assertEquals(LatencyHistogram.bucketIndex(18), 17);
+    assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE), LatencyHistogram.BUCKET_COUNT - 1);
+
+    long previous = -1;
+    for (int index = 0; index < LatencyHistogram.BUCKET_COUNT; index++) {
+      long lowerBound = LatencyHistogram.getBucketLowerBound(index);
+      assertTrue(lowerBound > previous);
+      assertEquals(LatencyHistogram.bucketIndex(lowerBound), index);
+      assertEquals(LatencyHistogram.bucketIndex(lowerBound - 1), index - 1);
+      previous = lowerBound;
+    }
+  }
+
+  @Test
+  public void testRelativeError() {
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      long lowerBound = LatencyHistogram.getBucketLowerBound(LatencyHistogram.bucketIndex(value));
+      assertTrue(lowerBound <= value);
+      assertTrue(value - lowerBound <= value / 8, "value " + value);
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(histogram.getValueAtPercentile(99), 0);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000);
+    }
+    histogram.record(-5);
+
+    assertEquals(histogram.getCount(), 101);
+    assertEquals(histogram.getTotalNanos(), 5050 * 1000);
+    assertEquals(histogram.getBucketCount(0), 1);
+    assertEquals(histogram.getValueAtPercentile(0), 0);
+    assertEquals(histogram.getValueAtPercentile(100), 98304);
+    long median = histogram.getValueAtPercentile(50);
+    assertTrue(median > 50000 * 7 / 8 && median <= 50000, "median " + median);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidPercentile() {
+    new LatencyHistogram().getValueAtPercentile(101);
+  }
+}
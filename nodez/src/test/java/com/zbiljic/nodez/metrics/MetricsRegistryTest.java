@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.metrics;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTestBase;
+import com.zbiljic.nodez.utils.DeciderSupplier;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MetricsRegistryTest extends NodeTestBase {
+
+  @Test
+  public void testMetricsEnableTiming() {
+    ExecutionContext context = ExecutionContext.builder()
+      .withMetrics(new MetricsRegistry())
+      .build();
+    assertTrue(context.isTimingEnabled());
+    assertNotNull(context.getMetricsListener());
+    assertNull(ExecutionContext.DEFAULT.getMetricsListener());
+  }
+
+  @Test
+  public void testOutcomes() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withMetrics(registry)
+      .build();
+
+    // a node is evaluated once, so every round builds new ones
+    for (int i = 0; i < 3; i++) {
+      Node<Integer> success = Node.value(1).map("success", x -> x);
+      Node<Integer> nullable = new Node<Integer>("nullable", false, true) {
+        @Override
+        protected CompletableFuture<Integer> evaluate() {
+          return CompletableFuture.completedFuture(null);
+        }
+      };
+      Node<Integer> failing = Node.value(1).map("failing", x -> {
+        throw new IllegalStateException();
+      });
+      Node<Optional<Integer>> optional = new Node<Optional<Integer>>("optional", true, false) {
+        @Override
+        protected CompletableFuture<Optional<Integer>> evaluate() {
+          throw new IllegalStateException();
+        }
+      };
+      Node<Integer> decidedOff = Node.value(1)
+        .mapWithDeciderSupplier("decidedOff", DeciderSupplier.ALWAYS_FALSE, x -> x);
+
+      assertEquals(resultFromFuture(success.apply(context)).intValue(), 1);
+      assertNull(resultFromFuture(nullable.apply(context)));
+      assertTrue(failing.apply(context).isCompletedExceptionally());
+      assertFalse(resultFromFuture(optional.apply(context)).isPresent());
+      decidedOff.apply(context);
+    }
+
+    assertEquals(registry.getMetrics("success").getCount(NodeOutcome.SUCCESS), 3);
+    assertEquals(registry.getMetrics("nullable").getCount(NodeOutcome.NULL), 3);
+    assertEquals(registry.getMetrics("failing").getCount(NodeOutcome.FAILURE), 3);
+    assertEquals(registry.getMetrics("optional").getCount(NodeOutcome.OPTIONAL_EMPTY), 3);
+    NodeMetrics decidedOffMetrics = registry.getMetrics("decidedOff");
+    assertEquals(decidedOffMetrics.getCount(NodeOutcome.DECIDED_OFF), 3);
+    assertEquals(decidedOffMetrics.getTotalCount(), 3);
+    assertEquals(decidedOffMetrics.getEvaluate().getCount(), 0);
+    assertEquals(decidedOffMetrics.getDependencyWait().getCount(), 3);
+  }
+
+  @Test
+  public void testLatencies() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    MetricsRegistry registry = new MetricsRegistry();
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withTimingClock(clock::get)
+      .withMetrics(registry)
+      .build();
+
+    Node<Integer> slow = Node.value(1).map("slow", x -> {
+      clock.addAndGet(1000);
+      return x;
+    });
+    Node<Integer> root = slow.map("plusOne", x -> x + 1);
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 2);
+
+    LatencyHistogram slowEvaluate = registry.getMetrics("slow").getEvaluate();
+    assertEquals(slowEvaluate.getCount(), 1);
+    assertEquals(slowEvaluate.getTotalNanos(), 1000);
+    LatencyHistogram rootDependencyWait = registry.getMetrics("plusOne").getDependencyWait();
+    assertEquals(rootDependencyWait.getTotalNanos(), 1000);
+    assertEquals(rootDependencyWait.getValueAtPercentile(50), LatencyHistogram.getBucketLowerBound(
+      LatencyHistogram.bucketIndex(1000)));
+  }
+
+  @Test
+  public void testByKey() throws Exception {
+    MetricsRegistry byName = new MetricsRegistry();
+    MetricsRegistry byKey = new MetricsRegistry(true);
+    for (String key : new String[]{"a", "b"}) {
+      for (MetricsRegistry registry : new MetricsRegistry[]{byName, byKey}) {
+        Node<Integer> node = Node.value(1).map("keyed", x -> x).withKey(key);
+        resultFromFuture(node.apply(ExecutionContext.builder().withMetrics(registry).build()));
+      }
+    }
+    assertEquals(byName.getMetrics("keyed").getCount(NodeOutcome.SUCCESS), 2);
+    assertNull(byKey.getMetrics("keyed"));
+    assertEquals(byKey.getMetrics("keyed:a").getCount(NodeOutcome.SUCCESS), 1);
+    assertEquals(byKey.getMetrics("keyed:b").getCount(NodeOutcome.SUCCESS), 1);
+  }
+
+  @Test
+  public void testListenerFailureIsIgnored() throws Exception {
+    ExecutionContext context = ExecutionContext.builder()
+      .withMetrics((name, key, outcome, timing) -> {
+        throw new IllegalStateException();
+      })
+      .build();
+    Node<Integer> root = Node.value(1).map("plusOne", x -> x + 1);
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 2);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.NodeTestBase;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class CriticalPathAnalyzerTest extends NodeTestBase {
+
+  @Test
+  public void testTraceSpans() {
+    // root depends on a (0 - 3000) and c, which depends on b (0 - 1000) and takes 500 more
+    List<TraceSpan> spans = Arrays.asList(
+      span("a", 0, 0, 3000),
+      span("b", 0, 0, 1000),
+      span("c", 0, 1000, 1500, "b"),
+      span("root", 0, 3000, 3500, "a", "c"));
+
+    CriticalPath criticalPath = CriticalPathAnalyzer.analyzeTraceSpans(spans);
+    assertEquals(names(criticalPath.getPath()), Arrays.asList("a", "root"));
+    assertEquals(criticalPath.getTotalNanos(), 3500);
+    assertEquals(criticalPath.getPath().get(0).getCriticalNanos(), 3000);
+    assertEquals(criticalPath.getPath().get(1).getCriticalNanos(), 500);
+
+    Map<String, CriticalPath.Step> steps = byName(criticalPath.getNodes());
+    assertEquals(steps.size(), 4);
+    assertEquals(steps.get("root").getSlackNanos(), 0);
+    assertEquals(steps.get("a").getSlackNanos(), 0);
+    assertEquals(steps.get("c").getSlackNanos(), 1500);
+    assertEquals(steps.get("b").getSlackNanos(), 1500);
+    assertFalse(steps.get("b").isCritical());
+    assertEquals(steps.get("b").getCriticalNanos(), 0);
+    assertEquals(steps.get("c").getSelfNanos(), 500);
+    // dependencies come first
+    List<String> order = names(criticalPath.getNodes());
+    assertTrue(order.indexOf("b") < order.indexOf("c"));
+    assertEquals(order.get(3), "root");
+  }
+
+  @Test
+  public void testLiveNodes() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withTimingClock(clock::get)
+      .build();
+
+    Node<Integer> slow = Node.value(1).map("slow", x -> {
+      clock.addAndGet(3000);
+      return x;
+    });
+    Node<Integer> fast = Node.value(2).map("fast", x -> {
+      clock.addAndGet(1000);
+      return x;
+    });
+    Node<Integer> root = Node.map2("root", slow, fast, Integer::sum);
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 3);
+
+    CriticalPath criticalPath = CriticalPathAnalyzer.analyze(root);
+    assertCriticalPath(criticalPath, "root");
+    assertEquals(criticalPath.getTotalNanos(), 4000);
+    // nodes are evaluated one after the other on this thread, so the path may start late
+    assertEquals(byName(criticalPath.getPath()).get("slow").getCriticalNanos(), 3000);
+  }
+
+  @Test
+  public void testTrace() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    Node<Integer> root = Node.value(1)
+      .map("slow", x -> {
+        clock.addAndGet(2000);
+        return x;
+      })
+      .map("plusOne", x -> x + 1);
+    GraphPlan<Integer> plan = GraphPlan.compile(root);
+    ExecutionTrace trace = new ExecutionTrace(plan.size());
+    ExecutionContext context = ExecutionContext.builder()
+      .withTimingClock(clock::get)
+      .withTrace(trace)
+      .build();
+    assertEquals(resultFromFuture(plan.execute(context)).intValue(), 2);
+
+    CriticalPath criticalPath = CriticalPathAnalyzer.analyze(trace);
+    assertCriticalPath(criticalPath, "plusOne");
+    assertEquals(names(criticalPath.getPath()), Arrays.asList("value[1]", "slow", "plusOne"));
+    assertEquals(criticalPath.getTotalNanos(), 2000);
+    assertEquals(criticalPath.getPath().get(0).getAppliedNanos(), 0);
+    assertEquals(byName(criticalPath.getPath()).get("slow").getCriticalNanos(), 2000);
+
+    CriticalPath fromTraceSpans = CriticalPathAnalyzer.analyzeTraceSpans(trace.toTraceSpans());
+    assertEquals(names(fromTraceSpans.getPath()), names(criticalPath.getPath()));
+    assertEquals(fromTraceSpans.getTotalNanos(), 2000);
+  }
+
+  @Test
+  public void testNodesAppliedByInputName() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    Node<Integer> slow = Node.value(1).map("slow", x -> {
+      clock.addAndGet(3000);
+      return x;
+    });
+    Node<Integer> root = slow.withTimeout(Duration.ofSeconds(30));
+
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withTimingClock(clock::get)
+      .build();
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 1);
+    CriticalPath criticalPath = CriticalPathAnalyzer.analyze(root);
+    assertCriticalPath(criticalPath, "slow_timeout");
+    assertEquals(names(criticalPath.getPath()), Arrays.asList("value[1]", "slow", "slow_timeout"));
+    assertEquals(byName(criticalPath.getPath()).get("slow").getCriticalNanos(), 3000);
+
+    GraphPlan<Integer> plan = GraphPlan.compile(root);
+    ExecutionTrace trace = new ExecutionTrace(plan.size());
+    assertEquals(resultFromFuture(plan.execute(ExecutionContext.builder()
+      .withTimingClock(clock::get)
+      .withTrace(trace)
+      .build())).intValue(), 1);
+    List<TraceSpan> spans = trace.toTraceSpans();
+    Map<String, String> ids = new HashMap<>();
+    for (TraceSpan span : spans) {
+      ids.put(span.getName(), span.getSpanId());
+    }
+    for (TraceSpan span : spans) {
+      if (span.getName().equals("slow_timeout")) {
+        assertEquals(span.getLinks(), Collections.singletonList(ids.get("slow")));
+      }
+    }
+    assertEquals(names(CriticalPathAnalyzer.analyze(trace).getPath()),
+      Arrays.asList("value[1]", "slow", "slow_timeout"));
+  }
+
+  @Test
+  public void testStats() {
+    CriticalPathStats stats = new CriticalPathStats();
+    stats.add(CriticalPathAnalyzer.analyzeTraceSpans(Arrays.asList(
+      span("a", 0, 0, 3000),
+      span("b", 0, 0, 1000),
+      span("root", 0, 3000, 3500, "a", "b"))));
+    stats.add(CriticalPathAnalyzer.analyzeTraceSpans(Arrays.asList(
+      span("a", 0, 0, 1000),
+      span("b", 0, 0, 2000),
+      span("root", 0, 2000, 2500, "a", "b"))));
+
+    assertEquals(stats.getExecutions(), 2);
+    CriticalPathStats.NodeStats a = stats.getStats("a");
+    assertEquals(a.getCount(), 2);
+    assertEquals(a.getCriticalCount(), 1);
+    assertEquals(a.getCriticalNanos(), 3000);
+    assertEquals(a.getSlackNanos(), 1000);
+    assertEquals(stats.getStats("root").getCriticalCount(), 2);
+    assertEquals(stats.getStats("root").getCriticalNanos(), 1000);
+  }
+
+  private static void assertCriticalPath(CriticalPath criticalPath, String root) {
+    List<CriticalPath.Step> path = criticalPath.getPath();
+    assertEquals(path.get(path.size() - 1).getName(), root);
+    long critical = 0;
+    for (CriticalPath.Step step : path) {
+      assertTrue(step.isCritical());
+      assertEquals(step.getSlackNanos(), 0);
+      critical += step.getCriticalNanos();
+    }
+    assertTrue(critical <= criticalPath.getTotalNanos());
+    for (CriticalPath.Step step : criticalPath.getNodes()) {
+      assertTrue(step.getSlackNanos() >= 0, step.toString());
+    }
+  }
+
+  private static TraceSpan span(String name, long start, long ready, long end, String... dependencies) {
+    List<String> links = new ArrayList<>();
+    for (String dependency : dependencies) {
+      links.add(dependency + "-id");
+    }
+    return new TraceSpan("trace", name + "-id", "execution", name, start, end,
+      Collections.emptyMap(), Collections.singletonList(new TraceSpan.Event(TraceSpan.READY_EVENT, ready)),
+      links, TraceSpan.StatusCode.UNSET);
+  }
+
+  private static List<String> names(List<CriticalPath.Step> steps) {
+    List<String> names = new ArrayList<>();
+    for (CriticalPath.Step step : steps) {
+      names.add(step.getName());
+    }
+    return names;
+  }
+
+  private static Map<String, CriticalPath.Step> byName(List<CriticalPath.Step> steps) {
+    Map<String, CriticalPath.Step> byName = new HashMap<>();
+    for (CriticalPath.Step step : steps) {
+      byName.put(step.getName(), step);
+    }
+    return byName;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.trace;
+
+import com.zbiljic.nodez.ExecutionContext;
+import com.zbiljic.nodez.GraphPlan;
+import com.zbiljic.nodez.Node;
+import com.zbiljic.nodez.NodeOutcome;
+import com.zbiljic.nodez.NodeTestBase;
+import com.zbiljic.nodez.utils.DeciderSupplier;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ExecutionTraceTest extends NodeTestBase {
+
+  @Test
+  public void testSpans() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    ExecutionTrace trace = new ExecutionTrace(16);
+    ExecutionContext context = ExecutionContext.builder()
+      .withInlineExecution(true)
+      .withTimingClock(clock::get)
+      .withTrace(trace)
+      .build();
+
+    Node<Integer> a = Node.value(1).map("a", x -> {
+      clock.addAndGet(1000);
+      return x;
+    });
+    Node<Integer> b = a.map("b", x -> x + 1);
+    Node<Integer> c = a.mapWithDeciderSupplier("c", DeciderSupplier.ALWAYS_FALSE, x -> x + 2);
+    Node<Integer> root = Node.map2("root", b, Node.optional(c), (x, y) -> x);
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 2);
+
+    Map<String, NodeSpan> spans = byName(trace.getSpans());
+    assertEquals(trace.getDroppedCount(), 0);
+    assertEquals(spans.get("a").getOutcome(), NodeOutcome.SUCCESS);
+    assertEquals(spans.get("a").getTiming().getEvaluateNanos(), 1000);
+    assertEquals(spans.get("a").getThreadName(), Thread.currentThread().getName());
+    assertEquals(spans.get("c").getOutcome(), NodeOutcome.DECIDED_OFF);
+
+    NodeSpan rootSpan = spans.get("root");
+    assertEquals(rootSpan.getOutcome(), NodeOutcome.SUCCESS);
+    assertEquals(rootSpan.getTiming().getDependencyWaitNanos(), 1000);
+    assertEquals(rootSpan.getDependencyIds().size(), 2);
+    assertTrue(rootSpan.getDependencyIds().contains(spans.get("b").getId()));
+    assertEquals(spans.get("b").getDependencyIds().size(), 1);
+    assertEquals(spans.get("b").getDependencyIds().get(0).intValue(), spans.get("a").getId());
+  }
+
+  @Test
+  public void testChromeTrace() throws Exception {
+    AtomicLong clock = new AtomicLong(5_000_000);
+    ExecutionTrace trace = new ExecutionTrace(8);
+    ExecutionContext context = ExecutionContext.builder()
+      .withTimingClock(clock::get)
+      .withTrace(trace)
+      .build();
+
+    Node<Integer> a = Node.value(1).map("a\"quoted\"", x -> {
+      clock.addAndGet(1500);
+      return x;
+    });
+    Node<Integer> root = a.map("root", x -> x + 1);
+    assertEquals(resultFromFuture(root.apply(context)).intValue(), 2);
+
+    String json = trace.toChromeTrace();
+    assertTrue(json.startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":["), json);
+    assertTrue(json.endsWith("]}"), json);
+    assertTrue(json.contains("{\"name\":\"thread_name\",\"ph\":\"M\""), json);
+    assertTrue(json.contains("{\"name\":\"a\\\"quoted\\\"\",\"ph\":\"X\",\"pid\":1,\"ts\":0,\"dur\":1.500,"), json);
+    assertTrue(json.contains("{\"name\":\"root\",\"ph\":\"e\",\"pid\":1,\"ts\":1.500,"), json);
+    assertTrue(json.contains("\"ph\":\"s\""), json);
+    assertTrue(json.contains("\"ph\":\"f\",\"pid\":1,\"ts\":1.500,\"bp\":\"e\""), json);
+    assertTrue(json.contains("\"dependencies\":[\"a\\\"quoted\\\"\"]"), json);
+  }
+
+  @Test
+  public void testTraceSpans() throws Exception {
+    ExecutionTrace trace = new ExecutionTrace(8);
+    ExecutionContext context = ExecutionContext.builder()
+      .withTrace(trace)
+      .build();
+
+    Node<Integer> failing = Node.value(1).map("failing", x -> {
+      throw new IllegalStateException();
+    });
+    Node<Integer> root = Node.map2("root", Node.value(1), failing, Integer::sum);
+    assertTrue(root.apply(context).isCompletedExceptionally());
+
+    String traceId = "0af7651916cd43dd8448eb211c80319c";
+    List<TraceSpan> spans = trace.toTraceSpans(traceId, "b7ad6b7169203331");
+    TraceSpan execution = spans.get(0);
+    assertEquals(execution.getName(), TraceSpan.EXECUTION_SPAN_NAME);
+    assertEquals(execution.getParentSpanId(), "b7ad6b7169203331");
+    assertEquals(spans.size(), trace.getSpans().size() + 1);
+
+    Map<String, TraceSpan> byName = new HashMap<>();
+    for (TraceSpan span : spans) {
+      assertEquals(span.getTraceId(), traceId);
+      assertEquals(span.getSpanId().length(), 16);
+      assertTrue(span.getStartEpochNanos() <= span.getEndEpochNanos());
+      if (span != execution) {
+        assertEquals(span.getParentSpanId(), execution.getSpanId());
+        assertEquals(span.getEvents().size(), 3);
+      }
+      byName.put(span.getName(), span);
+    }
+    assertEquals(byName.get("failing").getStatus(), TraceSpan.StatusCode.ERROR);
+    assertEquals(byName.get("failing").getAttributes().get(TraceSpan.OUTCOME), "FAILURE");
+    TraceSpan rootSpan = byName.get("root");
+    assertEquals(rootSpan.getStatus(), TraceSpan.StatusCode.ERROR);
+    assertEquals(rootSpan.getLinks().size(), 2);
+    assertTrue(rootSpan.getLinks().contains(byName.get("failing").getSpanId()));
+
+    assertNull(trace.toTraceSpans().get(0).getParentSpanId());
+  }
+
+  @Test
+  public void testPlanExecution() throws Exception {
+    Node<Integer> root = Node.map2("root", Node.value(1), Node.value(2).map("b", x -> x), Integer::sum);
+    GraphPlan<Integer> plan = GraphPlan.compile(root);
+    for (int i = 0; i < 2; i++) {
+      ExecutionTrace trace = new ExecutionTrace(plan.size());
+      assertEquals(resultFromFuture(plan.execute(ExecutionContext.builder().withTrace(trace).build())).intValue(), 3);
+      List<NodeSpan> spans = trace.getSpans();
+      assertEquals(spans.size(), plan.size());
+      assertEquals(byName(spans).get("root").getDependencyIds().size(), 2);
+    }
+  }
+
+  @Test
+  public void testDropped() throws Exception {
+    ExecutionTrace trace = new ExecutionTrace(2);
+    Node<Integer> root = Graphs.chain(4);
+    assertEquals(resultFromFuture(root.apply(ExecutionContext.builder().withTrace(trace).build())).intValue(), 4);
+    assertEquals(trace.getSpans().size(), 2);
+    assertEquals(trace.getDroppedCount(), 3);
+  }
+
+  private static Map<String, NodeSpan> byName(List<NodeSpan> spans) {
+    Map<String, NodeSpan> byName = new HashMap<>();
+    for (NodeSpan span : spans) {
+      byName.put(span.getName(), span);
+    }
+    return byName;
+  }
+
+  private static final class Graphs {
+
+    static Node<Integer> chain(int length) {
+      Node<Integer> node = Node.value(0);
+      for (int i = 0; i < length; i++) {
+        node = node.map("plusOne", x -> x + 1);
+      }
+      return node;
+    }
+  }
+}
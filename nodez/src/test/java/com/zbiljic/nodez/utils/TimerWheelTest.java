@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Nemanja Zbiljić
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zbiljic.nodez.utils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+  private TimerWheel timer;
+
+  @BeforeMethod
+  public void setUp() {
+    // a small wheel, so timeouts span several rounds
+    timer = new TimerWheel("test-timer", 1, TimeUnit.MILLISECONDS, 8);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    timer.stop();
+  }
+
+  @Test
+  public void testRunsAfterDelay() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    long start = System.nanoTime();
+    TimerWheel.Timeout timeout = timer.schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    assertTrue(timeout.isExpired());
+    assertFalse(timeout.cancel());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    AtomicInteger runs = new AtomicInteger();
+    TimerWheel.Timeout timeout = timer.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    assertTrue(timeout.isCancelled());
+
+    CountDownLatch latch = new CountDownLatch(1);
+    timer.schedule(latch::countDown, 40, TimeUnit.MILLISECONDS);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(runs.get(), 0);
+    assertFalse(timeout.isExpired());
+  }
+
+  @Test
+  public void testManyTimeouts() throws Exception {
+    int count = 1000;
+    CountDownLatch latch = new CountDownLatch(count / 2);
+    AtomicInteger runs = new AtomicInteger();
+    for (int i = 0; i < count; i++) {
+      TimerWheel.Timeout timeout = timer.schedule(() -> {
+        runs.incrementAndGet();
+        latch.countDown();
+      }, i % 50, TimeUnit.MILLISECONDS);
+      if (i % 2 == 1) {
+        timeout.cancel();
+      }
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    Thread.sleep(20);
+    assertEquals(runs.get(), count / 2);
+  }
+
+  @Test
+  public void testFailingTaskDoesNotStopTimer() throws Exception {
+    timer.schedule(() -> {
+      throw new IllegalStateException("expected");
+    }, 1, TimeUnit.MILLISECONDS);
+    CountDownLatch latch = new CountDownLatch(1);
+    timer.schedule(latch::countDown, 5, TimeUnit.MILLISECONDS);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testScheduleAfterStop() {
+    timer.stop();
+    timer.schedule(() -> { }, 1, TimeUnit.MILLISECONDS);
+  }
+}